@@ -0,0 +1,87 @@
+package rwperrott.lambda;
+
+import org.jooq.lambda.tuple.Tuple2;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.BinaryOperator;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collector;
+
+/**
+ * Helpers for benchmarks, which vary the row type and column count at runtime.
+ */
+final class BenchmarkRows {
+    private BenchmarkRows() {
+    }
+
+    @SuppressWarnings("unchecked")
+    static Double tupleKey(final Object row) {
+        return ((Tuple2<String, Double>) row).v2;
+    }
+
+    static Double doubleKey(final Object row) {
+        return (Double) row;
+    }
+
+    @SuppressWarnings("unchecked")
+    static double tupleDoubleKey(final Object row) {
+        return ((Tuple2<String, Double>) row).v2;
+    }
+
+    static double doubleDoubleKey(final Object row) {
+        return (Double) row;
+    }
+
+    /**
+     * Rows are Doubles or Tuple2s, which are both Comparable, so the identity cases sort in natural order.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Comparator<Object> naturalOrder() {
+        return (Comparator) Comparator.naturalOrder();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static UnaryOperator<List<Object>> sortList() {
+        return (UnaryOperator) Finishers.sortList();
+    }
+
+    /**
+     * Like Tuple.collectors, but for a runtime count of columns, finishing them in order.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static <T> Collector<T, Object[], List<Object>> all(final List<Collector<T, ?, ?>> columns) {
+        final Collector[] cs = columns.toArray(new Collector[0]);
+        final int n = cs.length;
+        final BiConsumer[] accumulators = new BiConsumer[n];
+        final BinaryOperator[] combiners = new BinaryOperator[n];
+        for (int i = 0; i < n; i++) {
+            accumulators[i] = cs[i].accumulator();
+            combiners[i] = cs[i].combiner();
+        }
+        return Collector.of(
+                () -> {
+                    final Object[] a = new Object[n];
+                    for (int i = 0; i < n; i++)
+                        a[i] = cs[i].supplier().get();
+                    return a;
+                },
+                (a, t) -> {
+                    for (int i = 0; i < n; i++)
+                        accumulators[i].accept(a[i], t);
+                },
+                (a1, a2) -> {
+                    for (int i = 0; i < n; i++)
+                        a1[i] = combiners[i].apply(a1[i], a2[i]);
+                    return a1;
+                },
+                a -> {
+                    final List<Object> r = new ArrayList<>(n);
+                    for (int i = 0; i < n; i++)
+                        r.add(cs[i].finisher().apply(a[i]));
+                    return r;
+                });
+    }
+}
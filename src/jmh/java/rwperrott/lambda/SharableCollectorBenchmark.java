@@ -0,0 +1,127 @@
+package rwperrott.lambda;
+
+import static org.jooq.lambda.tuple.Tuple.tuple;
+
+import org.jooq.lambda.Agg;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares N unshared Agg.percentile columns, against N columns sharing one collected and sorted list via
+ * SharableCollector.IdMap, plus the primitive and sketch forms.
+ * <p>
+ * The defaults are 3 sizes x 2 sharers x 2 mappers x 2 elements x 2 parallel, so 48 trials per benchmark, and mapper
+ * only matters for aggPercentile and sharedPercentile, so run a subset via -p e.g. -p size=100000000, which needs about
+ * 8GB for tuples, or -p sharers=3.
+ * <p>
+ * e.g. mvn -P jmh test-compile exec:exec -Djmh.args="SharableCollectorBenchmark -p size=1000,100000 -prof gc"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class SharableCollectorBenchmark {
+    @Param({"1000", "100000", "10000000"})
+    public int size;
+
+    @Param({"1", "10"})
+    public int sharers;
+
+    // "identity" collects and sorts the rows, in natural order, "keyExtractor" maps each row to its Double key first.
+    @Param({"identity", "keyExtractor"})
+    public String mapper;
+
+    @Param({"Double", "Tuple"})
+    public String element;
+
+    @Param({"false", "true"})
+    public boolean parallel;
+
+    private List<Object> rows;
+    private double[] percentiles;
+    private Function<Object, Double> keyExtractor;
+    private ToDoubleFunction<Object> doubleKeyExtractor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(1);
+        rows = new ArrayList<>(size);
+        final boolean tuples = "Tuple".equals(element);
+        for (int i = 0; i < size; i++) {
+            final double v = -Math.log(1d - random.nextDouble()) * 100d;
+            rows.add(tuples ? tuple("Row", v) : v);
+        }
+        keyExtractor = tuples ? BenchmarkRows::tupleKey : BenchmarkRows::doubleKey;
+        doubleKeyExtractor = tuples ? BenchmarkRows::tupleDoubleKey : BenchmarkRows::doubleDoubleKey;
+        percentiles = new double[sharers];
+        for (int i = 0; i < sharers; i++)
+            percentiles[i] = sharers == 1 ? 0.5d : 0.5d + 0.499d * i / (sharers - 1);
+    }
+
+    private Stream<Object> stream() {
+        return parallel ? rows.parallelStream() : rows.stream();
+    }
+
+    @Benchmark
+    public List<Object> aggPercentile() {
+        final List<Collector<Object, ?, ?>> columns = new ArrayList<>(sharers);
+        for (double p : percentiles)
+            columns.add("identity".equals(mapper)
+                        ? Agg.percentile(p, BenchmarkRows.naturalOrder())
+                        : Collectors.mapping(keyExtractor, Agg.percentile(p, Comparator.<Double>naturalOrder())));
+        return stream().collect(BenchmarkRows.all(columns));
+    }
+
+    @Benchmark
+    public List<Object> sharedPercentile() {
+        final SharableCollector.IdMap idMap = new SharableCollector.IdMap();
+        final List<Collector<Object, ?, ?>> columns = new ArrayList<>(sharers);
+        if ("identity".equals(mapper)) {
+            final UnaryOperator<List<Object>> andThenR = BenchmarkRows.sortList();
+            for (double p : percentiles)
+                columns.add(idMap.share("A", Collectors.toList(), andThenR,
+                                        Finishers.percentile(p, PercentileFunction.floor())));
+        } else {
+            final UnaryOperator<List<Double>> andThenR = Finishers.sortList();
+            for (double p : percentiles)
+                columns.add(idMap.share("A", keyExtractor, Collectors.toList(), andThenR,
+                                        Finishers.percentile(p, PercentileFunction.interpolateDouble())));
+        }
+        return stream().collect(BenchmarkRows.all(columns));
+    }
+
+    @Benchmark
+    public List<Object> sharedDoublesPercentile() {
+        final SharableCollector.IdMap idMap = new SharableCollector.IdMap();
+        final List<Collector<Object, ?, ?>> columns = new ArrayList<>(sharers);
+        for (double p : percentiles)
+            columns.add(idMap.shareDoubles("A", doubleKeyExtractor, Finishers.sortDoubles(),
+                                           Finishers.percentileDouble(p, DoublePercentileFunction.interpolate())));
+        return stream().collect(BenchmarkRows.all(columns));
+    }
+
+    @Benchmark
+    public List<Object> sharedSketchPercentile() {
+        final SharableCollector.IdMap idMap = new SharableCollector.IdMap();
+        final Collector<Object, DoubleSketch, DoubleSketch> sketch = DoubleSketch.collector(doubleKeyExtractor);
+        final UnaryOperator<DoubleSketch> andThenR = UnaryOperator.identity();
+        final List<Collector<Object, ?, ?>> columns = new ArrayList<>(sharers);
+        for (double p : percentiles)
+            columns.add(idMap.share("A", sketch, andThenR,
+                                    Finishers.percentileDouble(p, DoublePercentileFunction.interpolate())));
+        return stream().collect(BenchmarkRows.all(columns));
+    }
+}
@@ -0,0 +1,82 @@
+package rwperrott.lambda;
+
+import java.util.ArrayList;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collector;
+
+/**
+ * The batch form of a Collector accumulator, for BatchCollector implementations.
+ *
+ * @param <A> accumulator type
+ * @param <T> value type
+ */
+@FunctionalInterface
+interface BatchAccumulator<A, T> {
+    void accept(A container, T[] values, int from, int to);
+
+    /**
+     * @param accumulator accumulates one value.
+     *
+     * @return a loop over accumulator, which pre-sizes an ArrayList container e.g. from Collectors.toList().
+     */
+    static <A, T> BatchAccumulator<A, T> of(final BiConsumer<A, T> accumulator) {
+        return (a, values, from, to) -> {
+            ensureCapacity(a, to - from);
+            for (int i = from; i < to; i++)
+                accumulator.accept(a, values[i]);
+        };
+    }
+
+    /**
+     * @param mapper      applied to each value, without a mapping lambda per value.
+     * @param accumulator accumulates one mapped value.
+     */
+    static <A, T, U> BatchAccumulator<A, T> of(final Function<? super T, ? extends U> mapper,
+                                               final BiConsumer<A, U> accumulator) {
+        return (a, values, from, to) -> {
+            ensureCapacity(a, to - from);
+            for (int i = from; i < to; i++)
+                accumulator.accept(a, mapper.apply(values[i]));
+        };
+    }
+
+    /**
+     * @param mapper        a Function, ToDoubleFunction or ToLongFunction.
+     * @param collectorR    accumulates the mapped values.
+     * @param primitiveType DoubleArray or LongArray for the primitive specialisations, else null.
+     * @param accumulator   accumulates one value, applying mapper, if not already applied by collectorR.
+     *
+     * @return a bulk append for the primitive specialisations, else a loop, applying a Function mapper directly.
+     */
+    @SuppressWarnings("unchecked")
+    static <A, T> BatchAccumulator<A, T> of(final Object mapper,
+                                            final Collector<?, ?, ?> collectorR,
+                                            final Class<?> primitiveType,
+                                            final BiConsumer<A, T> accumulator) {
+        if (DoubleArray.class == primitiveType) {
+            final ToDoubleFunction<? super T> f = (ToDoubleFunction<? super T>) mapper;
+            return (a, values, from, to) -> ((DoubleArray) a).addAll(values, from, to, f);
+        }
+        if (LongArray.class == primitiveType) {
+            final ToLongFunction<? super T> f = (ToLongFunction<? super T>) mapper;
+            return (a, values, from, to) -> ((LongArray) a).addAll(values, from, to, f);
+        }
+        if (mapper instanceof Function && !SharableCollector.isIdentityFunction((Function<?, ?>) mapper))
+            return of((Function<? super T, Object>) mapper, (BiConsumer<A, Object>) collectorR.accumulator());
+        return of(accumulator);
+    }
+
+    /**
+     * Only grows an ArrayList, because the accumulator probably adds one element per value; other containers grow as
+     * they accumulate.
+     */
+    static void ensureCapacity(final Object a, final int n) {
+        if (a instanceof ArrayList) {
+            final ArrayList<?> list = (ArrayList<?>) a;
+            list.ensureCapacity(list.size() + n);
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package rwperrott.lambda;
+
+import java.util.stream.Collector;
+
+/**
+ * A Collector, which can also accumulate a batch of values in one call, so the per value dispatch of accumulator()
+ * e.g. a mapping lambda, calling a megamorphic BiConsumer, is replaced by a tight loop per batch, and a container grows
+ * at most once per batch.
+ * <p>
+ * Implemented by SharableCollector and SharingPlan.collector(), and used by Batches.collect.
+ *
+ * @param <T> source value type
+ * @param <A> accumulator type
+ * @param <R> result type
+ */
+public interface BatchCollector<T, A, R> extends Collector<T, A, R> {
+    /**
+     * The same as calling accumulator() for each of values[from..to), in order.
+     *
+     * @param container from supplier().
+     */
+    void accumulateAll(A container, T[] values, int from, int to);
+}
@@ -0,0 +1,133 @@
+package rwperrott.lambda;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+/**
+ * Collects via BatchCollector.accumulateAll, instead of an accumulator call per value, by draining a Spliterator into
+ * a reused buffer, so cheap mappers, and the primitive specialisations, run in tight loops e.g.
+ * <pre>
+ * Object[] r = Batches.collect(rows.stream(), plan.collector());
+ * </pre>
+ * Collectors which aren't BatchCollectors e.g. from Tuple.collectors still work, via their accumulator.
+ * <p>
+ * Only sequential; a parallel Stream is collected by Stream.collect, because the fork-join splitting would need
+ * reimplementing, and each leaf task already runs a tight loop over a small batch.
+ */
+public final class Batches {
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
+    private Batches() {
+    }
+
+    /**
+     * Works for Seq too, because Seq is a Stream.
+     */
+    public static <T, A, R> R collect(final Stream<T> stream, final Collector<? super T, A, R> collector) {
+        if (stream.isParallel())
+            return stream.collect(collector);
+        try (stream) {
+            return collect(stream.spliterator(), collector, DEFAULT_BATCH_SIZE);
+        }
+    }
+
+    /**
+     * @param batchSize the buffer size, 1 or more.
+     */
+    public static <T, A, R> R collect(final Spliterator<? extends T> spliterator,
+                                      final Collector<? super T, A, R> collector,
+                                      final int batchSize) {
+        Objects.requireNonNull(spliterator, "spliterator");
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize " + batchSize + " < 1");
+        final A a = collector.supplier().get();
+        accumulate(spliterator, collector, a, batchSize);
+        return finish(collector, a);
+    }
+
+    /**
+     * Used by Partials, to accumulate without finishing.
+     */
+    static <T, A> void accumulate(final Spliterator<? extends T> spliterator,
+                                  final Collector<? super T, A, ?> collector,
+                                  final A a,
+                                  final int batchSize) {
+        final Buffer<T, A> buffer = new Buffer<>(collector, a, (int) Math.min(batchSize,
+                                                                               Math.max(1, spliterator.estimateSize())));
+        spliterator.forEachRemaining(buffer);
+        buffer.flush();
+    }
+
+    /**
+     * Collects values[from..to) in one batch.
+     */
+    public static <T, A, R> R collect(final T[] values, final int from, final int to,
+                                      final Collector<? super T, A, R> collector) {
+        Objects.checkFromToIndex(from, to, values.length);
+        final A a = collector.supplier().get();
+        accumulateAll(collector, a, values, from, to);
+        return finish(collector, a);
+    }
+
+    /**
+     * Via BatchCollector.accumulateAll if collector is a BatchCollector, else its accumulator.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, A> void accumulateAll(final Collector<? super T, A, ?> collector,
+                                            final A container,
+                                            final T[] values,
+                                            final int from,
+                                            final int to) {
+        if (collector instanceof BatchCollector)
+            ((BatchCollector<T, A, ?>) collector).accumulateAll(container, values, from, to);
+        else {
+            final BiConsumer<A, ? super T> accumulator = collector.accumulator();
+            for (int i = from; i < to; i++)
+                accumulator.accept(container, values[i]);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <A, R> R finish(final Collector<?, A, R> collector, final A a) {
+        return collector.characteristics().contains(Collector.Characteristics.IDENTITY_FINISH)
+               ? (R) a
+               : collector.finisher().apply(a);
+    }
+
+    /**
+     * The only Consumer passed to forEachRemaining, so its accept() is monomorphic.
+     */
+    private static final class Buffer<T, A> implements Consumer<T> {
+        private final Collector<? super T, A, ?> collector;
+        private final A a;
+        private final T[] values;
+        private int size;
+
+        @SuppressWarnings("unchecked")
+        private Buffer(final Collector<? super T, A, ?> collector, final A a, final int batchSize) {
+            this.collector = collector;
+            this.a = a;
+            this.values = (T[]) new Object[batchSize];
+        }
+
+        @Override
+        public void accept(final T t) {
+            values[size++] = t;
+            if (size == values.length)
+                flush();
+        }
+
+        private void flush() {
+            if (size > 0) {
+                accumulateAll(collector, a, values, 0, size);
+                Arrays.fill(values, 0, size, null); // Don't retain rows
+                size = 0;
+            }
+        }
+    }
+}
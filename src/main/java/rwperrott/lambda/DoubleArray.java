@@ -0,0 +1,283 @@
+package rwperrott.lambda;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collector;
+
+/**
+ * A growable double[] buffer, used as a non-boxing accumulator and intermediate result.
+ * <p>
+ * A read-only view, from unmodifiable(), shares the backing array, so sort() will sort a copy, like
+ * Finishers.sortList() does for an unmodifiable List.
+ * <p>
+ * Not Thread-safe, and doesn't need to be, because each Collector container is only used by one thread at a time.
+ */
+public final class DoubleArray implements DoubleRanks {
+    private static final double[] EMPTY = {};
+
+    private double[] a;
+    private int size;
+    private boolean sorted = true;
+    private final boolean readOnly;
+
+    public DoubleArray() {
+        this(EMPTY, 0, true, false);
+    }
+
+    public DoubleArray(final int initialCapacity) {
+        this(initialCapacity == 0 ? EMPTY : new double[initialCapacity], 0, true, false);
+    }
+
+    private DoubleArray(final double[] a, final int size, final boolean sorted, final boolean readOnly) {
+        this.a = a;
+        this.size = size;
+        this.sorted = sorted;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Used by Partials, to read values, without copying them again.
+     */
+    static DoubleArray wrap(final double[] a, final int size, final boolean sorted) {
+        return new DoubleArray(a, size, sorted, false);
+    }
+
+    /**
+     * Used by Partials, to write values, so only the first size() are valid.
+     */
+    double[] array() {
+        return a;
+    }
+
+    /**
+     * @param mapper extracts a double value from each T, without boxing.
+     * @param <T>    source value type
+     *
+     * @return a Collector accumulating doubles into a DoubleArray.
+     */
+    public static <T> Collector<T, DoubleArray, DoubleArray> collector(final ToDoubleFunction<? super T> mapper) {
+        Objects.requireNonNull(mapper, "mapper");
+        return Collector.of(DoubleArray::new,
+                            (a, t) -> a.add(mapper.applyAsDouble(t)),
+                            DoubleArray::addAll);
+    }
+
+    /**
+     * A sorted-runs form of collector, for parallel streams, where the combiner sorts each partial result, on the
+     * fork-join worker threads, then merges the sorted runs, so the sort before the finisher is skipped, because the
+     * result is already sorted, except for a sequential stream, where nothing is combined.
+     * <p>
+     * Use with Finishers.sortDoubles() or Finishers.parallelSortDoubles() as andThenR.
+     *
+     * @param mapper extracts a double value from each T, without boxing.
+     * @param <T>    source value type
+     *
+     * @return a Collector accumulating doubles into a DoubleArray, and merging sorted runs.
+     */
+    public static <T> Collector<T, DoubleArray, DoubleArray> sortedRunsCollector(final ToDoubleFunction<? super T> mapper) {
+        Objects.requireNonNull(mapper, "mapper");
+        return Collector.of(DoubleArray::new,
+                            (a, t) -> a.add(mapper.applyAsDouble(t)),
+                            (a, b) -> a.sort().merge(b.sort()));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long count() {
+        return size;
+    }
+
+    /**
+     * Only ascending after sort().
+     */
+    @Override
+    public double valueAt(final long rank) {
+        return a[Objects.checkIndex((int) Math.min(rank, Integer.MAX_VALUE), size)];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    public double get(final int index) {
+        return a[Objects.checkIndex(index, size)];
+    }
+
+    public void add(final double value) {
+        checkWritable();
+        if (size == a.length)
+            grow(size + 1);
+        a[size++] = value;
+        sorted = false;
+    }
+
+    /**
+     * Appends values[from..to), growing the backing array at most once.
+     */
+    public void addAll(final double[] values, final int from, final int to) {
+        Objects.checkFromToIndex(from, to, values.length);
+        final int n = to - from;
+        if (n > 0) {
+            checkWritable();
+            if (size + n > a.length)
+                grow(size + n);
+            System.arraycopy(values, from, a, size, n);
+            size += n;
+            sorted = false;
+        }
+    }
+
+    /**
+     * Maps and appends values[from..to), growing the backing array at most once, so the mapper is applied in a tight
+     * loop, instead of via a Collector accumulator per value.
+     */
+    public <T> void addAll(final T[] values, final int from, final int to, final ToDoubleFunction<? super T> mapper) {
+        Objects.checkFromToIndex(from, to, values.length);
+        final int n = to - from;
+        if (n > 0) {
+            checkWritable();
+            if (size + n > a.length)
+                grow(size + n);
+            final double[] a = this.a;
+            int j = size;
+            for (int i = from; i < to; i++)
+                a[j++] = mapper.applyAsDouble(values[i]);
+            size = j;
+            sorted = false;
+        }
+    }
+
+    /**
+     * Used as the combiner.
+     *
+     * @param other the values to append.
+     *
+     * @return this
+     */
+    public DoubleArray addAll(final DoubleArray other) {
+        checkWritable();
+        final int n = other.size;
+        if (n > 0) {
+            if (size + n > a.length)
+                grow(size + n);
+            System.arraycopy(other.a, 0, a, size, n);
+            sorted = size == 0 && other.sorted;
+            size += n;
+        }
+        return this;
+    }
+
+    /**
+     * Sorts in ascending Double.compare order, the same order as Comparator.naturalOrder() for Double.
+     *
+     * @return this sorted, or a sorted copy if this is read-only.
+     */
+    public DoubleArray sort() {
+        return sort(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Used by Finishers.parallelSortDoubles.
+     *
+     * @param parallelThreshold minimum size to use Arrays.parallelSort.
+     */
+    DoubleArray sort(final int parallelThreshold) {
+        final SharingListener listener = SharingMetrics.listener();
+        if (sorted) {
+            listener.sortSkipped(DoubleArray.class, size);
+            return this;
+        }
+        final DoubleArray s = readOnly ? new DoubleArray(Arrays.copyOf(a, size), size, false, false) : this;
+        if (readOnly)
+            listener.copied(DoubleArray.class, size);
+        final boolean parallel = s.size >= parallelThreshold;
+        if (parallel)
+            Arrays.parallelSort(s.a, 0, s.size);
+        else
+            Arrays.sort(s.a, 0, s.size);
+        listener.sorted(DoubleArray.class, s.size, parallel);
+        s.sorted = true;
+        return s;
+    }
+
+    /**
+     * Merges other into this, both sorted, into a new backing array.
+     *
+     * @return this
+     */
+    private DoubleArray merge(final DoubleArray other) {
+        checkWritable();
+        if (size == 0 || other.size == 0)
+            return addAll(other);
+        final double[] x = a, y = other.a, m = new double[size + other.size];
+        int i = 0, j = 0, k = 0;
+        while (i < size && j < other.size)
+            m[k++] = Double.compare(x[i], y[j]) <= 0 ? x[i++] : y[j++];
+        while (i < size)
+            m[k++] = x[i++];
+        while (j < other.size)
+            m[k++] = y[j++];
+        a = m;
+        size = m.length;
+        sorted = true;
+        return this;
+    }
+
+    /**
+     * Used by PercentileSelector, to only partition around the ranks, instead of a full sort.
+     *
+     * @param ranks ascending, distinct ranks, all less than size.
+     *
+     * @return this, or a partitioned copy if this is read-only.
+     */
+    DoubleArray select(final int[] ranks) {
+        if (sorted || ranks.length == 0)
+            return this;
+        final DoubleArray s = readOnly ? new DoubleArray(Arrays.copyOf(a, size), size, false, false) : this;
+        QuickSelect.select(s.a, 0, s.size, ranks);
+        return s;
+    }
+
+    /**
+     * @return a read-only view sharing the backing array.
+     */
+    public DoubleArray unmodifiable() {
+        return readOnly ? this : new DoubleArray(a, size, sorted, true);
+    }
+
+    public double[] toArray() {
+        return Arrays.copyOf(a, size);
+    }
+
+    private void checkWritable() {
+        if (readOnly)
+            throw new UnsupportedOperationException("read-only");
+    }
+
+    private void grow(final int minCapacity) {
+        final int oldCapacity = a.length;
+        int newCapacity = oldCapacity + (oldCapacity >> 1);
+        if (newCapacity < minCapacity)
+            newCapacity = Math.max(minCapacity, 10);
+        a = Arrays.copyOf(a, newCapacity);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder().append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(a[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,96 @@
+package rwperrott.lambda;
+
+import java.util.Objects;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collector;
+
+/**
+ * An exact, frequency-compressed alternative to DoubleArray, which counts each double as a LongCounts long, with the
+ * same order as Double.compare, so NaN values are the largest, like a sorted DoubleArray, and -0.0 and 0.0 are counted
+ * separately.
+ * <p>
+ * Use UnaryOperator.identity() as andThenR, and Finishers.percentileDouble(double, DoublePercentileFunction) as
+ * andThenRR.
+ * <p>
+ * Not Thread-safe, and doesn't need to be, because each Collector container is only used by one thread at a time.
+ */
+public final class DoubleCounts implements DoubleRanks {
+    private final LongCounts longs = new LongCounts();
+
+    /**
+     * @param mapper extracts a double value from each T, without boxing.
+     * @param <T>    source value type
+     *
+     * @return a Collector counting doubles into a DoubleCounts, with a merging combiner.
+     */
+    public static <T> Collector<T, DoubleCounts, DoubleCounts> collector(final ToDoubleFunction<? super T> mapper) {
+        Objects.requireNonNull(mapper, "mapper");
+        return Collector.of(DoubleCounts::new,
+                            (c, t) -> c.add(mapper.applyAsDouble(t)),
+                            DoubleCounts::merge,
+                            Collector.Characteristics.UNORDERED);
+    }
+
+    public void add(final double value) {
+        longs.add(DoubleSpill.toSortable(value));
+    }
+
+    /**
+     * @param n the number of times to add value, 0 or more.
+     */
+    public void add(final double value, final long n) {
+        longs.add(DoubleSpill.toSortable(value), n);
+    }
+
+    /**
+     * @return this
+     */
+    public DoubleCounts merge(final DoubleCounts other) {
+        longs.merge(other.longs);
+        return this;
+    }
+
+    @Override
+    public long count() {
+        return longs.count();
+    }
+
+    /**
+     * @return the number of distinct values.
+     */
+    public int distinct() {
+        return longs.distinct();
+    }
+
+    public long countOf(final double value) {
+        return longs.countOf(DoubleSpill.toSortable(value));
+    }
+
+    @Override
+    public double valueAt(final long rank) {
+        return DoubleSpill.fromSortable(longs.valueAt(rank));
+    }
+
+    /**
+     * @return the distinct values, in ascending order.
+     */
+    public double[] values() {
+        final long[] a = longs.values();
+        final double[] d = new double[a.length];
+        for (int i = 0; i < a.length; i++)
+            d[i] = DoubleSpill.fromSortable(a[i]);
+        return d;
+    }
+
+    /**
+     * @return the counts of values(), in the same order.
+     */
+    public long[] counts() {
+        return longs.counts();
+    }
+
+    @Override
+    public String toString() {
+        return "DoubleCounts{count=" + count() + ", distinct=" + distinct() + '}';
+    }
+}
@@ -0,0 +1,57 @@
+package rwperrott.lambda;
+
+import java.util.Arrays;
+
+/**
+ * An order-statistic multiset of the double values in a sliding window frame, which stores each double as a LongFrame
+ * long, with the same order as Double.compare.
+ * <p>
+ * Not Thread-safe.
+ */
+public final class DoubleFrame implements DoubleRanks {
+    private final LongFrame longs = new LongFrame();
+
+    @Override
+    public long count() {
+        return longs.count();
+    }
+
+    public boolean isEmpty() {
+        return longs.isEmpty();
+    }
+
+    public void add(final double value) {
+        longs.add(DoubleSpill.toSortable(value));
+    }
+
+    /**
+     * Removes one occurrence of value.
+     *
+     * @return true if value was found.
+     */
+    public boolean remove(final double value) {
+        return longs.remove(DoubleSpill.toSortable(value));
+    }
+
+    public void clear() {
+        longs.clear();
+    }
+
+    @Override
+    public double valueAt(final long rank) {
+        return DoubleSpill.fromSortable(longs.valueAt(rank));
+    }
+
+    public double[] toArray() {
+        final long[] a = longs.toArray();
+        final double[] d = new double[a.length];
+        for (int i = 0; i < a.length; i++)
+            d[i] = DoubleSpill.fromSortable(a[i]);
+        return d;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+}
@@ -0,0 +1,82 @@
+package rwperrott.lambda;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * A read-only List, sorted by a double key, which keeps the keys extracted while sorting, so
+ * Finishers.percentileDouble(percentile, keyExtractor, function) can read them, via DoubleRanks, without extracting
+ * them again.
+ * <p>
+ * Created by Finishers.sortListByDouble().
+ *
+ * @param <T> element type
+ */
+public final class DoubleKeyedList<T> extends AbstractList<T> implements RandomAccess, DoubleRanks {
+    private final Object[] elements;
+    private final double[] keys;
+    private final ToDoubleFunction<? super T> keyExtractor;
+
+    private DoubleKeyedList(final Object[] elements, final double[] keys,
+                            final ToDoubleFunction<? super T> keyExtractor) {
+        this.elements = elements;
+        this.keys = keys;
+        this.keyExtractor = keyExtractor;
+    }
+
+    /**
+     * Extracts each key once, then stable sorts an index permutation by key, in Double.compare order.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> DoubleKeyedList<T> sort(final List<T> l, final ToDoubleFunction<? super T> keyExtractor) {
+        final Object[] a = l.toArray();
+        final long[] sortable = new long[a.length];
+        for (int i = 0; i < a.length; i++)
+            sortable[i] = DoubleSpill.toSortable(keyExtractor.applyAsDouble((T) a[i]));
+        final int[] order = KeySort.order(sortable);
+        final Object[] elements = new Object[a.length];
+        final double[] keys = new double[a.length];
+        for (int i = 0; i < order.length; i++) {
+            elements[i] = a[order[i]];
+            keys[i] = DoubleSpill.fromSortable(sortable[order[i]]);
+        }
+        return new DoubleKeyedList<>(elements, keys, keyExtractor);
+    }
+
+    /**
+     * @return true if sorted by keyExtractor.
+     */
+    public boolean isKeyedBy(final ToDoubleFunction<?> keyExtractor) {
+        return this.keyExtractor == keyExtractor;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(final int index) {
+        return (T) elements[index];
+    }
+
+    /**
+     * @return the cached key of the element at index.
+     */
+    public double key(final int index) {
+        return keys[index];
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+
+    @Override
+    public long count() {
+        return keys.length;
+    }
+
+    @Override
+    public double valueAt(final long rank) {
+        return keys[(int) rank];
+    }
+}
@@ -0,0 +1,31 @@
+package rwperrott.lambda;
+
+
+/**
+ * A primitive specialisation of PercentileFunction, to avoid auto-boxing.
+ */
+@FunctionalInterface
+public interface DoublePercentileFunction {
+    double applyAsDouble(double t0,
+                         double t1,
+                         double indexFraction);
+
+    static DoublePercentileFunction floor() {
+        return (t0, t1, f) -> t0;
+    }
+
+    static DoublePercentileFunction ceil() {
+        return (t0, t1, f) -> t1;
+    }
+
+    static DoublePercentileFunction halfUp() {
+        return (t0, t1, f) -> f < 0.5d ? t0 : t1;
+    }
+
+    /**
+     * Same formula as PercentileFunction.interpolateDouble(), so results are identical.
+     */
+    static DoublePercentileFunction interpolate() {
+        return (t0, t1, f) -> t0 - (t0 * f) + (t1 * f);
+    }
+}
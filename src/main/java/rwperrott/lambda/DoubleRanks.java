@@ -0,0 +1,18 @@
+package rwperrott.lambda;
+
+/**
+ * Ascending double values, addressable by rank, so Finishers.percentileDouble can resolve percentiles without knowing
+ * how they are stored e.g. a sorted DoubleArray, a DoubleCounts or a DoubleSketch.
+ * <p>
+ * count() is a long, because compressed forms can represent more than Integer.MAX_VALUE values.
+ */
+public interface DoubleRanks {
+    long count();
+
+    /**
+     * @param rank 0 to count() - 1
+     *
+     * @return the value at rank, in ascending order.
+     */
+    double valueAt(long rank);
+}
@@ -0,0 +1,364 @@
+package rwperrott.lambda;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collector;
+
+/**
+ * A mergeable, approximate quantile sketch, using the KLL compactor scheme (Karnin, Lang and Liberty 2016), so
+ * memory is fixed per column, instead of one List entry per value.
+ * <p>
+ * Level h holds items of weight 2^h.  When a level reaches its capacity, it is sorted, and every other item, from a
+ * random offset, is promoted to the next level.  Capacities shrink by 2/3 per level below the top, with a minimum of
+ * 8, so about 3k items are retained at most, whatever the count.
+ * <p>
+ * Accuracy: the normalized rank error, at 99% confidence, is about 2.3 / k^0.97 e.g. about 1.3% for k = 200 and 0.35%
+ * for k = 800.  The min and max values are exact.  The combiner really merges, with the same error bound, so it
+ * suits parallel streams.
+ * <p>
+ * Use UnaryOperator.identity() as andThenR, and Finishers.percentileDouble(double, DoublePercentileFunction) as
+ * andThenRR, because it implements DoubleRanks, with count() being the exact number of values added.
+ * <p>
+ * Each sketch has its own SplittableRandom, for the compaction offsets, so a seeded sketch, or a new seeded collector
+ * for a sequential stream, gives repeatable results for the same input e.g. in tests.
+ * <p>
+ * Not Thread-safe, and doesn't need to be, because each Collector container is only used by one thread at a time.
+ */
+public final class DoubleSketch implements DoubleRanks {
+    public static final int DEFAULT_K = 200;
+    private static final int MIN_K = 8;
+    private static final int MIN_LEVEL_CAPACITY = 8;
+
+    private final int k;
+    private final SplittableRandom random;
+    private double[][] levels = new double[1][];
+    private int[] sizes = new int[1];
+    private int[] capacities = new int[1];
+    private long count;
+    private double min = Double.NaN;
+    private double max = Double.NaN;
+    //
+    // Lazily built ascending view, cleared by any change.
+    private double[] sortedValues;
+    private long[] cumulativeWeights;
+
+    public DoubleSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * @param k accuracy parameter, larger is more accurate, but retains more items.
+     */
+    public DoubleSketch(final int k) {
+        this(k, new SplittableRandom());
+    }
+
+    /**
+     * @param k    accuracy parameter, larger is more accurate, but retains more items.
+     * @param seed for the compaction offsets, so results are repeatable.
+     */
+    public DoubleSketch(final int k, final long seed) {
+        this(k, new SplittableRandom(seed));
+    }
+
+    private DoubleSketch(final int k, final SplittableRandom random) {
+        if (k < MIN_K)
+            throw new IllegalArgumentException("k " + k + " < " + MIN_K);
+        this.k = k;
+        this.random = random;
+        updateCapacities();
+        levels[0] = new double[capacities[0]];
+    }
+
+    /**
+     * Used by Partials, to read a sketch, with levels[h][0..sizes[h]) holding the items of weight 2^h, seeded by count,
+     * so merging the same partials is repeatable.
+     */
+    static DoubleSketch restore(final int k, final long count, final double min, final double max,
+                                final double[][] levels, final int[] sizes) {
+        final DoubleSketch s = new DoubleSketch(k, count);
+        s.levels = levels;
+        s.sizes = sizes;
+        s.count = count;
+        s.min = min;
+        s.max = max;
+        s.updateCapacities();
+        return s;
+    }
+
+    // Used by Partials, to write a sketch.
+
+    int levels() {
+        return levels.length;
+    }
+
+    int levelSize(final int level) {
+        return sizes[level];
+    }
+
+    double[] level(final int level) {
+        return levels[level];
+    }
+
+    double min() {
+        return min;
+    }
+
+    double max() {
+        return max;
+    }
+
+    /**
+     * @param rankError the required normalized rank error e.g. 0.01 for 1%.
+     *
+     * @return the smallest k with an estimated normalizedRankError(k) of at most rankError.
+     */
+    public static int k(final double rankError) {
+        if (!(rankError > 0d && rankError < 1d))
+            throw new IllegalArgumentException("rankError " + rankError + " not between 0 and 1");
+        return Math.max(MIN_K, (int) Math.ceil(Math.pow(2.296d / rankError, 1d / 0.9723d)));
+    }
+
+    /**
+     * @return estimated normalized rank error, at 99% confidence, for k.
+     */
+    public static double normalizedRankError(final int k) {
+        return 2.296d / Math.pow(k, 0.9723d);
+    }
+
+    /**
+     * @param mapper extracts a double value from each T, without boxing.
+     * @param k      accuracy parameter, see k(double).
+     * @param <T>    source value type
+     *
+     * @return a Collector accumulating doubles into a DoubleSketch, with a merging combiner.
+     */
+    public static <T> Collector<T, DoubleSketch, DoubleSketch> collector(final ToDoubleFunction<? super T> mapper,
+                                                                       final int k) {
+        Objects.requireNonNull(mapper, "mapper");
+        return Collector.of(() -> new DoubleSketch(k),
+                            (s, t) -> s.add(mapper.applyAsDouble(t)),
+                            DoubleSketch::merge,
+                            Collector.Characteristics.UNORDERED);
+    }
+
+    public static <T> Collector<T, DoubleSketch, DoubleSketch> collector(final ToDoubleFunction<? super T> mapper) {
+        return collector(mapper, DEFAULT_K);
+    }
+
+    /**
+     * @param seed for the collector, which splits a different seed for each container, so parallel containers don't
+     *             flip the same compaction coins, and a sequential collection is repeatable.
+     *
+     * @return a Collector accumulating doubles into seeded DoubleSketches, with a merging combiner.
+     */
+    public static <T> Collector<T, DoubleSketch, DoubleSketch> collector(final ToDoubleFunction<? super T> mapper,
+                                                                       final int k,
+                                                                       final long seed) {
+        Objects.requireNonNull(mapper, "mapper");
+        final SplittableRandom seeds = new SplittableRandom(seed);
+        return Collector.of(() -> {
+                                final SplittableRandom random;
+                                synchronized (seeds) {
+                                    random = seeds.split();
+                                }
+                                return new DoubleSketch(k, random);
+                            },
+                            (s, t) -> s.add(mapper.applyAsDouble(t)),
+                            DoubleSketch::merge,
+                            Collector.Characteristics.UNORDERED);
+    }
+
+    public int k() {
+        return k;
+    }
+
+    public double normalizedRankError() {
+        return normalizedRankError(k);
+    }
+
+    /**
+     * @return the number of items retained, which is bounded by k, not count().
+     */
+    public int retained() {
+        int n = 0;
+        for (int size : sizes)
+            n += size;
+        return n;
+    }
+
+    /**
+     * NaN values are ignored, because they have no rank.
+     */
+    public void add(final double value) {
+        if (Double.isNaN(value))
+            return;
+        if (count++ == 0)
+            min = max = value;
+        else if (value < min)
+            min = value;
+        else if (value > max)
+            max = value;
+        append(0, value);
+        if (sizes[0] >= capacities[0])
+            compress();
+    }
+
+    /**
+     * Used as the combiner.
+     *
+     * @param other the sketch to merge into this, which is not changed.
+     *
+     * @return this
+     */
+    public DoubleSketch merge(final DoubleSketch other) {
+        if (other.count == 0)
+            return this;
+        if (count == 0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+        }
+        count += other.count;
+        for (int h = 0; h < other.levels.length; h++)
+            for (int i = 0, n = other.sizes[h]; i < n; i++)
+                append(h, other.levels[h][i]);
+        compress();
+        return this;
+    }
+
+    @Override
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Approximate, except for rank 0 and count() - 1, which are the exact min and max.
+     */
+    @Override
+    public double valueAt(final long rank) {
+        if (rank < 0 || rank >= count)
+            throw new IndexOutOfBoundsException("rank " + rank + " out of bounds for count " + count);
+        if (rank == 0)
+            return min;
+        if (rank == count - 1)
+            return max;
+        if (sortedValues == null)
+            buildSortedView();
+        // Find first item with cumulative weight > rank
+        int lo = 0, hi = cumulativeWeights.length - 1;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (cumulativeWeights[mid] <= rank)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return sortedValues[lo];
+    }
+
+    private void updateCapacities() {
+        final int n = levels.length;
+        capacities = new int[n];
+        for (int h = 0; h < n; h++)
+            capacities[h] = Math.max(MIN_LEVEL_CAPACITY, (int) Math.ceil(k * Math.pow(2d / 3d, n - h - 1)));
+    }
+
+    private void append(final int level, final double value) {
+        if (level >= levels.length) {
+            final int from = levels.length;
+            levels = Arrays.copyOf(levels, level + 1);
+            sizes = Arrays.copyOf(sizes, level + 1);
+            updateCapacities();
+            for (int h = from; h <= level; h++)
+                levels[h] = new double[capacities[h]];
+        }
+        double[] a = levels[level];
+        final int size = sizes[level];
+        if (size == a.length)
+            levels[level] = a = Arrays.copyOf(a, size + (size >> 1) + 1);
+        a[size] = value;
+        sizes[level] = size + 1;
+        sortedValues = null;
+        cumulativeWeights = null;
+    }
+
+    /**
+     * Compacts the lowest full level, until none are full, because adding a level lowers the capacity of the others.
+     */
+    private void compress() {
+        int h = 0;
+        while (h < levels.length) {
+            if (sizes[h] >= capacities[h]) {
+                compact(h);
+                h = 0;
+            } else
+                h++;
+        }
+    }
+
+    /**
+     * Promotes every other item, from a random offset, leaving one behind if an odd count, so total weight is
+     * preserved exactly.
+     */
+    private void compact(final int level) {
+        final double[] a = levels[level];
+        final int size = sizes[level];
+        Arrays.sort(a, 0, size);
+        final int even = size & ~1;
+        int i = random.nextBoolean() ? 1 : 0;
+        for (; i < even; i += 2)
+            append(level + 1, a[i]);
+        if (even != size)
+            a[0] = a[size - 1];
+        sizes[level] = size - even;
+    }
+
+    private void buildSortedView() {
+        double[] values = new double[0];
+        long[] weights = new long[0];
+        for (int h = 0; h < levels.length; h++) {
+            final int size = sizes[h];
+            if (size == 0)
+                continue;
+            final double[] level = Arrays.copyOf(levels[h], size);
+            Arrays.sort(level);
+            // Merge level into values
+            final double[] mv = new double[values.length + size];
+            final long[] mw = new long[mv.length];
+            final long weight = 1L << h;
+            int i = 0, j = 0, m = 0;
+            while (i < values.length && j < size)
+                if (values[i] <= level[j]) {
+                    mv[m] = values[i];
+                    mw[m++] = weights[i++];
+                } else {
+                    mv[m] = level[j++];
+                    mw[m++] = weight;
+                }
+            for (; i < values.length; i++, m++) {
+                mv[m] = values[i];
+                mw[m] = weights[i];
+            }
+            for (; j < size; j++, m++) {
+                mv[m] = level[j];
+                mw[m] = weight;
+            }
+            values = mv;
+            weights = mw;
+        }
+        for (int i = 1; i < weights.length; i++)
+            weights[i] += weights[i - 1];
+        sortedValues = values;
+        cumulativeWeights = weights;
+    }
+
+    @Override
+    public String toString() {
+        return "DoubleSketch{k=" + k + ", count=" + count + ", retained=" + retained() + ", min=" + min + ", max=" + max + '}';
+    }
+}
@@ -0,0 +1,156 @@
+package rwperrott.lambda;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collector;
+
+/**
+ * A DoubleArray alternative for groups too large to hold on heap, which stores each double as a LongSpill long, with
+ * the same order as Double.compare, so the spilled runs sort and merge as longs.
+ * <p>
+ * Use Finishers.sortDoubleSpill() as andThenR e.g.
+ * <pre>
+ * SharableCollector.of(DoubleSpill.collector(mapper), Finishers.sortDoubleSpill(),
+ *                      Finishers.percentileDouble(0.99d, DoublePercentileFunction.interpolate()));
+ * </pre>
+ * A DoubleSpill returned by collector() is owned by the caller, so close() it when done, like a LongSpill.
+ * <p>
+ * Not Thread-safe, and doesn't need to be, because each Collector container is only used by one thread at a time.
+ */
+public final class DoubleSpill implements DoubleRanks, Closeable {
+    private final LongSpill longs;
+
+    public DoubleSpill() {
+        this(null, LongSpill.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param dir          directory for temp files, or null for the default temp-file directory.
+     * @param memoryBudget maximum heap bytes buffered before spilling a run, at least 8.
+     */
+    public DoubleSpill(final Path dir, final long memoryBudget) {
+        this.longs = new LongSpill(dir, memoryBudget);
+    }
+
+    private DoubleSpill(final LongSpill longs) {
+        this.longs = longs;
+    }
+
+    /**
+     * @param mapper extracts a double value from each T, without boxing.
+     * @param <T>    source value type
+     *
+     * @return a Collector accumulating doubles into a DoubleSpill, with the default temp-file directory and memory
+     * budget.
+     */
+    public static <T> Collector<T, DoubleSpill, DoubleSpill> collector(final ToDoubleFunction<? super T> mapper) {
+        return collector(mapper, null, LongSpill.DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Each partial result, of a parallel stream, has its own memoryBudget.
+     *
+     * @param mapper       extracts a double value from each T, without boxing.
+     * @param dir          directory for temp files, or null for the default temp-file directory.
+     * @param memoryBudget maximum heap bytes buffered before spilling a run, at least 8.
+     * @param <T>          source value type
+     *
+     * @return a Collector accumulating doubles into a DoubleSpill.
+     */
+    public static <T> Collector<T, DoubleSpill, DoubleSpill> collector(final ToDoubleFunction<? super T> mapper,
+                                                                      final Path dir,
+                                                                      final long memoryBudget) {
+        Objects.requireNonNull(mapper, "mapper");
+        LongSpill.maxBuffered(memoryBudget);
+        return Collector.of(() -> new DoubleSpill(dir, memoryBudget),
+                            (s, t) -> s.add(mapper.applyAsDouble(t)),
+                            DoubleSpill::merge);
+    }
+
+    @Override
+    public long count() {
+        return longs.count();
+    }
+
+    public boolean isSorted() {
+        return longs.isSorted();
+    }
+
+    /**
+     * @return the number of runs spilled to temp files, and not yet merged.
+     */
+    public int runs() {
+        return longs.runs();
+    }
+
+    public void add(final double value) {
+        longs.add(toSortable(value));
+    }
+
+    /**
+     * Takes the runs of other, and adds its buffered values, leaving other empty.
+     *
+     * @return this
+     */
+    public DoubleSpill merge(final DoubleSpill other) {
+        longs.merge(other.longs);
+        return this;
+    }
+
+    /**
+     * @return this
+     *
+     * @see LongSpill#sort()
+     */
+    public DoubleSpill sort() {
+        longs.sort();
+        return this;
+    }
+
+    @Override
+    public double valueAt(final long rank) {
+        return fromSortable(longs.valueAt(rank));
+    }
+
+    /**
+     * @return a read-only view, after sorting this.
+     *
+     * @see LongSpill#unmodifiable()
+     */
+    public DoubleSpill unmodifiable() {
+        final LongSpill view = longs.unmodifiable();
+        return view == longs ? this : new DoubleSpill(view);
+    }
+
+    void release() {
+        longs.release();
+    }
+
+    /**
+     * @see LongSpill#close()
+     */
+    @Override
+    public void close() {
+        longs.close();
+    }
+
+    @Override
+    public String toString() {
+        return "DoubleSpill{count=" + longs.count() + ", runs=" + longs.runs() + ", sorted=" + longs.isSorted() + '}';
+    }
+
+    /**
+     * Flips the magnitude bits of negative values, so signed long order matches Double.compare, including -0.0 before
+     * 0.0, and NaN last.
+     */
+    static long toSortable(final double value) {
+        final long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    static double fromSortable(final long sortable) {
+        return Double.longBitsToDouble(sortable ^ ((sortable >> 63) & Long.MAX_VALUE));
+    }
+}
@@ -0,0 +1,127 @@
+package rwperrott.lambda;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collector;
+
+/**
+ * An exact tail of the k largest, or k smallest, double values added, which stores each double as a LongTail long,
+ * with the same order as Double.compare, so NaN values are the largest, like a sorted DoubleArray.
+ * <p>
+ * Use UnaryOperator.identity() as andThenR, and Finishers.percentileDouble(double, DoublePercentileFunction) as
+ * andThenRR, with k from largestK() or smallestK(), for exact results.
+ * <p>
+ * Not Thread-safe, and doesn't need to be, because each Collector container is only used by one thread at a time.
+ */
+public final class DoubleTail implements DoubleRanks {
+    private final LongTail longs;
+
+    /**
+     * @param k       the maximum number of values retained.
+     * @param largest if true, retains the k largest values, else the k smallest values.
+     */
+    public DoubleTail(final int k, final boolean largest) {
+        this.longs = new LongTail(k, largest);
+    }
+
+    /**
+     * @see LongTail#largestK(long, double...)
+     */
+    public static int largestK(final long count, final double... percentiles) {
+        return LongTail.largestK(count, percentiles);
+    }
+
+    /**
+     * @see LongTail#smallestK(long, double...)
+     */
+    public static int smallestK(final long count, final double... percentiles) {
+        return LongTail.smallestK(count, percentiles);
+    }
+
+    /**
+     * @return a Collector accumulating the k largest doubles into a DoubleTail, with a merging combiner.
+     */
+    public static <T> Collector<T, DoubleTail, DoubleTail> largest(final ToDoubleFunction<? super T> mapper,
+                                                                   final int k) {
+        return collector(mapper, k, true);
+    }
+
+    /**
+     * @return a Collector accumulating the k smallest doubles into a DoubleTail, with a merging combiner.
+     */
+    public static <T> Collector<T, DoubleTail, DoubleTail> smallest(final ToDoubleFunction<? super T> mapper,
+                                                                    final int k) {
+        return collector(mapper, k, false);
+    }
+
+    private static <T> Collector<T, DoubleTail, DoubleTail> collector(final ToDoubleFunction<? super T> mapper,
+                                                                      final int k,
+                                                                      final boolean largest) {
+        Objects.requireNonNull(mapper, "mapper");
+        if (k < 1)
+            throw new IllegalArgumentException("k " + k + " < 1");
+        return Collector.of(() -> new DoubleTail(k, largest),
+                            (t, v) -> t.add(mapper.applyAsDouble(v)),
+                            DoubleTail::merge,
+                            Collector.Characteristics.UNORDERED);
+    }
+
+    public int k() {
+        return longs.k();
+    }
+
+    public boolean isLargest() {
+        return longs.isLargest();
+    }
+
+    public int retained() {
+        return longs.retained();
+    }
+
+    public void add(final double value) {
+        longs.add(DoubleSpill.toSortable(value));
+    }
+
+    /**
+     * @return this
+     */
+    public DoubleTail merge(final DoubleTail other) {
+        longs.merge(other.longs);
+        return this;
+    }
+
+    @Override
+    public long count() {
+        return longs.count();
+    }
+
+    public long firstRank() {
+        return longs.firstRank();
+    }
+
+    /**
+     * @throws IllegalArgumentException if rank is outside the retained tail, because k was too small.
+     */
+    @Override
+    public double valueAt(final long rank) {
+        return DoubleSpill.fromSortable(longs.valueAt(rank));
+    }
+
+    /**
+     * @return the retained values, in ascending order.
+     */
+    public double[] toArray() {
+        final long[] a = longs.toArray();
+        final double[] d = new double[a.length];
+        for (int i = 0; i < a.length; i++)
+            d[i] = DoubleSpill.fromSortable(a[i]);
+        return d;
+    }
+
+    @Override
+    public String toString() {
+        return "DoubleTail{k=" + k() + ", largest=" + isLargest() + ", count=" + count() + ", retained="
+               + Arrays.toString(toArray()) + '}';
+    }
+}
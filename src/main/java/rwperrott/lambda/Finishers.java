@@ -1,38 +1,282 @@
 package rwperrott.lambda;
 
-import org.jooq.lambda.tuple.Tuple2;
+import org.jooq.lambda.tuple.Tuple5;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
 import java.util.function.UnaryOperator;
+import java.util.stream.Collector;
 
 public final class Finishers {
     private Finishers() {
     }
 
-    private static final class ListSortKey<T, U> extends Tuple2<Function<? super T, ? extends U>, Comparator<? super U>> {
-        private ListSortKey(final Function<? super T, ? extends U> keyExtractor, final Comparator<? super U> keyComparator) {
-            super(keyExtractor, keyComparator);
+    /**
+     * parallelThreshold for sorters which never use Arrays.parallelSort.
+     */
+    private static final int SEQUENTIAL = Integer.MAX_VALUE;
+    /**
+     * Default minimum size to sort in parallel, because forking only pays off for larger lists, and
+     * Arrays.parallelSort sorts sequentially below 8192 anyway.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 1 << 16;
+
+    /**
+     * The order of a list sorter, as its last term, keyExtractor, keyComparator and descending, after the terms of an
+     * optional prefix key, so reversed and prefix orders can be detected, plus its parallelThreshold.
+     */
+    private static final class ListSortKey<T, U>
+            extends Tuple5<Function<? super T, ? extends U>, Comparator<? super U>, Integer, Boolean, ListSortKey<T, ?>> {
+        private ListSortKey(final Function<? super T, ? extends U> keyExtractor, final Comparator<? super U> keyComparator,
+                            final int parallelThreshold, final boolean descending, final ListSortKey<T, ?> prefix) {
+            super(keyExtractor, keyComparator, parallelThreshold, descending, prefix);
         }
 
         @SuppressWarnings({"unchecked", "rawtypes"})
-        private static final ListSortKey NATURAL = new ListSortKey(Function.identity(), Comparator.naturalOrder());
+        private static final ListSortKey NATURAL = new ListSortKey(Function.identity(), Comparator.naturalOrder(), SEQUENTIAL,
+                                                                   false, null);
 
         @SuppressWarnings("unchecked")
-        private static <T, U> ListSortKey<T, U> of(final Function<? super T, ? extends U> keyExtractor, final Comparator<? super U> keyComparator) {
-            return keyExtractor == Function.identity() && keyComparator == Comparator.naturalOrder()
+        private static <T, U> ListSortKey<T, U> of(final Function<? super T, ? extends U> keyExtractor, final Comparator<? super U> keyComparator,
+                                                   final int parallelThreshold) {
+            if (parallelThreshold < 2)
+                throw new IllegalArgumentException("parallelThreshold " + parallelThreshold + " < 2");
+            return keyExtractor == Function.identity() && keyComparator == Comparator.naturalOrder() && parallelThreshold == SEQUENTIAL
                    ? (ListSortKey<T, U>) NATURAL
-                   : new ListSortKey<>(keyExtractor, keyComparator);
+                   : new ListSortKey<>(keyExtractor, keyComparator, parallelThreshold, false, null);
+        }
+
+        /**
+         * @return a key sorting by this, then by keyExtractor and keyComparator, with the same parallelThreshold.
+         */
+        private <V> ListSortKey<T, V> then(final Function<? super T, ? extends V> keyExtractor,
+                                           final Comparator<? super V> keyComparator) {
+            return new ListSortKey<>(keyExtractor, keyComparator, v3, false, withThreshold(SEQUENTIAL));
+        }
+
+        /**
+         * @return a key for the reverse of this order, with the same parallelThreshold.
+         */
+        private ListSortKey<T, U> reversed() {
+            return new ListSortKey<>(v1, v2, v3, !v4, null == v5 ? null : v5.reversed());
+        }
+
+        private ListSortKey<T, U> withThreshold(final int parallelThreshold) {
+            return v3 == parallelThreshold ? this : new ListSortKey<>(v1, v2, parallelThreshold, v4, v5);
+        }
+
+        private int terms() {
+            return null == v5 ? 1 : v5.terms() + 1;
+        }
+
+        /**
+         * @param reverse if true, checks against the reverse of this order.
+         *
+         * @return true if a list sorted in this order, or its reverse, is also sorted in the order of other, because
+         * other is the same order, or a prefix of it, ignoring parallelThreshold.
+         */
+        private boolean satisfies(final ListSortKey<?, ?> other, final boolean reverse) {
+            ListSortKey<?, ?> k = this;
+            for (int n = terms() - other.terms(); n > 0; n--)
+                k = k.v5;
+            return other.terms() <= terms() && sameTerms(k, other, reverse);
+        }
+
+        private static boolean sameTerms(ListSortKey<?, ?> a, ListSortKey<?, ?> b, final boolean reverse) {
+            for (; null != a && null != b; a = a.v5, b = b.v5)
+                if (a.v1 != b.v1 || a.v2 != b.v2 || a.v4.equals(b.v4) == reverse)
+                    return false;
+            return a == b; // Both null
+        }
+
+        @SuppressWarnings("unchecked")
+        private Comparator<? super T> comparator() {
+            Comparator<? super T> c = v1 == Function.identity()
+                                      ? (Comparator<? super T>) v2
+                                      : Comparator.comparing(v1, v2);
+            if (v4)
+                c = c.reversed();
+            return null == v5 ? c : ((Comparator<T>) v5.comparator()).thenComparing((Comparator<T>) c);
         }
     }
 
-    private static final UnaryOperator<? extends List<?>> NATURAL_LIST_SORTER = createSortList(Comparator.naturalOrder());
+    /**
+     * An ArrayList which records the order it was last sorted in, so a sortList for the same order can skip sorting.
+     * <p>
+     * Any change, after sorting, invalidates the record, via modCount, or set() and replaceAll(), which don't change
+     * modCount.
+     */
+    private static final class SortedArrayList<T> extends ArrayList<T> {
+        private static final long serialVersionUID = 1L;
+        private final transient ListSortKey<T, ?> key;
+        private transient int sortedModCount;
+
+        private SortedArrayList(final ListSortKey<T, ?> key, final int initialCapacity) {
+            super(initialCapacity);
+            this.key = key;
+            this.sortedModCount = modCount;
+        }
+
+        private boolean isSortedBy(final ListSortKey<?, ?> key) {
+            return sortedModCount == modCount && this.key.satisfies(key, false);
+        }
+
+        private SortedArrayList<T> sortRun(final Comparator<? super T> comp) {
+            if (sortedModCount != modCount) {
+                sort(comp);
+                sortedModCount = modCount;
+            }
+            return this;
+        }
+
+        /**
+         * Merges 2 sorted runs into a new list, taking from this first for equal items, so the merge is stable.
+         */
+        private SortedArrayList<T> merge(final SortedArrayList<T> other, final Comparator<? super T> comp) {
+            if (other.isEmpty())
+                return this;
+            if (isEmpty())
+                return other;
+            final SortedArrayList<T> m = new SortedArrayList<>(key, size() + other.size());
+            final Iterator<T> i = iterator(), j = other.iterator();
+            T x = i.next(), y = j.next();
+            while (true) {
+                if (comp.compare(x, y) <= 0) {
+                    m.add(x);
+                    if (!i.hasNext()) {
+                        m.add(y);
+                        j.forEachRemaining(m::add);
+                        break;
+                    }
+                    x = i.next();
+                } else {
+                    m.add(y);
+                    if (!j.hasNext()) {
+                        m.add(x);
+                        i.forEachRemaining(m::add);
+                        break;
+                    }
+                    y = j.next();
+                }
+            }
+            m.sortedModCount = m.modCount;
+            return m;
+        }
+
+        @Override
+        public T set(final int index, final T element) {
+            sortedModCount = -1;
+            return super.set(index, element);
+        }
+
+        @Override
+        public void replaceAll(final UnaryOperator<T> operator) {
+            sortedModCount = -1;
+            super.replaceAll(operator);
+        }
+    }
+
+    /**
+     * A read-only view of a sorted list, recording its order, so a sorter for the same order, or a prefix of it, can
+     * skip sorting, and a sorter for the reverse order can return a reversed view, by index remapping, instead of
+     * copying and sorting.
+     * <p>
+     * A reversed view has equal items in reverse encounter order, unlike a stable sort, and a prefix order has equal
+     * items in the order of the longer order.
+     */
+    private static final class SortedView<T> extends AbstractList<T> implements RandomAccess {
+        private final List<T> list;
+        private final ListSortKey<T, ?> key;
+        private final boolean reversed;
+
+        private SortedView(final List<T> list, final ListSortKey<T, ?> key, final boolean reversed) {
+            this.list = list;
+            this.key = key;
+            this.reversed = reversed;
+        }
+
+        private static <T> SortedView<T> of(final List<T> list, final ListSortKey<T, ?> key) {
+            if (list instanceof SortedView)
+                return ((SortedView<T>) list).key.satisfies(key, false)
+                       ? (SortedView<T>) list
+                       : new SortedView<>(((SortedView<T>) list).list, key, ((SortedView<T>) list).reversed);
+            return new SortedView<>(list instanceof RandomAccess ? list : new ArrayList<>(list), key, false);
+        }
+
+        private SortedView<T> reversed() {
+            return new SortedView<>(list, key.reversed(), !reversed);
+        }
+
+        @Override
+        public T get(final int index) {
+            return list.get(reversed ? list.size() - 1 - index : index);
+        }
+
+        @Override
+        public int size() {
+            return list.size();
+        }
+    }
+
+    /**
+     * A list Sorter, which checks for a SortedArrayList or SortedView in a compatible order, before sorting.
+     */
+    private static final class ListSorter<T> implements Sorter<List<T>> {
+        private final ListSortKey<T, ?> key;
+        private final UnaryOperator<List<T>> sort;
+
+        private ListSorter(final ListSortKey<T, ?> key, final UnaryOperator<List<T>> sort) {
+            this.key = key;
+            this.sort = sort;
+        }
+
+        @Override
+        public List<T> apply(final List<T> l) {
+            // Skip if already sorted in a compatible order e.g. by a sortedRunsList combiner, or a sharer.
+            if (l instanceof SortedArrayList && ((SortedArrayList<?>) l).isSortedBy(key)) {
+                SharingMetrics.listener().sortSkipped(List.class, l.size());
+                return l;
+            }
+            if (l instanceof SortedView) {
+                final SortedView<T> v = (SortedView<T>) l;
+                if (v.key.satisfies(key, false)) {
+                    SharingMetrics.listener().sortSkipped(List.class, l.size());
+                    return l;
+                }
+                if (v.key.satisfies(key, true)) {
+                    SharingMetrics.listener().sortSkipped(List.class, l.size());
+                    return v.reversed();
+                }
+            }
+            return sort.apply(l);
+        }
+
+        @Override
+        public List<T> readOnly(final List<T> sorted) {
+            // A keyed list is already read-only, and a view would hide its keys from percentileDouble/percentileLong.
+            if (sorted instanceof DoubleKeyedList || sorted instanceof LongKeyedList)
+                return sorted;
+            return SortedView.of(sorted, key);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ListSortKey<T, ?> keyOf(final UnaryOperator<List<T>> sorter) {
+        if (!(sorter instanceof ListSorter))
+            throw new IllegalArgumentException(sorter + " not a Finishers list sorter");
+        return ((ListSorter<T>) sorter).key;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static final UnaryOperator<? extends List<?>> NATURAL_LIST_SORTER = createSortList(ListSortKey.NATURAL);
     private static final Map<ListSortKey<?, ?>, UnaryOperator<?>> LIST_SORTERS = new ConcurrentHashMap<>();
 
     public static <T, U> UnaryOperator<List<T>> sortList(final Function<? super T, ? extends U> keyExtractor,
                                                          final Comparator<? super U> keyComparator) {
-        return sortList0(ListSortKey.of(keyExtractor, keyComparator));
+        return sortList0(ListSortKey.of(keyExtractor, keyComparator, SEQUENTIAL));
     }
 
     /**
@@ -50,36 +294,262 @@ public final class Finishers {
     private static <T, U> UnaryOperator<List<T>> sortList0(ListSortKey<T, U> key) {
         if (Objects.equals(ListSortKey.NATURAL, key))
             return (UnaryOperator<List<T>>) NATURAL_LIST_SORTER;
-        return (UnaryOperator<List<T>>) LIST_SORTERS.computeIfAbsent(key, k -> {
-            final Comparator<? super T> comp = key.v1 == Function.identity()
-                                               ? (Comparator<? super T>) key.v2
-                                               : Comparator.comparing(key.v1, key.v2);
-            return createSortList(comp);
-        });
+        return (UnaryOperator<List<T>>) LIST_SORTERS.computeIfAbsent(key, k -> createSortList(key));
     }
 
-    private static <T> UnaryOperator<List<T>> createSortList(final Comparator<? super T> comp) {
-        return l -> {
+    private static <T> UnaryOperator<List<T>> createSortList(final ListSortKey<T, ?> key) {
+        final Comparator<? super T> comp = key.comparator();
+        final int parallelThreshold = key.v3;
+        return new ListSorter<>(key, l -> {
             final int size = l.size();
+            if (size >= parallelThreshold)
+                return parallelSort(l, comp);
             if (size > 1) { // Only sort if 2 or more items.
                 try { // Test if modifiable
                     l.set(0,l.get(0));
                 } catch (Exception e) { // Unmodifiable, so copy.
                     l = new ArrayList<>(l);
+                    SharingMetrics.listener().copied(List.class, size);
                 }
                 l.sort(comp);
+                SharingMetrics.listener().sorted(List.class, size, false);
             }
             return l;
-        };
+        });
+    }
+
+    /**
+     * Like List.sort, sorts an array copy, then writes back, unless unmodifiable, when the array is wrapped, so no
+     * 2nd copy is needed.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> List<T> parallelSort(final List<T> l, final Comparator<? super T> comp) {
+        final T[] a = (T[]) l.toArray();
+        Arrays.parallelSort(a, comp);
+        SharingMetrics.listener().sorted(List.class, a.length, true);
+        return writeBack(l, a);
+    }
+
+    /**
+     * @return l, after writing back a, or a wrapped, if l is unmodifiable.
+     */
+    private static <T> List<T> writeBack(final List<T> l, final T[] a) {
+        try { // Test if modifiable
+            l.set(0, l.get(0));
+        } catch (Exception e) { // Unmodifiable, so use array.
+            SharingMetrics.listener().copied(List.class, a.length);
+            return Arrays.asList(a);
+        }
+        final ListIterator<T> i = l.listIterator();
+        for (T t : a) {
+            i.next();
+            i.set(t);
+        }
+        return l;
     }
 
     @SuppressWarnings("unchecked")
     public static <T, U> UnaryOperator<List<T>> sortList(final Function<? super T, ? extends U> keyExtractor) {
-        return sortList0(ListSortKey.of(keyExtractor, (Comparator<? super U>) Comparator.naturalOrder()));
+        return sortList0(ListSortKey.of(keyExtractor, (Comparator<? super U>) Comparator.naturalOrder(), SEQUENTIAL));
     }
 
     public static <T> UnaryOperator<List<T>> sortList(final Comparator<? super T> keyComparator) {
-        return sortList0(ListSortKey.of(Function.identity(), keyComparator));
+        return sortList0(ListSortKey.of(Function.identity(), keyComparator, SEQUENTIAL));
+    }
+
+    /**
+     * When shared with sorter, a sharer's andThenR, via SharableCollector or SharingPlan, the reversed sorter returns
+     * a reversed view of sorter's sorted list, instead of copying and sorting it again.
+     *
+     * @param sorter a sortList or parallelSortList sorter.
+     *
+     * @return the cached sorter for the reverse of the order of sorter.
+     */
+    public static <T> UnaryOperator<List<T>> reversed(final UnaryOperator<List<T>> sorter) {
+        return sortList0(keyOf(sorter).reversed());
+    }
+
+    /**
+     * A list sorted by the returned sorter is also sorted for sorter, so when sorter is a sharer's andThenR, via
+     * SharableCollector or SharingPlan, it skips sorting.
+     *
+     * @param sorter a sortList or parallelSortList sorter.
+     *
+     * @return the cached sorter, sorting by sorter, then by keyExtractor and keyComparator.
+     */
+    public static <T, U> UnaryOperator<List<T>> thenSortList(final UnaryOperator<List<T>> sorter,
+                                                             final Function<? super T, ? extends U> keyExtractor,
+                                                             final Comparator<? super U> keyComparator) {
+        return sortList0(keyOf(sorter).then(Objects.requireNonNull(keyExtractor, "keyExtractor"),
+                                            Objects.requireNonNull(keyComparator, "keyComparator")));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T, U> UnaryOperator<List<T>> thenSortList(final UnaryOperator<List<T>> sorter,
+                                                             final Function<? super T, ? extends U> keyExtractor) {
+        return thenSortList(sorter, keyExtractor, (Comparator<? super U>) Comparator.naturalOrder());
+    }
+
+    private static final Map<ListSortKey<?, ?>, UnaryOperator<?>> CACHED_LIST_SORTERS = new ConcurrentHashMap<>();
+    // Separate, because one keyExtractor could implement both ToDoubleFunction and ToLongFunction.
+    private static final Map<ToDoubleFunction<?>, UnaryOperator<?>> DOUBLE_KEYED_LIST_SORTERS = new ConcurrentHashMap<>();
+    private static final Map<ToLongFunction<?>, UnaryOperator<?>> LONG_KEYED_LIST_SORTERS = new ConcurrentHashMap<>();
+
+    /**
+     * A key-caching (Schwartzian) form of sortList(keyExtractor, keyComparator), which extracts each key once, then
+     * stable sorts an index permutation by key, for expensive keyExtractors, which sortList calls about 2·n·log n times.
+     * <p>
+     * Cached, so the same instance is returned for the same keyExtractor and keyComparator.
+     *
+     * @return the sorted original list or a sorted new list, if the original list was unmodifiable.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T, U> UnaryOperator<List<T>> sortListCached(final Function<? super T, ? extends U> keyExtractor,
+                                                               final Comparator<? super U> keyComparator) {
+        final ListSortKey<T, U> key = ListSortKey.of(keyExtractor, keyComparator, SEQUENTIAL);
+        return (UnaryOperator<List<T>>) CACHED_LIST_SORTERS.computeIfAbsent(key, k -> createCachedSortList(key));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T, U> UnaryOperator<List<T>> sortListCached(final Function<? super T, ? extends U> keyExtractor) {
+        return sortListCached(keyExtractor, (Comparator<? super U>) Comparator.naturalOrder());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T, U> UnaryOperator<List<T>> createCachedSortList(final ListSortKey<T, U> key) {
+        final Function<? super T, ? extends U> keyExtractor = key.v1;
+        final Comparator<? super U> keyComparator = key.v2;
+        return new ListSorter<>(key, l -> {
+            final int size = l.size();
+            if (size < 2) // Only sort if 2 or more items.
+                return l;
+            SharingMetrics.listener().sorted(List.class, size, false);
+            final T[] a = (T[]) l.toArray();
+            final Object[] keys = new Object[size];
+            for (int i = 0; i < size; i++)
+                keys[i] = keyExtractor.apply(a[i]);
+            final int[] order = KeySort.order((U[]) keys, keyComparator);
+            final T[] sorted = (T[]) new Object[size];
+            for (int i = 0; i < size; i++)
+                sorted[i] = a[order[i]];
+            return writeBack(l, sorted);
+        });
+    }
+
+    /**
+     * A primitive key form of sortListCached, which extracts each key once into a double[], then radix sorts an index
+     * permutation by key, in Double.compare order, so no comparator or boxing is needed.
+     * <p>
+     * Cached, so the same instance is returned for the same keyExtractor, and a list sorter, ordered by the boxed key,
+     * so reversed() and thenSortList() accept it, and sharers can skip sorting.
+     *
+     * @return a new DoubleKeyedList, which keeps the keys for percentileDouble(percentile, keyExtractor, function), or
+     * the original list if already a DoubleKeyedList for keyExtractor.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> UnaryOperator<List<T>> sortListByDouble(final ToDoubleFunction<? super T> keyExtractor) {
+        Objects.requireNonNull(keyExtractor, "keyExtractor");
+        return (UnaryOperator<List<T>>) DOUBLE_KEYED_LIST_SORTERS.computeIfAbsent(keyExtractor, k -> {
+            // Double.compareTo has the same order as the radix sort, so derived sorters agree.
+            final Function<T, Double> boxed = keyExtractor::applyAsDouble;
+            return new ListSorter<>(ListSortKey.of(boxed, Comparator.<Double>naturalOrder(), SEQUENTIAL), l ->
+                    l instanceof DoubleKeyedList && ((DoubleKeyedList<?>) l).isKeyedBy(keyExtractor)
+                    ? l
+                    : DoubleKeyedList.sort(l, keyExtractor));
+        });
+    }
+
+    /**
+     * A primitive key form of sortListCached, which extracts each key once into a long[], then radix sorts an index
+     * permutation by key, so no comparator or boxing is needed.
+     * <p>
+     * Cached, so the same instance is returned for the same keyExtractor, and a list sorter, like sortListByDouble.
+     *
+     * @return a new LongKeyedList, which keeps the keys for percentileLong(percentile, keyExtractor, function), or the
+     * original list if already a LongKeyedList for keyExtractor.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> UnaryOperator<List<T>> sortListByLong(final ToLongFunction<? super T> keyExtractor) {
+        Objects.requireNonNull(keyExtractor, "keyExtractor");
+        return (UnaryOperator<List<T>>) LONG_KEYED_LIST_SORTERS.computeIfAbsent(keyExtractor, k -> {
+            final Function<T, Long> boxed = keyExtractor::applyAsLong;
+            return new ListSorter<>(ListSortKey.of(boxed, Comparator.<Long>naturalOrder(), SEQUENTIAL), l ->
+                    l instanceof LongKeyedList && ((LongKeyedList<?>) l).isKeyedBy(keyExtractor)
+                    ? l
+                    : LongKeyedList.sort(l, keyExtractor));
+        });
+    }
+
+    /**
+     * Like sortList(keyExtractor, keyComparator), but uses Arrays.parallelSort, on the common ForkJoinPool, for lists
+     * of at least parallelThreshold items.
+     * <p>
+     * Cached by keyExtractor, keyComparator and parallelThreshold, so the same combination is still only sorted once
+     * by SharableCollector.
+     *
+     * @param parallelThreshold minimum list size to sort in parallel e.g. DEFAULT_PARALLEL_THRESHOLD.
+     */
+    public static <T, U> UnaryOperator<List<T>> parallelSortList(final Function<? super T, ? extends U> keyExtractor,
+                                                                 final Comparator<? super U> keyComparator,
+                                                                 final int parallelThreshold) {
+        return sortList0(ListSortKey.of(keyExtractor, keyComparator, parallelThreshold));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T, U> UnaryOperator<List<T>> parallelSortList(final Function<? super T, ? extends U> keyExtractor,
+                                                                 final int parallelThreshold) {
+        return sortList0(ListSortKey.of(keyExtractor, (Comparator<? super U>) Comparator.naturalOrder(), parallelThreshold));
+    }
+
+    public static <T> UnaryOperator<List<T>> parallelSortList(final Comparator<? super T> keyComparator,
+                                                              final int parallelThreshold) {
+        return sortList0(ListSortKey.of(Function.identity(), keyComparator, parallelThreshold));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T extends Comparable<? super T>> UnaryOperator<List<T>> parallelSortList(final int parallelThreshold) {
+        return sortList0(ListSortKey.of(Function.identity(), (Comparator<? super T>) Comparator.naturalOrder(), parallelThreshold));
+    }
+
+    public static <T extends Comparable<? super T>> UnaryOperator<List<T>> parallelSortList() {
+        return parallelSortList(DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * A sorted-runs alternative to Collectors.toList(), for parallel streams, where the combiner sorts each partial
+     * list, on the fork-join worker threads, then merges the sorted runs, so the matching sortList or
+     * parallelSortList, as andThenR, skips sorting, because the result is already sorted in the same order.
+     * <p>
+     * For a sequential stream, nothing is combined, so andThenR sorts as usual.
+     *
+     * @return a Collector which collects to a List, merging sorted runs.
+     */
+    public static <T, U> Collector<T, ?, List<T>> sortedRunsList(final Function<? super T, ? extends U> keyExtractor,
+                                                                 final Comparator<? super U> keyComparator) {
+        return sortedRunsList(ListSortKey.of(keyExtractor, keyComparator, SEQUENTIAL));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T, U> Collector<T, ?, List<T>> sortedRunsList(final Function<? super T, ? extends U> keyExtractor) {
+        return sortedRunsList(ListSortKey.of(keyExtractor, (Comparator<? super U>) Comparator.naturalOrder(), SEQUENTIAL));
+    }
+
+    public static <T> Collector<T, ?, List<T>> sortedRunsList(final Comparator<? super T> keyComparator) {
+        return sortedRunsList(ListSortKey.of(Function.identity(), keyComparator, SEQUENTIAL));
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T extends Comparable<? super T>> Collector<T, ?, List<T>> sortedRunsList() {
+        return sortedRunsList((ListSortKey<T, T>) ListSortKey.NATURAL);
+    }
+
+    private static <T> Collector<T, ?, List<T>> sortedRunsList(final ListSortKey<T, ?> key) {
+        final Comparator<? super T> comp = key.comparator();
+        return Collector.<T, SortedArrayList<T>, List<T>>of(
+                () -> new SortedArrayList<>(key, 10),
+                List::add,
+                (a, b) -> a.sortRun(comp).merge(b.sortRun(comp), comp),
+                a -> a);
     }
 
     @SuppressWarnings("unchecked")
@@ -87,6 +557,176 @@ public final class Finishers {
         return (UnaryOperator<List<T>>) NATURAL_LIST_SORTER;
     }
 
+    /**
+     * A DoubleArray or LongArray Sorter, where the sorted flag, kept by unmodifiable(), records the order.
+     */
+    private static final class ArraySorter<R> implements Sorter<R> {
+        private final UnaryOperator<R> sort;
+        private final UnaryOperator<R> readOnly;
+
+        private ArraySorter(final UnaryOperator<R> sort, final UnaryOperator<R> readOnly) {
+            this.sort = sort;
+            this.readOnly = readOnly;
+        }
+
+        @Override
+        public R apply(final R r) {
+            return sort.apply(r);
+        }
+
+        @Override
+        public R readOnly(final R sorted) {
+            return readOnly.apply(sorted);
+        }
+    }
+
+    private static final UnaryOperator<DoubleArray> DOUBLES_SORTER = new ArraySorter<>(DoubleArray::sort, DoubleArray::unmodifiable);
+    private static final UnaryOperator<LongArray> LONGS_SORTER = new ArraySorter<>(LongArray::sort, LongArray::unmodifiable);
+    private static final Map<Integer, UnaryOperator<DoubleArray>> PARALLEL_DOUBLES_SORTERS = new ConcurrentHashMap<>();
+    private static final Map<Integer, UnaryOperator<LongArray>> PARALLEL_LONGS_SORTERS = new ConcurrentHashMap<>();
+
+    /**
+     * Always returns the same instance, so SharableCollector can detect the same sort and only sort once.
+     *
+     * @return a function which sorts a DoubleArray, or a copy of it if it is read-only.
+     */
+    public static UnaryOperator<DoubleArray> sortDoubles() {
+        return DOUBLES_SORTER;
+    }
+
+    /**
+     * Always returns the same instance, so SharableCollector can detect the same sort and only sort once.
+     *
+     * @return a function which sorts a LongArray, or a copy of it if it is read-only.
+     */
+    public static UnaryOperator<LongArray> sortLongs() {
+        return LONGS_SORTER;
+    }
+
+    /**
+     * The primitive fast path of parallelSortList, using Arrays.parallelSort(double[]), which avoids comparators.
+     * <p>
+     * Cached by parallelThreshold, so the same instance is returned for the same parallelThreshold.
+     *
+     * @param parallelThreshold minimum size to sort in parallel e.g. DEFAULT_PARALLEL_THRESHOLD.
+     */
+    public static UnaryOperator<DoubleArray> parallelSortDoubles(final int parallelThreshold) {
+        return PARALLEL_DOUBLES_SORTERS.computeIfAbsent(parallelThreshold,
+                                                        k -> new ArraySorter<>(a -> a.sort(k), DoubleArray::unmodifiable));
+    }
+
+    public static UnaryOperator<DoubleArray> parallelSortDoubles() {
+        return parallelSortDoubles(DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    /**
+     * The primitive fast path of parallelSortList, using Arrays.parallelSort(long[]), which avoids comparators.
+     * <p>
+     * Cached by parallelThreshold, so the same instance is returned for the same parallelThreshold.
+     *
+     * @param parallelThreshold minimum size to sort in parallel e.g. DEFAULT_PARALLEL_THRESHOLD.
+     */
+    public static UnaryOperator<LongArray> parallelSortLongs(final int parallelThreshold) {
+        return PARALLEL_LONGS_SORTERS.computeIfAbsent(parallelThreshold,
+                                                      k -> new ArraySorter<>(a -> a.sort(k), LongArray::unmodifiable));
+    }
+
+    public static UnaryOperator<LongArray> parallelSortLongs() {
+        return parallelSortLongs(DEFAULT_PARALLEL_THRESHOLD);
+    }
+
+    private static final UnaryOperator<DoubleSpill> DOUBLE_SPILL_SORTER = DoubleSpill::sort;
+    private static final UnaryOperator<LongSpill> LONG_SPILL_SORTER = LongSpill::sort;
+
+    /**
+     * Always returns the same instance, so SharableCollector can detect the same sort and only sort once.
+     *
+     * @return a function which external merge sorts a DoubleSpill.
+     */
+    public static UnaryOperator<DoubleSpill> sortDoubleSpill() {
+        return DOUBLE_SPILL_SORTER;
+    }
+
+    /**
+     * Always returns the same instance, so SharableCollector can detect the same sort and only sort once.
+     *
+     * @return a function which external merge sorts a LongSpill.
+     */
+    public static UnaryOperator<LongSpill> sortLongSpill() {
+        return LONG_SPILL_SORTER;
+    }
+
+    /**
+     * Returns a new selector each time, because it plans the ranks for the percentiles built via it.
+     *
+     * @return a selector, for use instead of sortList(), when only a few percentiles are required.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T extends Comparable<? super T>> PercentileSelector.OfList<T> selectList() {
+        return new PercentileSelector.OfList<>((Comparator<? super T>) Comparator.naturalOrder());
+    }
+
+    public static <T> PercentileSelector.OfList<T> selectList(final Comparator<? super T> keyComparator) {
+        return new PercentileSelector.OfList<>(keyComparator);
+    }
+
+    public static <T, U extends Comparable<? super U>> PercentileSelector.OfList<T>
+    selectList(final Function<? super T, ? extends U> keyExtractor) {
+        return new PercentileSelector.OfList<>(Comparator.comparing(keyExtractor));
+    }
+
+    /**
+     * @return a new selector, for use instead of sortDoubles(), when only a few percentiles are required.
+     */
+    public static PercentileSelector.OfDoubles selectDoubles() {
+        return new PercentileSelector.OfDoubles();
+    }
+
+    /**
+     * @return a new selector, for use instead of sortLongs(), when only a few percentiles are required.
+     */
+    public static PercentileSelector.OfLongs selectLongs() {
+        return new PercentileSelector.OfLongs();
+    }
+
+    /**
+     * Limit fraction size, to stop common errors for double percentile values e.g. 2E-16.
+     * 0.5d is subtracted because actual percentile value can be between values.
+     */
+    static double percentileIndex(final long size, final double percentile) {
+        return ((double) Math.round(size * percentile * 1.0E6d) * 1.0E-6d) - 0.5d;
+    }
+
+    /**
+     * Used to size LongTail, DoubleTail and ListTail.
+     *
+     * @param highest if true, the highest rank, else the lowest rank.
+     *
+     * @return the highest or lowest rank read by a percentile function, for any of percentiles, for size values.
+     */
+    static long tailRank(final long size, final double[] percentiles, final boolean highest) {
+        if (size < 1)
+            throw new IllegalArgumentException("size " + size + " < 1");
+        if (percentiles.length == 0)
+            throw new IllegalArgumentException("no percentiles");
+        long r = highest ? 0 : size - 1;
+        for (double p : percentiles) {
+            if (!(p >= 0d && p <= 1d))
+                throw new IllegalArgumentException("percentile " + p + " not between 0 and 1");
+            final long lo, hi;
+            if (p == 0d)
+                lo = hi = 0;
+            else if (p == 1d)
+                lo = hi = size - 1;
+            else { // See percentile(), which reads the floor index, and the next, if not the end.
+                lo = Math.max(0, Math.min((long) percentileIndex(size, p), size - 1));
+                hi = Math.min(lo + 1, size - 1);
+            }
+            r = highest ? Math.max(r, hi) : Math.min(r, lo);
+        }
+        return r;
+    }
+
     /**
      * Builds a function which accepts a sorted list and returns the percentile result.
      *
@@ -104,33 +744,284 @@ public final class Finishers {
 
             if (size == 0)
                 return Optional.empty();
-            else if (size == 1)
-                return Optional.of(l.get(0));
-
-            if (percentile == 0d)
-                return Optional.of(l.get(0));
-            if (percentile == 1d)
-                return Optional.of(l.get(size - 1));
-
-            // Limit fraction size, to stop common errors for double percentile values e.g. 2E-16.
-            // 0.5d is added because actual percentile value can be between values.
-            final double dIndex = ((double) Math.round(size * percentile * 1.0E6d) * 1.0E-6d) - 0.5d;
-            int index = (int) dIndex; // floor, for before or exact index
-            if (index >= size)
-                return Optional.of(l.get(size - 1));
-
-            final T t0 = l.get(index); // 1st before or exact value
-            final double indexFraction = dIndex - index;
-            // If end or exact index, return t0 value.
-            if (++index == size || indexFraction == 0d)
-                return Optional.of(t0);
-
-            final T t1 = l.get(index); // after value
-            // Only call percentile function if t*.v1 values are different.
-            return (t0.equals(t1))
-                   ? Optional.of(t0)
-                   : Optional.of(percentileFunction.apply(t0, t1, indexFraction));
+            return Optional.of(percentile(l, size, percentile, percentileFunction));
+        };
+    }
 
+    /**
+     * Builds a function which accepts a sorted list and returns the results for all the percentiles, so one finisher
+     * and share() stub can serve many percentile columns.
+     *
+     * @param percentiles        each 0 to 1.0, copied
+     * @param percentileFunction function to resolve indexFraction
+     * @param <T>                type
+     * @return a function which accepts a sorted list and returns an unmodifiable list of percentiles.length results,
+     * in the same order as percentiles, all null if there are no values.
+     */
+    public static <T> Function<List<T>, List<T>>
+    percentiles(double[] percentiles, PercentileFunction<T> percentileFunction) {
+        final double[] ps = percentiles.clone();
+        return l -> {
+            final int size = l.size();
+
+            if (size == 0)
+                return Collections.nCopies(ps.length, null);
+            final List<T> r = new ArrayList<>(ps.length);
+            for (double p : ps)
+                r.add(percentile(l, size, p, percentileFunction));
+            return Collections.unmodifiableList(r);
+        };
+    }
+
+    private static <T> T percentile(final List<T> l, final int size,
+                                    final double percentile, final PercentileFunction<T> percentileFunction) {
+        if (size == 1)
+            return l.get(0);
+
+        if (percentile == 0d)
+            return l.get(0);
+        if (percentile == 1d)
+            return l.get(size - 1);
+
+        final double dIndex = percentileIndex(size, percentile);
+        int index = (int) dIndex; // floor, for before or exact index
+        if (index >= size)
+            return l.get(size - 1);
+
+        final T t0 = l.get(index); // 1st before or exact value
+        final double indexFraction = dIndex - index;
+        // If end or exact index, return t0 value.
+        if (++index == size || indexFraction == 0d)
+            return t0;
+
+        final T t1 = l.get(index); // after value
+        // Only call percentile function if t*.v1 values are different.
+        return (t0.equals(t1))
+               ? t0
+               : percentileFunction.apply(t0, t1, indexFraction);
+    }
+
+    /**
+     * Builds a function which accepts DoubleRanks e.g. a sorted DoubleArray, and returns the percentile result,
+     * without boxing.
+     *
+     * @param percentile         0 to 1.0
+     * @param percentileFunction function to resolve indexFraction
+     * @param <R>                ranks type
+     * @return a function which accepts DoubleRanks and returns the percentile result.
+     */
+    public static <R extends DoubleRanks> Function<R, OptionalDouble>
+    percentileDouble(double percentile, DoublePercentileFunction percentileFunction) {
+        return a -> {
+            final long size = a.count();
+
+            if (size == 0)
+                return OptionalDouble.empty();
+            return OptionalDouble.of(percentile(a, size, percentile, percentileFunction));
+        };
+    }
+
+    /**
+     * Builds a function which accepts DoubleRanks e.g. a sorted DoubleArray, and returns the results for all the
+     * percentiles, without boxing.
+     *
+     * @param percentiles        each 0 to 1.0, copied
+     * @param percentileFunction function to resolve indexFraction
+     * @param <R>                ranks type
+     * @return a function which accepts DoubleRanks and returns an array of percentiles.length results, in the same
+     * order as percentiles, all NaN if there are no values.
+     */
+    public static <R extends DoubleRanks> Function<R, double[]>
+    percentilesDouble(double[] percentiles, DoublePercentileFunction percentileFunction) {
+        final double[] ps = percentiles.clone();
+        return a -> {
+            final long size = a.count();
+            final double[] r = new double[ps.length];
+
+            if (size == 0)
+                Arrays.fill(r, Double.NaN);
+            else
+                for (int i = 0; i < ps.length; i++)
+                    r[i] = percentile(a, size, ps[i], percentileFunction);
+            return r;
+        };
+    }
+
+    private static double percentile(final DoubleRanks a, final long size,
+                                     final double percentile, final DoublePercentileFunction percentileFunction) {
+        if (size == 1)
+            return a.valueAt(0);
+
+        if (percentile == 0d)
+            return a.valueAt(0);
+        if (percentile == 1d)
+            return a.valueAt(size - 1);
+
+        final double dIndex = percentileIndex(size, percentile);
+        long index = (long) dIndex; // floor, for before or exact index
+        if (index >= size)
+            return a.valueAt(size - 1);
+
+        final double t0 = a.valueAt(index); // 1st before or exact value
+        final double indexFraction = dIndex - index;
+        // If end or exact index, return t0 value.
+        if (++index == size || indexFraction == 0d)
+            return t0;
+
+        final double t1 = a.valueAt(index); // after value
+        // Only call percentile function if values are different.
+        return (t0 == t1)
+               ? t0
+               : percentileFunction.applyAsDouble(t0, t1, indexFraction);
+    }
+
+    /**
+     * Builds a function which accepts LongRanks e.g. a sorted LongArray, and returns the percentile result,
+     * without boxing.
+     *
+     * @param percentile         0 to 1.0
+     * @param percentileFunction function to resolve indexFraction
+     * @param <R>                ranks type
+     * @return a function which accepts LongRanks and returns the percentile result.
+     */
+    public static <R extends LongRanks> Function<R, OptionalLong>
+    percentileLong(double percentile, LongPercentileFunction percentileFunction) {
+        return a -> {
+            final long size = a.count();
+
+            if (size == 0)
+                return OptionalLong.empty();
+            return OptionalLong.of(percentile(a, size, percentile, percentileFunction));
+        };
+    }
+
+    /**
+     * Builds a function which accepts LongRanks e.g. a sorted LongArray, and returns the results for all the
+     * percentiles, without boxing.
+     *
+     * @param percentiles        each 0 to 1.0, copied
+     * @param percentileFunction function to resolve indexFraction
+     * @param <R>                ranks type
+     * @return a function which accepts LongRanks and returns an array of percentiles.length results, in the same
+     * order as percentiles, all Long.MIN_VALUE if there are no values, because long has no NaN.
+     */
+    public static <R extends LongRanks> Function<R, long[]>
+    percentilesLong(double[] percentiles, LongPercentileFunction percentileFunction) {
+        final double[] ps = percentiles.clone();
+        return a -> {
+            final long size = a.count();
+            final long[] r = new long[ps.length];
+
+            if (size == 0)
+                Arrays.fill(r, Long.MIN_VALUE);
+            else
+                for (int i = 0; i < ps.length; i++)
+                    r[i] = percentile(a, size, ps[i], percentileFunction);
+            return r;
+        };
+    }
+
+    private static long percentile(final LongRanks a, final long size,
+                                   final double percentile, final LongPercentileFunction percentileFunction) {
+        if (size == 1)
+            return a.valueAt(0);
+
+        if (percentile == 0d)
+            return a.valueAt(0);
+        if (percentile == 1d)
+            return a.valueAt(size - 1);
+
+        final double dIndex = percentileIndex(size, percentile);
+        long index = (long) dIndex; // floor, for before or exact index
+        if (index >= size)
+            return a.valueAt(size - 1);
+
+        final long t0 = a.valueAt(index); // 1st before or exact value
+        final double indexFraction = dIndex - index;
+        // If end or exact index, return t0 value.
+        if (++index == size || indexFraction == 0d)
+            return t0;
+
+        final long t1 = a.valueAt(index); // after value
+        // Only call percentile function if values are different.
+        return (t0 == t1)
+               ? t0
+               : percentileFunction.applyAsLong(t0, t1, indexFraction);
+    }
+
+    /**
+     * Builds a function which accepts a List sorted by keyExtractor, and returns the percentile of its keys, reading the
+     * cached keys of a DoubleKeyedList from sortListByDouble(keyExtractor), else extracting only the keys needed.
+     *
+     * @param percentile         0 to 1.0
+     * @param keyExtractor       the key the List is sorted by.
+     * @param percentileFunction function to resolve indexFraction
+     * @return a function which accepts a sorted List and returns the percentile key.
+     */
+    public static <T> Function<List<T>, OptionalDouble>
+    percentileDouble(double percentile, ToDoubleFunction<? super T> keyExtractor, DoublePercentileFunction percentileFunction) {
+        final Function<DoubleRanks, OptionalDouble> f = percentileDouble(percentile, percentileFunction);
+        return l -> f.apply(doubleKeys(l, keyExtractor));
+    }
+
+    public static <T> Function<List<T>, double[]>
+    percentilesDouble(double[] percentiles, ToDoubleFunction<? super T> keyExtractor,
+                      DoublePercentileFunction percentileFunction) {
+        final Function<DoubleRanks, double[]> f = percentilesDouble(percentiles, percentileFunction);
+        return l -> f.apply(doubleKeys(l, keyExtractor));
+    }
+
+    /**
+     * Builds a function which accepts a List sorted by keyExtractor, and returns the percentile of its keys, reading the
+     * cached keys of a LongKeyedList from sortListByLong(keyExtractor), else extracting only the keys needed.
+     *
+     * @param percentile         0 to 1.0
+     * @param keyExtractor       the key the List is sorted by.
+     * @param percentileFunction function to resolve indexFraction
+     * @return a function which accepts a sorted List and returns the percentile key.
+     */
+    public static <T> Function<List<T>, OptionalLong>
+    percentileLong(double percentile, ToLongFunction<? super T> keyExtractor, LongPercentileFunction percentileFunction) {
+        final Function<LongRanks, OptionalLong> f = percentileLong(percentile, percentileFunction);
+        return l -> f.apply(longKeys(l, keyExtractor));
+    }
+
+    public static <T> Function<List<T>, long[]>
+    percentilesLong(double[] percentiles, ToLongFunction<? super T> keyExtractor,
+                    LongPercentileFunction percentileFunction) {
+        final Function<LongRanks, long[]> f = percentilesLong(percentiles, percentileFunction);
+        return l -> f.apply(longKeys(l, keyExtractor));
+    }
+
+    private static <T> DoubleRanks doubleKeys(final List<T> l, final ToDoubleFunction<? super T> keyExtractor) {
+        if (l instanceof DoubleKeyedList && ((DoubleKeyedList<?>) l).isKeyedBy(keyExtractor))
+            return (DoubleKeyedList<?>) l;
+        return new DoubleRanks() {
+            @Override
+            public long count() {
+                return l.size();
+            }
+
+            @Override
+            public double valueAt(final long rank) {
+                return keyExtractor.applyAsDouble(l.get((int) rank));
+            }
+        };
+    }
+
+    private static <T> LongRanks longKeys(final List<T> l, final ToLongFunction<? super T> keyExtractor) {
+        if (l instanceof LongKeyedList && ((LongKeyedList<?>) l).isKeyedBy(keyExtractor))
+            return (LongKeyedList<?>) l;
+        return new LongRanks() {
+            @Override
+            public long count() {
+                return l.size();
+            }
+
+            @Override
+            public long valueAt(final long rank) {
+                return keyExtractor.applyAsLong(l.get((int) rank));
+            }
         };
     }
 }
@@ -0,0 +1,99 @@
+package rwperrott.lambda;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Stable index sorts, by pre-extracted keys, so each key is only extracted once, instead of about 2·n·log n times by a
+ * Comparator.comparing comparator.
+ */
+final class KeySort {
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    private KeySort() {
+    }
+
+    /**
+     * LSD radix sort, by byte, skipping bytes which are the same for all keys, so only O(n) per distinct byte.
+     *
+     * @return the indexes of keys, in stable ascending key order.
+     */
+    static int[] order(final long[] keys) {
+        final int n = keys.length;
+        int[] idx = identity(n);
+        int[] tmp = new int[n];
+        final int[] counts = new int[256];
+        for (int shift = 0; shift < Long.SIZE && n > 1; shift += Byte.SIZE) {
+            Arrays.fill(counts, 0);
+            for (long key : keys)
+                counts[digit(key, shift)]++;
+            if (counts[digit(keys[0], shift)] == n) // Same byte for all keys
+                continue;
+            for (int i = 0, offset = 0; i < counts.length; i++) {
+                final int c = counts[i];
+                counts[i] = offset;
+                offset += c;
+            }
+            for (int i = 0; i < n; i++) {
+                final int j = idx[i];
+                tmp[counts[digit(keys[j], shift)]++] = j;
+            }
+            final int[] t = idx;
+            idx = tmp;
+            tmp = t;
+        }
+        return idx;
+    }
+
+    /**
+     * Flips the sign bit, so unsigned byte order matches signed long order.
+     */
+    private static int digit(final long key, final int shift) {
+        return (int) ((key ^ Long.MIN_VALUE) >>> shift) & 0xFF;
+    }
+
+    /**
+     * Merge sort, like the legacy Arrays.sort(Object[]), so is stable.
+     *
+     * @return the indexes of keys, in stable ascending order of comp.
+     */
+    static <U> int[] order(final U[] keys, final Comparator<? super U> comp) {
+        final int[] idx = identity(keys.length);
+        mergeSort(idx.clone(), idx, 0, keys.length, keys, comp);
+        return idx;
+    }
+
+    private static <U> void mergeSort(final int[] src, final int[] dst, final int lo, final int hi,
+                                      final U[] keys, final Comparator<? super U> comp) {
+        if (hi - lo <= INSERTION_SORT_THRESHOLD) {
+            for (int i = lo + 1; i < hi; i++) {
+                final int x = dst[i];
+                int j = i;
+                while (j > lo && comp.compare(keys[dst[j - 1]], keys[x]) > 0) {
+                    dst[j] = dst[j - 1];
+                    j--;
+                }
+                dst[j] = x;
+            }
+            return;
+        }
+        final int mid = (lo + hi) >>> 1;
+        mergeSort(dst, src, lo, mid, keys, comp);
+        mergeSort(dst, src, mid, hi, keys, comp);
+        if (comp.compare(keys[src[mid - 1]], keys[src[mid]]) <= 0) { // Already in order
+            System.arraycopy(src, lo, dst, lo, hi - lo);
+            return;
+        }
+        for (int i = lo, p = lo, q = mid; i < hi; i++)
+            dst[i] = q >= hi || p < mid && comp.compare(keys[src[p]], keys[src[q]]) <= 0
+                     ? src[p++]
+                     : src[q++];
+    }
+
+    private static int[] identity(final int n) {
+        final int[] idx = new int[n];
+        for (int i = 0; i < n; i++)
+            idx[i] = i;
+        return idx;
+    }
+}
@@ -0,0 +1,183 @@
+package rwperrott.lambda;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.stream.Collector;
+
+/**
+ * An exact, frequency-compressed alternative to Collectors.toList() and Finishers.sortList(), for values with few
+ * distinct values, which counts each distinct value, then presents them as a read-only, run-length encoded List, in
+ * comparator order, where size() is the number of values added, and get() resolves an index by binary search of the
+ * cumulative counts, so Finishers.percentile(s) and all PercentileFunctions return the same results as for a sorted
+ * List, while memory and sort cost scale with the number of distinct values.
+ * <p>
+ * Values are counted by equals() and hashCode(), so they should be consistent with the comparator.
+ * <p>
+ * Use UnaryOperator.identity() as andThenR, because the List is always in comparator order e.g.
+ * <pre>
+ * idMap.share("status", Row::status, ListCounts.collector(), UnaryOperator.identity(),
+ *             Finishers.percentile(0.99d, PercentileFunction.floor()));
+ * </pre>
+ * Not Thread-safe, and doesn't need to be, because each Collector container is only used by one thread at a time.
+ *
+ * @param <T> value type
+ */
+public final class ListCounts<T> extends AbstractList<T> implements RandomAccess {
+    private final Comparator<? super T> comparator;
+    private final Map<T, long[]> counts = new HashMap<>();
+    private long count;
+    // Lazily built ascending view, cleared by any change.
+    private View view;
+
+    /**
+     * @param comparator the ascending order.
+     */
+    public ListCounts(final Comparator<? super T> comparator) {
+        this.comparator = Objects.requireNonNull(comparator, "comparator");
+    }
+
+    /**
+     * @return a Collector counting values into a ListCounts, in comparator order, with a merging combiner.
+     */
+    public static <T> Collector<T, ListCounts<T>, List<T>> collector(final Comparator<? super T> comparator) {
+        Objects.requireNonNull(comparator, "comparator");
+        return Collector.of(() -> new ListCounts<>(comparator),
+                            ListCounts::offer,
+                            ListCounts::merge,
+                            c -> c,
+                            Collector.Characteristics.UNORDERED);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T extends Comparable<? super T>> Collector<T, ListCounts<T>, List<T>> collector() {
+        return collector((Comparator<? super T>) Comparator.naturalOrder());
+    }
+
+    /**
+     * Adds value, instead of List.add, which is unsupported, because the list is sorted.
+     */
+    public void offer(final T value) {
+        offer(value, 1);
+    }
+
+    /**
+     * @param n the number of times to add value, 0 or more.
+     */
+    public void offer(final T value, final long n) {
+        if (n <= 0) {
+            if (n < 0)
+                throw new IllegalArgumentException("n " + n + " < 0");
+            return;
+        }
+        counts.computeIfAbsent(value, k -> new long[1])[0] += n;
+        count += n;
+        view = null;
+    }
+
+    /**
+     * Adds the counts of other, so the cost is the number of distinct values of other.
+     *
+     * @return this
+     */
+    public ListCounts<T> merge(final ListCounts<T> other) {
+        other.counts.forEach((value, n) -> offer(value, n[0]));
+        return this;
+    }
+
+    /**
+     * @return the number of values added.
+     *
+     * @throws IllegalStateException if more than Integer.MAX_VALUE values were added.
+     */
+    @Override
+    public int size() {
+        if (count > Integer.MAX_VALUE)
+            throw new IllegalStateException("count " + count + " > Integer.MAX_VALUE");
+        return (int) count;
+    }
+
+    /**
+     * @return the number of distinct values.
+     */
+    public int distinct() {
+        return counts.size();
+    }
+
+    /**
+     * @return the number of times value was added.
+     */
+    public long countOf(final T value) {
+        final long[] n = counts.get(value);
+        return null == n ? 0 : n[0];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(final int index) {
+        if (index < 0 || index >= count)
+            throw new IndexOutOfBoundsException("index " + index + " not in 0 to " + (count - 1));
+        final View v = view();
+        int i = Arrays.binarySearch(v.cumulative, index + 1L);
+        if (i < 0)
+            i = -i - 1; // 1st value with cumulative > index
+        return (T) v.values[i];
+    }
+
+    /**
+     * @return the distinct values, in ascending order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> values() {
+        return (List<T>) Collections.unmodifiableList(Arrays.asList(view().values));
+    }
+
+    private View view() {
+        View v = view;
+        if (null == v) {
+            final Object[] values = counts.keySet().toArray();
+            sortValues(values);
+            final long[] cumulative = new long[values.length];
+            long sum = 0;
+            for (int i = 0; i < values.length; i++)
+                cumulative[i] = sum += countOf(value(values[i]));
+            view = v = new View(values, cumulative);
+        }
+        return v;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void sortValues(final Object[] values) {
+        Arrays.sort((T[]) values, comparator);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T value(final Object o) {
+        return (T) o;
+    }
+
+    @Override
+    public String toString() {
+        return "ListCounts{count=" + count + ", distinct=" + counts.size() + '}';
+    }
+
+    /**
+     * Immutable, so safe to publish to share() stubs.
+     */
+    private static final class View {
+        private final Object[] values;
+        // cumulative[i] is the number of values up to and including values[i]
+        private final long[] cumulative;
+
+        private View(final Object[] values, final long[] cumulative) {
+            this.values = values;
+            this.cumulative = cumulative;
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package rwperrott.lambda;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.stream.Collector;
+
+import static java.lang.String.format;
+
+/**
+ * A comparator form of LongTail, holding the k largest, or k smallest, T values added in a bounded heap, for
+ * Finishers.percentile(double, PercentileFunction) and the key extractor forms, as a sparse sorted List, where size()
+ * is the number of values added, but get() only accepts the indexes of the retained tail.
+ * <p>
+ * So only use it with percentile finishers, because iteration, equals() and sorting fail, unless all values are
+ * retained; use retainedList() instead.  Values equal by the comparator may be any of the equal values added.
+ * <p>
+ * Use UnaryOperator.identity() as andThenR, with k from largestK() or smallestK(), for exact results.
+ * <p>
+ * Not Thread-safe, and doesn't need to be, because each Collector container is only used by one thread at a time.
+ *
+ * @param <T> value type
+ */
+public final class ListTail<T> extends AbstractList<T> implements RandomAccess {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int k;
+    private final boolean largest;
+    private final Comparator<? super T> comparator;
+    // A heap, with the value to evict at the root e.g. the smallest retained, when largest.
+    private Object[] heap;
+    private int retained;
+    private int count;
+    // Lazily built ascending retained values, cleared by any change.
+    private Object[] sorted;
+
+    /**
+     * @param comparator the ascending order.
+     * @param k          the maximum number of values retained.
+     * @param largest    if true, retains the k largest values, else the k smallest values.
+     */
+    public ListTail(final Comparator<? super T> comparator, final int k, final boolean largest) {
+        if (k < 1)
+            throw new IllegalArgumentException("k " + k + " < 1");
+        this.comparator = Objects.requireNonNull(comparator, "comparator");
+        this.k = k;
+        this.largest = largest;
+        this.heap = new Object[Math.min(k, INITIAL_CAPACITY)];
+    }
+
+    /**
+     * @see LongTail#largestK(long, double...)
+     */
+    public static int largestK(final long count, final double... percentiles) {
+        return LongTail.largestK(count, percentiles);
+    }
+
+    /**
+     * @see LongTail#smallestK(long, double...)
+     */
+    public static int smallestK(final long count, final double... percentiles) {
+        return LongTail.smallestK(count, percentiles);
+    }
+
+    /**
+     * @return a Collector accumulating the k largest values, in comparator order, into a ListTail, with a merging
+     * combiner.
+     */
+    public static <T> Collector<T, ListTail<T>, List<T>> largest(final Comparator<? super T> comparator,
+                                                                 final int k) {
+        return collector(comparator, k, true);
+    }
+
+    /**
+     * @return a Collector accumulating the k smallest values, in comparator order, into a ListTail, with a merging
+     * combiner.
+     */
+    public static <T> Collector<T, ListTail<T>, List<T>> smallest(final Comparator<? super T> comparator,
+                                                                  final int k) {
+        return collector(comparator, k, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T extends Comparable<? super T>> Collector<T, ListTail<T>, List<T>> largest(final int k) {
+        return largest((Comparator<? super T>) Comparator.naturalOrder(), k);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T extends Comparable<? super T>> Collector<T, ListTail<T>, List<T>> smallest(final int k) {
+        return smallest((Comparator<? super T>) Comparator.naturalOrder(), k);
+    }
+
+    private static <T> Collector<T, ListTail<T>, List<T>> collector(final Comparator<? super T> comparator,
+                                                                    final int k,
+                                                                    final boolean largest) {
+        Objects.requireNonNull(comparator, "comparator");
+        if (k < 1)
+            throw new IllegalArgumentException("k " + k + " < 1");
+        return Collector.of(() -> new ListTail<>(comparator, k, largest),
+                            ListTail::offer,
+                            ListTail::merge,
+                            t -> t,
+                            Collector.Characteristics.UNORDERED);
+    }
+
+    public int k() {
+        return k;
+    }
+
+    public boolean isLargest() {
+        return largest;
+    }
+
+    public int retained() {
+        return retained;
+    }
+
+    /**
+     * Adds value, instead of List.add, which is unsupported, because the list is sorted.
+     */
+    public void offer(final T value) {
+        if (count == Integer.MAX_VALUE)
+            throw new IllegalStateException("count overflow");
+        count++;
+        retain(value);
+    }
+
+    private void retain(final T value) {
+        if (retained < k) {
+            if (retained == heap.length)
+                heap = Arrays.copyOf(heap, (int) Math.min(k, 2L * retained));
+            siftUp(retained++, value);
+            sorted = null;
+        } else if (evictsBefore(heap(0), value)) {
+            siftDown(value);
+            sorted = null;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T heap(final int i) {
+        return (T) heap[i];
+    }
+
+    private boolean evictsBefore(final T a, final T b) {
+        final int c = comparator.compare(a, b);
+        return largest ? c < 0 : c > 0;
+    }
+
+    private void siftUp(int i, final T value) {
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (!evictsBefore(value, heap(parent)))
+                break;
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = value;
+    }
+
+    private void siftDown(final T value) {
+        final int half = retained >>> 1;
+        int i = 0;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < retained && evictsBefore(heap(child + 1), heap(child)))
+                child++;
+            if (!evictsBefore(heap(child), value))
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+    }
+
+    /**
+     * @return this
+     */
+    public ListTail<T> merge(final ListTail<T> other) {
+        if (other.k != k || other.largest != largest)
+            throw new IllegalArgumentException(format("k %d and largest %b not %d and %b",
+                                                      other.k, other.largest, k, largest));
+        if ((long) count + other.count > Integer.MAX_VALUE)
+            throw new IllegalStateException("count overflow");
+        count += other.count;
+        for (int i = 0; i < other.retained; i++)
+            retain(other.heap(i));
+        return this;
+    }
+
+    /**
+     * @return the number of values added.
+     */
+    @Override
+    public int size() {
+        return count;
+    }
+
+    public int firstIndex() {
+        return largest ? count - retained : 0;
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException if index is outside the retained tail, because k was too small.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(final int index) {
+        final int i = index - firstIndex();
+        if (i < 0 || i >= retained)
+            throw new IndexOutOfBoundsException(format("index %d not in retained tail %d to %d, of %d",
+                                                       index, firstIndex(), firstIndex() + retained - 1, count));
+        return (T) sorted()[i];
+    }
+
+    private Object[] sorted() {
+        Object[] s = sorted;
+        if (null == s) {
+            s = Arrays.copyOf(heap, retained);
+            sortRetained(s);
+            sorted = s;
+        }
+        return s;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void sortRetained(final Object[] s) {
+        Arrays.sort((T[]) s, comparator);
+    }
+
+    /**
+     * @return the retained values, in ascending order.
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> retainedList() {
+        return (List<T>) Collections.unmodifiableList(Arrays.asList(sorted()));
+    }
+
+    @Override
+    public String toString() {
+        return "ListTail{k=" + k + ", largest=" + largest + ", count=" + count + ", retained="
+               + Arrays.toString(sorted()) + '}';
+    }
+}
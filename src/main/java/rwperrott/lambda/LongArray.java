@@ -0,0 +1,283 @@
+package rwperrott.lambda;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collector;
+
+/**
+ * A growable long[] buffer, used as a non-boxing accumulator and intermediate result.
+ * <p>
+ * A read-only view, from unmodifiable(), shares the backing array, so sort() will sort a copy, like
+ * Finishers.sortList() does for an unmodifiable List.
+ * <p>
+ * Not Thread-safe, and doesn't need to be, because each Collector container is only used by one thread at a time.
+ */
+public final class LongArray implements LongRanks {
+    private static final long[] EMPTY = {};
+
+    private long[] a;
+    private int size;
+    private boolean sorted = true;
+    private final boolean readOnly;
+
+    public LongArray() {
+        this(EMPTY, 0, true, false);
+    }
+
+    public LongArray(final int initialCapacity) {
+        this(initialCapacity == 0 ? EMPTY : new long[initialCapacity], 0, true, false);
+    }
+
+    private LongArray(final long[] a, final int size, final boolean sorted, final boolean readOnly) {
+        this.a = a;
+        this.size = size;
+        this.sorted = sorted;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Used by Partials, to read values, without copying them again.
+     */
+    static LongArray wrap(final long[] a, final int size, final boolean sorted) {
+        return new LongArray(a, size, sorted, false);
+    }
+
+    /**
+     * Used by Partials, to write values, so only the first size() are valid.
+     */
+    long[] array() {
+        return a;
+    }
+
+    /**
+     * @param mapper extracts a long value from each T, without boxing.
+     * @param <T>    source value type
+     *
+     * @return a Collector accumulating longs into a LongArray.
+     */
+    public static <T> Collector<T, LongArray, LongArray> collector(final ToLongFunction<? super T> mapper) {
+        Objects.requireNonNull(mapper, "mapper");
+        return Collector.of(LongArray::new,
+                            (a, t) -> a.add(mapper.applyAsLong(t)),
+                            LongArray::addAll);
+    }
+
+    /**
+     * A sorted-runs form of collector, for parallel streams, where the combiner sorts each partial result, on the
+     * fork-join worker threads, then merges the sorted runs, so the sort before the finisher is skipped, because the
+     * result is already sorted, except for a sequential stream, where nothing is combined.
+     * <p>
+     * Use with Finishers.sortLongs() or Finishers.parallelSortLongs() as andThenR.
+     *
+     * @param mapper extracts a long value from each T, without boxing.
+     * @param <T>    source value type
+     *
+     * @return a Collector accumulating longs into a LongArray, and merging sorted runs.
+     */
+    public static <T> Collector<T, LongArray, LongArray> sortedRunsCollector(final ToLongFunction<? super T> mapper) {
+        Objects.requireNonNull(mapper, "mapper");
+        return Collector.of(LongArray::new,
+                            (a, t) -> a.add(mapper.applyAsLong(t)),
+                            (a, b) -> a.sort().merge(b.sort()));
+    }
+
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long count() {
+        return size;
+    }
+
+    /**
+     * Only ascending after sort().
+     */
+    @Override
+    public long valueAt(final long rank) {
+        return a[Objects.checkIndex((int) Math.min(rank, Integer.MAX_VALUE), size)];
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    public long get(final int index) {
+        return a[Objects.checkIndex(index, size)];
+    }
+
+    public void add(final long value) {
+        checkWritable();
+        if (size == a.length)
+            grow(size + 1);
+        a[size++] = value;
+        sorted = false;
+    }
+
+    /**
+     * Appends values[from..to), growing the backing array at most once.
+     */
+    public void addAll(final long[] values, final int from, final int to) {
+        Objects.checkFromToIndex(from, to, values.length);
+        final int n = to - from;
+        if (n > 0) {
+            checkWritable();
+            if (size + n > a.length)
+                grow(size + n);
+            System.arraycopy(values, from, a, size, n);
+            size += n;
+            sorted = false;
+        }
+    }
+
+    /**
+     * Maps and appends values[from..to), growing the backing array at most once, so the mapper is applied in a tight
+     * loop, instead of via a Collector accumulator per value.
+     */
+    public <T> void addAll(final T[] values, final int from, final int to, final ToLongFunction<? super T> mapper) {
+        Objects.checkFromToIndex(from, to, values.length);
+        final int n = to - from;
+        if (n > 0) {
+            checkWritable();
+            if (size + n > a.length)
+                grow(size + n);
+            final long[] a = this.a;
+            int j = size;
+            for (int i = from; i < to; i++)
+                a[j++] = mapper.applyAsLong(values[i]);
+            size = j;
+            sorted = false;
+        }
+    }
+
+    /**
+     * Used as the combiner.
+     *
+     * @param other the values to append.
+     *
+     * @return this
+     */
+    public LongArray addAll(final LongArray other) {
+        checkWritable();
+        final int n = other.size;
+        if (n > 0) {
+            if (size + n > a.length)
+                grow(size + n);
+            System.arraycopy(other.a, 0, a, size, n);
+            sorted = size == 0 && other.sorted;
+            size += n;
+        }
+        return this;
+    }
+
+    /**
+     * Sorts in ascending order.
+     *
+     * @return this sorted, or a sorted copy if this is read-only.
+     */
+    public LongArray sort() {
+        return sort(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Used by Finishers.parallelSortLongs.
+     *
+     * @param parallelThreshold minimum size to use Arrays.parallelSort.
+     */
+    LongArray sort(final int parallelThreshold) {
+        final SharingListener listener = SharingMetrics.listener();
+        if (sorted) {
+            listener.sortSkipped(LongArray.class, size);
+            return this;
+        }
+        final LongArray s = readOnly ? new LongArray(Arrays.copyOf(a, size), size, false, false) : this;
+        if (readOnly)
+            listener.copied(LongArray.class, size);
+        final boolean parallel = s.size >= parallelThreshold;
+        if (parallel)
+            Arrays.parallelSort(s.a, 0, s.size);
+        else
+            Arrays.sort(s.a, 0, s.size);
+        listener.sorted(LongArray.class, s.size, parallel);
+        s.sorted = true;
+        return s;
+    }
+
+    /**
+     * Merges other into this, both sorted, into a new backing array.
+     *
+     * @return this
+     */
+    private LongArray merge(final LongArray other) {
+        checkWritable();
+        if (size == 0 || other.size == 0)
+            return addAll(other);
+        final long[] x = a, y = other.a, m = new long[size + other.size];
+        int i = 0, j = 0, k = 0;
+        while (i < size && j < other.size)
+            m[k++] = x[i] <= y[j] ? x[i++] : y[j++];
+        while (i < size)
+            m[k++] = x[i++];
+        while (j < other.size)
+            m[k++] = y[j++];
+        a = m;
+        size = m.length;
+        sorted = true;
+        return this;
+    }
+
+    /**
+     * Used by PercentileSelector, to only partition around the ranks, instead of a full sort.
+     *
+     * @param ranks ascending, distinct ranks, all less than size.
+     *
+     * @return this, or a partitioned copy if this is read-only.
+     */
+    LongArray select(final int[] ranks) {
+        if (sorted || ranks.length == 0)
+            return this;
+        final LongArray s = readOnly ? new LongArray(Arrays.copyOf(a, size), size, false, false) : this;
+        QuickSelect.select(s.a, 0, s.size, ranks);
+        return s;
+    }
+
+    /**
+     * @return a read-only view sharing the backing array.
+     */
+    public LongArray unmodifiable() {
+        return readOnly ? this : new LongArray(a, size, sorted, true);
+    }
+
+    public long[] toArray() {
+        return Arrays.copyOf(a, size);
+    }
+
+    private void checkWritable() {
+        if (readOnly)
+            throw new UnsupportedOperationException("read-only");
+    }
+
+    private void grow(final int minCapacity) {
+        final int oldCapacity = a.length;
+        int newCapacity = oldCapacity + (oldCapacity >> 1);
+        if (newCapacity < minCapacity)
+            newCapacity = Math.max(minCapacity, 10);
+        a = Arrays.copyOf(a, newCapacity);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder().append('[');
+        for (int i = 0; i < size; i++) {
+            if (i > 0)
+                sb.append(", ");
+            sb.append(a[i]);
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -0,0 +1,202 @@
+package rwperrott.lambda;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collector;
+
+/**
+ * An exact, frequency-compressed alternative to LongArray, for columns with few distinct values e.g. status codes or
+ * rounded millisecond latencies, which counts each distinct value, in an open-addressing hash table, so memory and
+ * sort cost scale with the number of distinct values, instead of the number of values added.
+ * <p>
+ * valueAt() resolves a rank by binary search of the cumulative counts of the ascending distinct values, so
+ * Finishers.percentileLong(s) and all LongPercentileFunctions return the same results as for a sorted LongArray.
+ * <p>
+ * Use UnaryOperator.identity() as andThenR, because the ascending view is built once, on the first valueAt(), e.g.
+ * <pre>
+ * idMap.share("status", LongCounts.collector(Row::status), UnaryOperator.identity(),
+ *             Finishers.percentileLong(0.99d, LongPercentileFunction.floor()));
+ * </pre>
+ * Not Thread-safe, and doesn't need to be, because each Collector container is only used by one thread at a time.
+ */
+public final class LongCounts implements LongRanks {
+    private static final int INITIAL_CAPACITY = 16;
+    private static final long PHI = 0x9E3779B97F4A7C15L;
+
+    // Open-addressing, linear probing, power of 2 sized, where a count of 0 is an empty slot.
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private long[] counts = new long[INITIAL_CAPACITY];
+    private int shift = Long.SIZE - Integer.numberOfTrailingZeros(INITIAL_CAPACITY);
+    private int distinct;
+    private long count;
+    // Lazily built ascending view, cleared by any change.
+    private View view;
+
+    /**
+     * @param mapper extracts a long value from each T, without boxing.
+     * @param <T>    source value type
+     *
+     * @return a Collector counting longs into a LongCounts, with a merging combiner.
+     */
+    public static <T> Collector<T, LongCounts, LongCounts> collector(final ToLongFunction<? super T> mapper) {
+        Objects.requireNonNull(mapper, "mapper");
+        return Collector.of(LongCounts::new,
+                            (c, t) -> c.add(mapper.applyAsLong(t)),
+                            LongCounts::merge,
+                            Collector.Characteristics.UNORDERED);
+    }
+
+    public void add(final long value) {
+        add(value, 1);
+    }
+
+    /**
+     * @param n the number of times to add value, 0 or more.
+     */
+    public void add(final long value, final long n) {
+        if (n <= 0) {
+            if (n < 0)
+                throw new IllegalArgumentException("n " + n + " < 0");
+            return;
+        }
+        final long[] k = keys;
+        final int mask = k.length - 1;
+        int i = slot(value);
+        while (counts[i] != 0) {
+            if (k[i] == value) {
+                counts[i] += n;
+                count += n;
+                view = null;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        k[i] = value;
+        counts[i] = n;
+        count += n;
+        view = null;
+        if (++distinct > k.length >>> 1)
+            grow();
+    }
+
+    private int slot(final long value) {
+        return (int) ((value * PHI) >>> shift);
+    }
+
+    private void grow() {
+        final long[] oldKeys = keys, oldCounts = counts;
+        keys = new long[oldKeys.length << 1];
+        counts = new long[keys.length];
+        shift--;
+        final int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++)
+            if (oldCounts[j] != 0) {
+                int i = slot(oldKeys[j]);
+                while (counts[i] != 0)
+                    i = (i + 1) & mask;
+                keys[i] = oldKeys[j];
+                counts[i] = oldCounts[j];
+            }
+    }
+
+    /**
+     * Adds the counts of other, so the cost is the number of distinct values of other.
+     *
+     * @return this
+     */
+    public LongCounts merge(final LongCounts other) {
+        final long[] k = other.keys, c = other.counts;
+        for (int i = 0; i < k.length; i++)
+            if (c[i] != 0)
+                add(k[i], c[i]);
+        return this;
+    }
+
+    @Override
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return the number of distinct values.
+     */
+    public int distinct() {
+        return distinct;
+    }
+
+    /**
+     * @return the number of times value was added.
+     */
+    public long countOf(final long value) {
+        final int mask = keys.length - 1;
+        for (int i = slot(value); counts[i] != 0; i = (i + 1) & mask)
+            if (keys[i] == value)
+                return counts[i];
+        return 0;
+    }
+
+    @Override
+    public long valueAt(final long rank) {
+        if (rank < 0 || rank >= count)
+            throw new IndexOutOfBoundsException("rank " + rank + " not in 0 to " + (count - 1));
+        final View v = view();
+        int i = Arrays.binarySearch(v.cumulative, rank + 1);
+        if (i < 0)
+            i = -i - 1; // 1st value with cumulative > rank
+        return v.values[i];
+    }
+
+    /**
+     * @return the distinct values, in ascending order.
+     */
+    public long[] values() {
+        return view().values.clone();
+    }
+
+    /**
+     * @return the counts of values(), in the same order.
+     */
+    public long[] counts() {
+        final long[] c = view().cumulative.clone();
+        for (int i = c.length - 1; i > 0; i--)
+            c[i] -= c[i - 1];
+        return c;
+    }
+
+    private View view() {
+        View v = view;
+        if (null == v) {
+            final long[] values = new long[distinct];
+            for (int i = 0, j = 0; i < keys.length; i++)
+                if (counts[i] != 0)
+                    values[j++] = keys[i];
+            Arrays.sort(values);
+            final long[] cumulative = new long[distinct];
+            long sum = 0;
+            for (int i = 0; i < distinct; i++)
+                cumulative[i] = sum += countOf(values[i]);
+            view = v = new View(values, cumulative);
+        }
+        return v;
+    }
+
+    @Override
+    public String toString() {
+        return "LongCounts{count=" + count + ", distinct=" + distinct + '}';
+    }
+
+    /**
+     * Immutable, so safe to publish to share() stubs.
+     */
+    private static final class View {
+        private final long[] values;
+        // cumulative[i] is the number of values up to and including values[i]
+        private final long[] cumulative;
+
+        private View(final long[] values, final long[] cumulative) {
+            this.values = values;
+            this.cumulative = cumulative;
+        }
+    }
+}
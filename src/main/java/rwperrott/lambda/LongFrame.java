@@ -0,0 +1,162 @@
+package rwperrott.lambda;
+
+import java.util.Arrays;
+
+/**
+ * An order-statistic multiset of the long values in a sliding window frame, so a value can be added or removed as the
+ * frame slides, without re-sorting the whole frame.
+ * <p>
+ * Values are held in sorted blocks, of up to 512 values, so add and remove are a binary search plus a short array
+ * copy, and valueAt only scans the block sizes.
+ * <p>
+ * Not Thread-safe.
+ */
+public final class LongFrame implements LongRanks {
+    private static final int MAX_BLOCK = 512;
+    private static final int MIN_BLOCK = MAX_BLOCK / 8;
+
+    private long[][] blocks = new long[4][];
+    private int[] sizes = new int[4];
+    private int blockCount;
+    private long count;
+
+    @Override
+    public long count() {
+        return count;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    public void add(final long value) {
+        if (blockCount == 0)
+            insertBlock(0, new long[MAX_BLOCK]);
+        final int b = blockFor(value);
+        final long[] block = blocks[b];
+        final int size = sizes[b];
+        int i = Arrays.binarySearch(block, 0, size, value);
+        if (i < 0)
+            i = -(i + 1);
+        System.arraycopy(block, i, block, i + 1, size - i);
+        block[i] = value;
+        sizes[b] = size + 1;
+        count++;
+        if (size + 1 == MAX_BLOCK)
+            split(b);
+    }
+
+    /**
+     * Removes one occurrence of value.
+     *
+     * @return true if value was found.
+     */
+    public boolean remove(final long value) {
+        if (blockCount == 0)
+            return false;
+        final int b = blockFor(value);
+        final long[] block = blocks[b];
+        final int size = sizes[b];
+        final int i = Arrays.binarySearch(block, 0, size, value);
+        if (i < 0)
+            return false;
+        System.arraycopy(block, i + 1, block, i, size - i - 1);
+        sizes[b] = size - 1;
+        count--;
+        if (size - 1 == 0)
+            removeBlock(b);
+        else if (size - 1 < MIN_BLOCK)
+            join(b);
+        return true;
+    }
+
+    public void clear() {
+        Arrays.fill(blocks, 0, blockCount, null);
+        blockCount = 0;
+        count = 0;
+    }
+
+    @Override
+    public long valueAt(final long rank) {
+        if (rank < 0 || rank >= count)
+            throw new IndexOutOfBoundsException("rank " + rank + " out of range 0 to " + (count - 1));
+        int r = (int) rank;
+        int b = 0;
+        while (r >= sizes[b])
+            r -= sizes[b++];
+        return blocks[b][r];
+    }
+
+    public long[] toArray() {
+        final long[] a = new long[(int) count];
+        int n = 0;
+        for (int b = 0; b < blockCount; b++) {
+            System.arraycopy(blocks[b], 0, a, n, sizes[b]);
+            n += sizes[b];
+        }
+        return a;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(toArray());
+    }
+
+    /**
+     * @return the first block with a last value >= value, or the last block, so all occurrences of value start there.
+     */
+    private int blockFor(final long value) {
+        int lo = 0, hi = blockCount - 1;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (blocks[mid][sizes[mid] - 1] < value)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private void split(final int b) {
+        final int half = MAX_BLOCK / 2;
+        final long[] upper = new long[MAX_BLOCK];
+        System.arraycopy(blocks[b], half, upper, 0, sizes[b] - half);
+        insertBlock(b + 1, upper);
+        sizes[b + 1] = sizes[b] - half;
+        sizes[b] = half;
+    }
+
+    /**
+     * Joins a small block with a neighbour, if they fit in half a block, so blocks don't fragment as the frame slides.
+     */
+    private void join(final int b) {
+        if (blockCount == 1)
+            return;
+        final int left = b > 0 && (b + 1 == blockCount || sizes[b - 1] <= sizes[b + 1]) ? b - 1 : b;
+        final int right = left + 1;
+        if (sizes[left] + sizes[right] > MAX_BLOCK / 2)
+            return;
+        System.arraycopy(blocks[right], 0, blocks[left], sizes[left], sizes[right]);
+        sizes[left] += sizes[right];
+        removeBlock(right);
+    }
+
+    private void insertBlock(final int b, final long[] block) {
+        if (blockCount == blocks.length) {
+            blocks = Arrays.copyOf(blocks, blockCount * 2);
+            sizes = Arrays.copyOf(sizes, blockCount * 2);
+        }
+        System.arraycopy(blocks, b, blocks, b + 1, blockCount - b);
+        System.arraycopy(sizes, b, sizes, b + 1, blockCount - b);
+        blocks[b] = block;
+        sizes[b] = 0;
+        blockCount++;
+    }
+
+    private void removeBlock(final int b) {
+        blockCount--;
+        System.arraycopy(blocks, b + 1, blocks, b, blockCount - b);
+        System.arraycopy(sizes, b + 1, sizes, b, blockCount - b);
+        blocks[blockCount] = null;
+    }
+}
@@ -0,0 +1,82 @@
+package rwperrott.lambda;
+
+import java.util.Arrays;
+
+/**
+ * An immutable snapshot of a LongRecorder, holding the non-empty log-linear buckets, so one snapshot can be shared by
+ * all the percentile columns e.g. as the R of IdMap.share, with UnaryOperator.identity() as andThenR.
+ * <p>
+ * valueAt() returns the highest value of the bucket at rank, clamped to the recorded min and max, so is within the
+ * relative error of the recorder, and exact for values below 2^precisionBits, and the first and last ranks return the
+ * exact min and max.
+ */
+public final class LongHistogram implements LongRanks {
+    private final int precisionBits;
+    // Ascending indexes of non-empty buckets
+    private final int[] buckets;
+    // Cumulative counts, so cumulative[i] is the number of values in buckets[0..i]
+    private final long[] cumulative;
+    private final long min;
+    private final long max;
+
+    LongHistogram(final int precisionBits, final int[] buckets, final long[] cumulative, final long min,
+                  final long max) {
+        this.precisionBits = precisionBits;
+        this.buckets = buckets;
+        this.cumulative = cumulative;
+        this.min = min;
+        this.max = max;
+    }
+
+    @Override
+    public long count() {
+        return cumulative.length == 0 ? 0 : cumulative[cumulative.length - 1];
+    }
+
+    public boolean isEmpty() {
+        return cumulative.length == 0;
+    }
+
+    public int precisionBits() {
+        return precisionBits;
+    }
+
+    /**
+     * @return the smallest value recorded, or Long.MAX_VALUE if empty.
+     */
+    public long min() {
+        return min;
+    }
+
+    /**
+     * @return the largest value recorded, or Long.MIN_VALUE if empty.
+     */
+    public long max() {
+        return max;
+    }
+
+    @Override
+    public long valueAt(final long rank) {
+        if (rank < 0 || rank >= count())
+            throw new IndexOutOfBoundsException("rank " + rank + " not in 0 to " + (count() - 1));
+        if (rank == 0)
+            return min;
+        int i = Arrays.binarySearch(cumulative, rank + 1);
+        if (i < 0)
+            i = -i - 1; // 1st bucket with cumulative > rank
+        return Math.max(min, Math.min(LongRecorder.highestValue(buckets[i], precisionBits), max));
+    }
+
+    /**
+     * @return the count of values in the same bucket as value.
+     */
+    public long countAt(final long value) {
+        final int i = Arrays.binarySearch(buckets, LongRecorder.bucket(value, precisionBits));
+        return i < 0 ? 0 : cumulative[i] - (i == 0 ? 0 : cumulative[i - 1]);
+    }
+
+    @Override
+    public String toString() {
+        return "LongHistogram{count=" + count() + ", min=" + min + ", max=" + max + ", buckets=" + buckets.length + '}';
+    }
+}
@@ -0,0 +1,81 @@
+package rwperrott.lambda;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.ToLongFunction;
+
+/**
+ * A read-only List, sorted by a long key, which keeps the keys extracted while sorting, so
+ * Finishers.percentileLong(percentile, keyExtractor, function) can read them, via LongRanks, without extracting them
+ * again.
+ * <p>
+ * Created by Finishers.sortListByLong().
+ *
+ * @param <T> element type
+ */
+public final class LongKeyedList<T> extends AbstractList<T> implements RandomAccess, LongRanks {
+    private final Object[] elements;
+    private final long[] keys;
+    private final ToLongFunction<? super T> keyExtractor;
+
+    private LongKeyedList(final Object[] elements, final long[] keys, final ToLongFunction<? super T> keyExtractor) {
+        this.elements = elements;
+        this.keys = keys;
+        this.keyExtractor = keyExtractor;
+    }
+
+    /**
+     * Extracts each key once, then stable sorts an index permutation by key.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> LongKeyedList<T> sort(final List<T> l, final ToLongFunction<? super T> keyExtractor) {
+        final Object[] a = l.toArray();
+        final long[] extracted = new long[a.length];
+        for (int i = 0; i < a.length; i++)
+            extracted[i] = keyExtractor.applyAsLong((T) a[i]);
+        final int[] order = KeySort.order(extracted);
+        final Object[] elements = new Object[a.length];
+        final long[] keys = new long[a.length];
+        for (int i = 0; i < order.length; i++) {
+            elements[i] = a[order[i]];
+            keys[i] = extracted[order[i]];
+        }
+        return new LongKeyedList<>(elements, keys, keyExtractor);
+    }
+
+    /**
+     * @return true if sorted by keyExtractor.
+     */
+    public boolean isKeyedBy(final ToLongFunction<?> keyExtractor) {
+        return this.keyExtractor == keyExtractor;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(final int index) {
+        return (T) elements[index];
+    }
+
+    /**
+     * @return the cached key of the element at index.
+     */
+    public long key(final int index) {
+        return keys[index];
+    }
+
+    @Override
+    public int size() {
+        return elements.length;
+    }
+
+    @Override
+    public long count() {
+        return keys.length;
+    }
+
+    @Override
+    public long valueAt(final long rank) {
+        return keys[(int) rank];
+    }
+}
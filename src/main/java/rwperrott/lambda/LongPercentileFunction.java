@@ -0,0 +1,38 @@
+package rwperrott.lambda;
+
+
+/**
+ * A primitive specialisation of PercentileFunction, to avoid auto-boxing.
+ */
+@FunctionalInterface
+public interface LongPercentileFunction {
+    long applyAsLong(long t0,
+                     long t1,
+                     double indexFraction);
+
+    static LongPercentileFunction floor() {
+        return (t0, t1, f) -> t0;
+    }
+
+    static LongPercentileFunction ceil() {
+        return (t0, t1, f) -> t1;
+    }
+
+    static LongPercentileFunction halfUp() {
+        return (t0, t1, f) -> f < 0.5d ? t0 : t1;
+    }
+
+    /**
+     * Interpolates the difference, then rounds, so large values don't lose precision via double, unless t1 - t0
+     * overflows, then interpolates via double.  Clamped to [t0, t1], because double rounding may overshoot.
+     */
+    static LongPercentileFunction interpolate() {
+        return (t0, t1, f) -> {
+            final long d = t1 - t0;
+            final long v = ((t1 ^ t0) & (t1 ^ d)) < 0 // Overflowed, for a span over Long.MAX_VALUE
+                           ? Math.round(t0 + ((double) t1 - (double) t0) * f)
+                           : t0 + Math.round(d * f);
+            return Math.max(t0, Math.min(v, t1));
+        };
+    }
+}
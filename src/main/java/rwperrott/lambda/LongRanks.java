@@ -0,0 +1,18 @@
+package rwperrott.lambda;
+
+/**
+ * Ascending long values, addressable by rank, so Finishers.percentileLong can resolve percentiles without knowing how
+ * they are stored e.g. a sorted LongArray or a LongCounts.
+ * <p>
+ * count() is a long, because compressed forms can represent more than Integer.MAX_VALUE values.
+ */
+public interface LongRanks {
+    long count();
+
+    /**
+     * @param rank 0 to count() - 1
+     *
+     * @return the value at rank, in ascending order.
+     */
+    long valueAt(long rank);
+}
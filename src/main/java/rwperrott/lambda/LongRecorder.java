@@ -0,0 +1,168 @@
+package rwperrott.lambda;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collector;
+
+/**
+ * A long-lived, Thread-safe recorder of non-negative long values e.g. latencies, into fixed log-linear (HDR style)
+ * buckets, for periodic percentile snapshots, outside of streams.
+ * <p>
+ * Values below 2^precisionBits have their own bucket, and larger values share buckets 2^-(precisionBits - 1) of their
+ * magnitude wide, so the relative error is at most 2^-(precisionBits - 1) e.g. 0.78% for the default 8.
+ * <p>
+ * Recording doesn't allocate or lock; each thread increments a bucket of its stripe, chosen by thread id, so threads
+ * rarely share a stripe, and contention is only an atomic increment, when they do.
+ * <p>
+ * snapshot() sums the stripes into a LongHistogram, which implements LongRanks, so Finishers.percentileLong(s) can use
+ * it, and snapshotCollector() provides it as the R of IdMap.share, so one snapshot serves all the percentile columns.
+ */
+public final class LongRecorder {
+    public static final int DEFAULT_PRECISION_BITS = 8;
+    private static final int MIN_PRECISION_BITS = 2;
+    private static final int MAX_PRECISION_BITS = 16;
+
+    private final int precisionBits;
+    private final int bucketCount;
+    private final Stripe[] stripes;
+    private final int mask;
+
+    public LongRecorder() {
+        this(DEFAULT_PRECISION_BITS, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param precisionBits the number of significant bits, 2 to 16, so the relative error is 2^-(precisionBits - 1).
+     * @param stripes       the minimum number of stripes e.g. the number of CPUs, rounded up to a power of 2.
+     */
+    public LongRecorder(final int precisionBits, final int stripes) {
+        if (precisionBits < MIN_PRECISION_BITS || precisionBits > MAX_PRECISION_BITS)
+            throw new IllegalArgumentException("precisionBits " + precisionBits + " not between "
+                                               + MIN_PRECISION_BITS + " and " + MAX_PRECISION_BITS);
+        if (stripes < 1)
+            throw new IllegalArgumentException("stripes " + stripes + " < 1");
+        this.precisionBits = precisionBits;
+        this.bucketCount = bucket(Long.MAX_VALUE, precisionBits) + 1;
+        final int n = Integer.highestOneBit(stripes) == stripes ? stripes : Integer.highestOneBit(stripes) << 1;
+        this.stripes = new Stripe[n];
+        for (int i = 0; i < n; i++)
+            this.stripes[i] = new Stripe(bucketCount);
+        this.mask = n - 1;
+    }
+
+    /**
+     * @return the bucket index of value.
+     */
+    static int bucket(final long value, final int precisionBits) {
+        final int shift = (Long.SIZE - Long.numberOfLeadingZeros(value)) - precisionBits;
+        if (shift <= 0)
+            return (int) value;
+        return (shift << (precisionBits - 1)) + (int) (value >>> shift);
+    }
+
+    static long lowestValue(final int bucket, final int precisionBits) {
+        if (bucket < 1 << precisionBits)
+            return bucket;
+        final int shift = (bucket >>> (precisionBits - 1)) - 1;
+        return (long) (bucket - (shift << (precisionBits - 1))) << shift;
+    }
+
+    static long highestValue(final int bucket, final int precisionBits) {
+        if (bucket < 1 << precisionBits)
+            return bucket;
+        final int shift = (bucket >>> (precisionBits - 1)) - 1;
+        return lowestValue(bucket, precisionBits) + (1L << shift) - 1;
+    }
+
+    public int precisionBits() {
+        return precisionBits;
+    }
+
+    /**
+     * @param value 0 or more.
+     */
+    public void record(final long value) {
+        if (value < 0)
+            throw new IllegalArgumentException("value " + value + " < 0");
+        stripes[(int) Thread.currentThread().getId() & mask].record(value, bucket(value, precisionBits));
+    }
+
+    /**
+     * @return a snapshot of all the values recorded so far, with concurrent records included, or not.
+     */
+    public LongHistogram snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * Takes a snapshot, and atomically removes each bucket's values taken, so successive calls return the values
+     * recorded in each interval, without losing any concurrent records.
+     */
+    public LongHistogram intervalSnapshot() {
+        return snapshot(true);
+    }
+
+    private LongHistogram snapshot(final boolean reset) {
+        final long[] counts = new long[bucketCount];
+        long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+        int nonEmpty = 0;
+        for (Stripe s : stripes) {
+            // Min and max first, so a concurrent record is less likely to be outside them.
+            min = Math.min(min, reset ? s.min.getAndSet(Long.MAX_VALUE) : s.min.get());
+            max = Math.max(max, reset ? s.max.getAndSet(Long.MIN_VALUE) : s.max.get());
+            for (int i = 0; i < bucketCount; i++) {
+                final long c = reset ? s.counts.getAndSet(i, 0) : s.counts.get(i);
+                if (c != 0 && counts[i] == 0)
+                    nonEmpty++;
+                counts[i] += c;
+            }
+        }
+        final int[] buckets = new int[nonEmpty];
+        final long[] cumulative = new long[nonEmpty];
+        long sum = 0;
+        for (int i = 0, j = 0; i < bucketCount; i++)
+            if (counts[i] != 0) {
+                buckets[j] = i;
+                cumulative[j++] = sum += counts[i];
+            }
+        return new LongHistogram(precisionBits, buckets, cumulative, min, max);
+    }
+
+    /**
+     * Ignores the stream values, and returns a snapshot() from the finisher, so it can be the collectorR of
+     * IdMap.share e.g. over a stream of one value per reporting interval.
+     */
+    public <T> Collector<T, ?, LongHistogram> snapshotCollector() {
+        return Collector.of(() -> this,
+                            (r, t) -> {
+                            },
+                            (a, b) -> a,
+                            LongRecorder::snapshot,
+                            Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * Each stripe has its own counts array and atomics, so threads on different stripes don't write the same cache
+     * lines, except rarely for min and max.
+     */
+    private static final class Stripe {
+        private final AtomicLongArray counts;
+        private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+        private Stripe(final int bucketCount) {
+            this.counts = new AtomicLongArray(bucketCount);
+        }
+
+        private void record(final long value, final int bucket) {
+            counts.getAndIncrement(bucket);
+            long m;
+            while (value < (m = min.get()) && !min.compareAndSet(m, value)) {
+                // retry
+            }
+            while (value > (m = max.get()) && !max.compareAndSet(m, value)) {
+                // retry
+            }
+        }
+    }
+}
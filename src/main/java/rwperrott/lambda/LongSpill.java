@@ -0,0 +1,432 @@
+package rwperrott.lambda;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collector;
+
+/**
+ * A LongArray alternative for groups too large to hold on heap, which buffers up to memoryBudget bytes of values, then
+ * spills each full buffer to a local temp file, as a sorted run.
+ * <p>
+ * sort() does an external k-way merge of the runs into one temp file, which is memory-mapped, so valueAt() seeks a rank
+ * without loading the values onto the heap. Once mapped, the temp files are deleted, so only the mapping remains, until
+ * this is garbage collected.
+ * <p>
+ * Use Finishers.sortLongSpill() as andThenR e.g.
+ * <pre>
+ * SharableCollector.of(LongSpill.collector(mapper), Finishers.sortLongSpill(),
+ *                      Finishers.percentileLong(0.99d, LongPercentileFunction.floor()));
+ * </pre>
+ * A LongSpill returned by collector() is owned by the caller, so close() it when done, which deletes any spilled runs,
+ * if a stream fails before sort(), and drops the mapping, instead of keeping it until this is garbage collected.  When
+ * finished by a SharableCollector or SharingPlan, the spill is closed once all its columns have read it, unless a
+ * column returns it.
+ * <p>
+ * A read-only view, from unmodifiable(), is sorted first, because sort() is the only change a sharer needs, so never
+ * needs a copy.
+ * <p>
+ * Not Thread-safe, and doesn't need to be, because each Collector container is only used by one thread at a time.
+ */
+public final class LongSpill implements LongRanks, Closeable {
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int IO_BUFFER_BYTES = 1 << 16;
+    // Shared by the run readers of a merge, so direct memory doesn't grow with the number of runs.
+    private static final int MERGE_BUFFER_BYTES = 1 << 22;
+    // Mapped in 1GB segments, because a MappedByteBuffer is limited to Integer.MAX_VALUE bytes.
+    private static final int SEGMENT_SHIFT = 27;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final long[] CLOSED = {};
+
+    private final Path dir;
+    private final int maxBuffered;
+    // The spill viewed, if a read-only view, else null.
+    private final LongSpill source;
+    private final List<Path> runs;
+    private long[] buffer;
+    private int buffered;
+    private long count;
+    private boolean sorted = true;
+    private LongBuffer[] segments;
+    // Direct, so allocated once, for writing runs and the merge, because direct memory is only freed by GC.
+    private ByteBuffer ioBuffer;
+
+    public LongSpill() {
+        this(null, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * @param dir          directory for temp files, or null for the default temp-file directory.
+     * @param memoryBudget maximum heap bytes buffered before spilling a run, at least 8.
+     */
+    public LongSpill(final Path dir, final long memoryBudget) {
+        this.dir = dir;
+        this.maxBuffered = maxBuffered(memoryBudget);
+        this.source = null;
+        this.runs = new ArrayList<>();
+        this.buffer = new long[Math.min(INITIAL_CAPACITY, maxBuffered)];
+    }
+
+    /**
+     * A read-only view of a sorted source, which shares its sorted buffer or mapping.
+     */
+    private LongSpill(final LongSpill source) {
+        this.dir = source.dir;
+        this.maxBuffered = source.maxBuffered;
+        this.source = source;
+        this.runs = List.of();
+        this.buffer = source.buffer;
+        this.buffered = source.buffered;
+        this.count = source.count;
+        this.segments = source.segments;
+    }
+
+    static int maxBuffered(final long memoryBudget) {
+        if (memoryBudget < Long.BYTES)
+            throw new IllegalArgumentException("memoryBudget < " + Long.BYTES);
+        return (int) Math.min(memoryBudget / Long.BYTES, Integer.MAX_VALUE - 8);
+    }
+
+    /**
+     * @param mapper extracts a long value from each T, without boxing.
+     * @param <T>    source value type
+     *
+     * @return a Collector accumulating longs into a LongSpill, with the default temp-file directory and memory budget.
+     */
+    public static <T> Collector<T, LongSpill, LongSpill> collector(final ToLongFunction<? super T> mapper) {
+        return collector(mapper, null, DEFAULT_MEMORY_BUDGET);
+    }
+
+    /**
+     * Each partial result, of a parallel stream, has its own memoryBudget.
+     *
+     * @param mapper       extracts a long value from each T, without boxing.
+     * @param dir          directory for temp files, or null for the default temp-file directory.
+     * @param memoryBudget maximum heap bytes buffered before spilling a run, at least 8.
+     * @param <T>          source value type
+     *
+     * @return a Collector accumulating longs into a LongSpill.
+     */
+    public static <T> Collector<T, LongSpill, LongSpill> collector(final ToLongFunction<? super T> mapper,
+                                                                  final Path dir,
+                                                                  final long memoryBudget) {
+        Objects.requireNonNull(mapper, "mapper");
+        maxBuffered(memoryBudget);
+        return Collector.of(() -> new LongSpill(dir, memoryBudget),
+                            (s, t) -> s.add(mapper.applyAsLong(t)),
+                            LongSpill::merge);
+    }
+
+    @Override
+    public long count() {
+        return count;
+    }
+
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * @return the number of runs spilled to temp files, and not yet merged.
+     */
+    public int runs() {
+        return runs.size();
+    }
+
+    public void add(final long value) {
+        checkWritable();
+        if (buffered == buffer.length) {
+            if (buffered == maxBuffered)
+                spill();
+            else
+                buffer = Arrays.copyOf(buffer, (int) Math.min(2L * buffered, maxBuffered));
+        }
+        buffer[buffered++] = value;
+        count++;
+        sorted = false;
+    }
+
+    /**
+     * Takes the runs of other, and adds its buffered values, leaving other empty.
+     *
+     * @return this
+     */
+    public LongSpill merge(final LongSpill other) {
+        checkWritable();
+        other.checkWritable();
+        if (other.count == 0)
+            return this;
+        runs.addAll(other.runs);
+        count += other.count - other.buffered;
+        for (int i = 0; i < other.buffered; i++)
+            add(other.buffer[i]);
+        sorted = false;
+        other.runs.clear();
+        other.buffered = 0;
+        other.count = 0;
+        other.sorted = true;
+        return this;
+    }
+
+    /**
+     * If any runs were spilled, merges them, and the buffer, into one memory-mapped temp file, after which this is
+     * read-only.
+     *
+     * @return this
+     */
+    public LongSpill sort() {
+        if (sorted)
+            return this;
+        if (runs.isEmpty())
+            Arrays.sort(buffer, 0, buffered);
+        else {
+            spill();
+            final Path merged = mergeRuns();
+            try {
+                segments = map(merged, count);
+            } finally {
+                delete(merged);
+            }
+            buffer = null;
+        }
+        sorted = true;
+        return this;
+    }
+
+    @Override
+    public long valueAt(final long rank) {
+        if (!sorted)
+            throw new IllegalStateException("not sorted");
+        if (rank < 0 || rank >= count)
+            throw new IndexOutOfBoundsException("rank " + rank + " out of range 0 to " + (count - 1));
+        return segments == null
+               ? buffer[(int) rank]
+               : segments[(int) (rank >>> SEGMENT_SHIFT)].get((int) (rank & SEGMENT_MASK));
+    }
+
+    /**
+     * @return a read-only view, after sorting this, so sort() of the view does nothing, and add() and merge() throw
+     * IllegalStateException.
+     */
+    public LongSpill unmodifiable() {
+        if (null != source)
+            return this;
+        sort();
+        return new LongSpill(this);
+    }
+
+    /**
+     * Closes the owner of the values, the source if a view, once all readers are finished.
+     */
+    void release() {
+        (null == source ? this : source).close();
+    }
+
+    /**
+     * Deletes any spilled runs, and releases the buffer, after which this is empty and unusable.  Does nothing for a
+     * read-only view, because the source owns the values.
+     */
+    @Override
+    public void close() {
+        if (null != source)
+            return;
+        runs.forEach(LongSpill::delete);
+        runs.clear();
+        buffer = CLOSED;
+        buffered = 0;
+        count = 0;
+        sorted = true;
+        segments = null;
+        ioBuffer = null;
+    }
+
+    @Override
+    public String toString() {
+        return "LongSpill{count=" + count + ", runs=" + runs.size() + ", sorted=" + sorted + '}';
+    }
+
+    private void checkWritable() {
+        if (null != source)
+            throw new IllegalStateException("read-only view");
+        if (buffer == CLOSED)
+            throw new IllegalStateException("closed");
+        if (segments != null)
+            throw new IllegalStateException("read-only, after sort() merged spilled runs");
+    }
+
+    private void spill() {
+        if (buffered == 0)
+            return;
+        Arrays.sort(buffer, 0, buffered);
+        final Path run = createTempFile();
+        try (FileChannel out = FileChannel.open(run, StandardOpenOption.WRITE)) {
+            final ByteBuffer bb = ioBuffer();
+            for (int i = 0; i < buffered; i++) {
+                if (!bb.hasRemaining())
+                    flush(bb, out);
+                bb.putLong(buffer[i]);
+            }
+            flush(bb, out);
+        } catch (IOException e) {
+            delete(run);
+            throw new UncheckedIOException(e);
+        }
+        runs.add(run);
+        buffered = 0;
+    }
+
+    private Path mergeRuns() {
+        final Path merged = createTempFile();
+        final PriorityQueue<RunReader> queue = new PriorityQueue<>(runs.size());
+        final int perRun = readBufferBytes(runs.size());
+        final ByteBuffer readBuffers = ByteBuffer.allocateDirect(perRun * runs.size());
+        try (FileChannel out = FileChannel.open(merged, StandardOpenOption.WRITE)) {
+            for (Path run : runs) {
+                readBuffers.limit(readBuffers.position() + perRun);
+                final RunReader r = new RunReader(run, readBuffers.slice().order(ByteOrder.nativeOrder()));
+                readBuffers.position(readBuffers.limit());
+                if (r.next())
+                    queue.add(r);
+                else
+                    r.close();
+            }
+            final ByteBuffer bb = ioBuffer();
+            RunReader r;
+            while ((r = queue.poll()) != null) {
+                if (!bb.hasRemaining())
+                    flush(bb, out);
+                bb.putLong(r.head);
+                if (r.next())
+                    queue.add(r);
+                else
+                    r.close();
+            }
+            flush(bb, out);
+        } catch (IOException e) {
+            delete(merged);
+            throw new UncheckedIOException(e);
+        } finally {
+            for (RunReader r : queue)
+                r.close();
+            runs.forEach(LongSpill::delete);
+            runs.clear();
+        }
+        return merged;
+    }
+
+    private static LongBuffer[] map(final Path file, final long count) {
+        final long segmentSize = 1L << SEGMENT_SHIFT;
+        final LongBuffer[] segments = new LongBuffer[(int) ((count + segmentSize - 1) >>> SEGMENT_SHIFT)];
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            for (int i = 0; i < segments.length; i++) {
+                final long start = (long) i << SEGMENT_SHIFT;
+                final long size = Math.min(segmentSize, count - start);
+                segments[i] = in.map(FileChannel.MapMode.READ_ONLY, start * Long.BYTES, size * Long.BYTES)
+                                .order(ByteOrder.nativeOrder())
+                                .asLongBuffer();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return segments;
+    }
+
+    private Path createTempFile() {
+        try {
+            return dir == null
+                   ? Files.createTempFile("spill", ".run")
+                   : Files.createTempFile(dir, "spill", ".run");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private ByteBuffer ioBuffer() {
+        if (null == ioBuffer)
+            ioBuffer = ByteBuffer.allocateDirect(IO_BUFFER_BYTES).order(ByteOrder.nativeOrder());
+        ioBuffer.clear();
+        return ioBuffer;
+    }
+
+    /**
+     * @return whole longs per run, up to IO_BUFFER_BYTES, sharing MERGE_BUFFER_BYTES, but at least one long.
+     */
+    static int readBufferBytes(final int runs) {
+        final int bytes = Math.min(IO_BUFFER_BYTES, MERGE_BUFFER_BYTES / runs) & -Long.BYTES;
+        return Math.max(Long.BYTES, bytes);
+    }
+
+    private static void flush(final ByteBuffer bb, final FileChannel out) throws IOException {
+        bb.flip();
+        while (bb.hasRemaining())
+            out.write(bb);
+        bb.clear();
+    }
+
+    /**
+     * Falls back to deleteOnExit, if the file can't be deleted yet e.g. while mapped on Windows.
+     */
+    private static void delete(final Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            file.toFile().deleteOnExit();
+        }
+    }
+
+    /**
+     * Streams a sorted run, via its slice of the merge's direct buffer, holding its next value as head.
+     */
+    private static final class RunReader implements Comparable<RunReader> {
+        private final FileChannel in;
+        private final ByteBuffer bb;
+        private long head;
+
+        private RunReader(final Path run, final ByteBuffer bb) throws IOException {
+            this.in = FileChannel.open(run, StandardOpenOption.READ);
+            this.bb = bb;
+            bb.limit(0);
+        }
+
+        private boolean next() throws IOException {
+            if (!bb.hasRemaining()) {
+                bb.clear();
+                while (bb.hasRemaining() && in.read(bb) >= 0) {
+                    // Fill, so only whole longs are read.
+                }
+                bb.flip();
+                if (!bb.hasRemaining())
+                    return false;
+            }
+            head = bb.getLong();
+            return true;
+        }
+
+        private void close() {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // Read-only, so nothing lost.
+            }
+        }
+
+        @Override
+        public int compareTo(final RunReader o) {
+            return Long.compare(head, o.head);
+        }
+    }
+}
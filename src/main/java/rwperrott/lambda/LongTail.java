@@ -0,0 +1,236 @@
+package rwperrott.lambda;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collector;
+
+import static java.lang.String.format;
+
+/**
+ * An exact tail of the k largest, or k smallest, long values added, held in a bounded heap, so memory is O(k) instead
+ * of O(n), for columns which only need extreme percentiles e.g. p99 and p99.9.
+ * <p>
+ * count() is the number of values added, and valueAt() only accepts the ranks of the retained tail, so
+ * Finishers.percentileLong(s) is exact, if k is at least largestK() or smallestK(), for the percentiles and count,
+ * which must be known up front e.g. via a count pre-pass or a known size.
+ * <p>
+ * Use UnaryOperator.identity() as andThenR, and Finishers.percentileLong(double, LongPercentileFunction) as andThenRR.
+ * <p>
+ * Not Thread-safe, and doesn't need to be, because each Collector container is only used by one thread at a time.
+ */
+public final class LongTail implements LongRanks {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int k;
+    private final boolean largest;
+    // A heap, with the value to evict at the root e.g. the smallest retained, when largest.
+    private long[] heap;
+    private int size;
+    private long count;
+    // Lazily built ascending retained values, cleared by any change.
+    private long[] sorted;
+
+    /**
+     * @param k       the maximum number of values retained.
+     * @param largest if true, retains the k largest values, else the k smallest values.
+     */
+    public LongTail(final int k, final boolean largest) {
+        if (k < 1)
+            throw new IllegalArgumentException("k " + k + " < 1");
+        this.k = k;
+        this.largest = largest;
+        this.heap = new long[Math.min(k, INITIAL_CAPACITY)];
+    }
+
+    /**
+     * @param count       the number of values, which will be added.
+     * @param percentiles each 0 to 1.0
+     *
+     * @return the smallest k, for a largest tail, which returns exact results for all the percentiles.
+     */
+    public static int largestK(final long count, final double... percentiles) {
+        return toK(count - Finishers.tailRank(count, percentiles, false));
+    }
+
+    /**
+     * @param count       the number of values, which will be added.
+     * @param percentiles each 0 to 1.0
+     *
+     * @return the smallest k, for a smallest tail, which returns exact results for all the percentiles.
+     */
+    public static int smallestK(final long count, final double... percentiles) {
+        return toK(Finishers.tailRank(count, percentiles, true) + 1);
+    }
+
+    static int toK(final long k) {
+        if (k > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException(format("k %d too large, so use a full sort", k));
+        return (int) k;
+    }
+
+    /**
+     * @param mapper extracts a long value from each T, without boxing.
+     * @param k      see largestK().
+     * @param <T>    source value type
+     *
+     * @return a Collector accumulating the k largest longs into a LongTail, with a merging combiner.
+     */
+    public static <T> Collector<T, LongTail, LongTail> largest(final ToLongFunction<? super T> mapper, final int k) {
+        return collector(mapper, k, true);
+    }
+
+    /**
+     * @param mapper extracts a long value from each T, without boxing.
+     * @param k      see smallestK().
+     * @param <T>    source value type
+     *
+     * @return a Collector accumulating the k smallest longs into a LongTail, with a merging combiner.
+     */
+    public static <T> Collector<T, LongTail, LongTail> smallest(final ToLongFunction<? super T> mapper, final int k) {
+        return collector(mapper, k, false);
+    }
+
+    private static <T> Collector<T, LongTail, LongTail> collector(final ToLongFunction<? super T> mapper,
+                                                                  final int k,
+                                                                  final boolean largest) {
+        Objects.requireNonNull(mapper, "mapper");
+        if (k < 1)
+            throw new IllegalArgumentException("k " + k + " < 1");
+        return Collector.of(() -> new LongTail(k, largest),
+                            (t, v) -> t.add(mapper.applyAsLong(v)),
+                            LongTail::merge,
+                            Collector.Characteristics.UNORDERED);
+    }
+
+    public int k() {
+        return k;
+    }
+
+    public boolean isLargest() {
+        return largest;
+    }
+
+    /**
+     * @return the number of values retained, which is at most k.
+     */
+    public int retained() {
+        return size;
+    }
+
+    public void add(final long value) {
+        count++;
+        offer(value);
+    }
+
+    private void offer(final long value) {
+        if (size < k) {
+            if (size == heap.length)
+                heap = Arrays.copyOf(heap, (int) Math.min(k, 2L * size));
+            siftUp(size++, value);
+            sorted = null;
+        } else if (evictsBefore(heap[0], value)) {
+            siftDown(value);
+            sorted = null;
+        }
+    }
+
+    /**
+     * @return true if a is evicted before b.
+     */
+    private boolean evictsBefore(final long a, final long b) {
+        return largest ? a < b : a > b;
+    }
+
+    private void siftUp(int i, final long value) {
+        final long[] h = heap;
+        while (i > 0) {
+            final int parent = (i - 1) >>> 1;
+            if (!evictsBefore(value, h[parent]))
+                break;
+            h[i] = h[parent];
+            i = parent;
+        }
+        h[i] = value;
+    }
+
+    private void siftDown(final long value) {
+        final long[] h = heap;
+        final int half = size >>> 1;
+        int i = 0;
+        while (i < half) {
+            int child = 2 * i + 1;
+            if (child + 1 < size && evictsBefore(h[child + 1], h[child]))
+                child++;
+            if (!evictsBefore(h[child], value))
+                break;
+            h[i] = h[child];
+            i = child;
+        }
+        h[i] = value;
+    }
+
+    /**
+     * Offers the retained values of other, and adds its count, so the result is exact, for the combined count.
+     *
+     * @return this
+     */
+    public LongTail merge(final LongTail other) {
+        if (other.k != k || other.largest != largest)
+            throw new IllegalArgumentException(format("k %d and largest %b not %d and %b",
+                                                      other.k, other.largest, k, largest));
+        count += other.count;
+        for (int i = 0; i < other.size; i++)
+            offer(other.heap[i]);
+        return this;
+    }
+
+    @Override
+    public long count() {
+        return count;
+    }
+
+    /**
+     * @return the rank of the first retained value.
+     */
+    public long firstRank() {
+        return largest ? count - size : 0;
+    }
+
+    /**
+     * @param rank firstRank() to firstRank() + retained() - 1
+     *
+     * @throws IllegalArgumentException if rank is outside the retained tail, because k was too small.
+     */
+    @Override
+    public long valueAt(final long rank) {
+        final long i = rank - firstRank();
+        if (i < 0 || i >= size)
+            throw new IllegalArgumentException(format("rank %d not in retained tail %d to %d, of %d",
+                                                      rank, firstRank(), firstRank() + size - 1, count));
+        return sorted()[(int) i];
+    }
+
+    private long[] sorted() {
+        long[] s = sorted;
+        if (null == s) {
+            s = Arrays.copyOf(heap, size);
+            Arrays.sort(s);
+            sorted = s;
+        }
+        return s;
+    }
+
+    /**
+     * @return the retained values, in ascending order.
+     */
+    public long[] toArray() {
+        return sorted().clone();
+    }
+
+    @Override
+    public String toString() {
+        return "LongTail{k=" + k + ", largest=" + largest + ", count=" + count + ", retained="
+               + Arrays.toString(sorted()) + '}';
+    }
+}
@@ -0,0 +1,442 @@
+package rwperrott.lambda;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.function.BinaryOperator;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+import static java.lang.String.format;
+
+/**
+ * A compact binary format for partial accumulators i.e. unfinished Collector containers, so an aggregation can be
+ * split across processes e.g. each worker writes its partial to a file or pipe, then one process reads and merges them,
+ * via the collector combiner, before the shared finishers run, instead of every worker sending raw rows e.g.
+ * <pre>
+ * // Worker
+ * Partials.write(Partials.accumulate(rows, plan.collector()), Path.of("part-1.bin"));
+ * // Merger, with the same plan
+ * Object[] r = Partials.finish(plan.collector(), List.of((Object[]) Partials.read(p1), (Object[]) Partials.read(p2)));
+ * </pre>
+ * Supported containers: DoubleArray and LongArray, including whether they are sorted runs e.g. from
+ * sortedRunsCollector, DoubleSketch, and Object[] of supported containers, which is the SharingPlan.collector()
+ * container, so a plan of primitive and sketch stages can be shipped whole.  Others e.g. a List of rows, throw
+ * IllegalArgumentException, because they would need a row format.
+ * <p>
+ * Each partial is a frame of a 16 byte header, of magic, version, type, flags and payload length, then the payload,
+ * all little-endian, so values are bulk copied, without per value encoding, and several frames can share a channel.
+ * read(Path) memory-maps the file, so the values are only copied once, into the container arrays.
+ */
+public final class Partials {
+    private static final int MAGIC = 0x50434353; // "SCCP", little-endian
+    private static final byte VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int IO_BUFFER_BYTES = 1 << 16;
+    // Types
+    private static final byte DOUBLES = 1;
+    private static final byte LONGS = 2;
+    private static final byte DOUBLE_SKETCH = 3;
+    private static final byte CONTAINERS = 4;
+    // Flags
+    private static final byte SORTED = 1;
+
+    private Partials() {
+    }
+
+    /**
+     * The worker side, collecting without finishing, via Batches, so the partial can be written.
+     *
+     * @return the container, from the collector supplier, after accumulating stream.
+     */
+    public static <T, A> A accumulate(final Stream<T> stream, final Collector<? super T, A, ?> collector) {
+        final A a = collector.supplier().get();
+        try (stream) {
+            Batches.accumulate(stream.sequential().spliterator(), collector, a, Batches.DEFAULT_BATCH_SIZE);
+        }
+        return a;
+    }
+
+    /**
+     * The merge entry point, combining the partials, in order, via the collector combiner, then finishing, so the
+     * shared finishers e.g. sorts, run once, on the merged container.
+     *
+     * @param partials at least one, from accumulate() or read(), for the same collector, or plan.
+     */
+    public static <A, R> R finish(final Collector<?, A, R> collector, final Iterable<? extends A> partials) {
+        return collector.finisher().apply(merge(collector, partials));
+    }
+
+    /**
+     * @return the partials, combined in order, via the collector combiner, without finishing.
+     */
+    public static <A> A merge(final Collector<?, A, ?> collector, final Iterable<? extends A> partials) {
+        final Iterator<? extends A> it = partials.iterator();
+        if (!it.hasNext())
+            throw new IllegalArgumentException("No partials");
+        final BinaryOperator<A> combiner = collector.combiner();
+        A a = it.next();
+        while (it.hasNext())
+            a = combiner.apply(a, it.next());
+        return a;
+    }
+
+    /**
+     * @return the frame size of partial, in bytes, for sizing a ByteBuffer.
+     *
+     * @throws IllegalArgumentException if partial is not a supported container.
+     */
+    public static long size(final Object partial) {
+        return HEADER_BYTES + payloadSize(partial);
+    }
+
+    private static long payloadSize(final Object partial) {
+        if (partial instanceof DoubleArray)
+            return Long.BYTES + (long) Double.BYTES * ((DoubleArray) partial).size();
+        if (partial instanceof LongArray)
+            return Long.BYTES + (long) Long.BYTES * ((LongArray) partial).size();
+        if (partial instanceof DoubleSketch) {
+            final DoubleSketch s = (DoubleSketch) partial;
+            long n = 2 * Integer.BYTES + Long.BYTES + 2 * Double.BYTES;
+            for (int h = 0; h < s.levels(); h++)
+                n += Integer.BYTES + (long) Double.BYTES * s.levelSize(h);
+            return n;
+        }
+        if (partial instanceof Object[]) {
+            long n = Integer.BYTES;
+            for (Object o : (Object[]) partial)
+                n += size(o);
+            return n;
+        }
+        throw new IllegalArgumentException(format("%s not a supported partial",
+                                                  null == partial ? null : partial.getClass().getName()));
+    }
+
+    /**
+     * Writes a frame of partial, at the buffer position.
+     *
+     * @throws BufferOverflowException if buffer has less than size(partial) remaining.
+     */
+    public static void write(final Object partial, final ByteBuffer buffer) {
+        final long size = size(partial);
+        if (size > buffer.remaining())
+            throw new BufferOverflowException();
+        final ByteBuffer bb = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            write(partial, new Output(bb, null), size);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown without a channel
+        }
+        buffer.position(buffer.position() + bb.position());
+    }
+
+    /**
+     * Writes a frame of partial, via a direct buffer, so a pipe or socket can carry several frames.
+     */
+    public static void write(final Object partial, final WritableByteChannel out) throws IOException {
+        final long size = size(partial);
+        final Output o = new Output(ByteBuffer.allocateDirect(IO_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN), out);
+        write(partial, o, size);
+        o.flush();
+    }
+
+    /**
+     * Creates, or truncates, file, then writes a frame of partial.
+     */
+    public static void write(final Object partial, final Path file) {
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(partial, out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void write(final Object partial, final Output o, final long size) throws IOException {
+        final byte type, flags;
+        if (partial instanceof DoubleArray) {
+            type = DOUBLES;
+            flags = ((DoubleArray) partial).isSorted() ? SORTED : 0;
+        } else if (partial instanceof LongArray) {
+            type = LONGS;
+            flags = ((LongArray) partial).isSorted() ? SORTED : 0;
+        } else if (partial instanceof DoubleSketch) {
+            type = DOUBLE_SKETCH;
+            flags = 0;
+        } else {
+            type = CONTAINERS;
+            flags = 0;
+        }
+        final ByteBuffer bb = o.room(HEADER_BYTES);
+        bb.putInt(MAGIC).put(VERSION).put(type).put(flags).put((byte) 0).putLong(size - HEADER_BYTES);
+        switch (type) {
+            case DOUBLES: {
+                final DoubleArray a = (DoubleArray) partial;
+                o.room(Long.BYTES).putLong(a.size());
+                o.putDoubles(a.array(), a.size());
+                break;
+            }
+            case LONGS: {
+                final LongArray a = (LongArray) partial;
+                o.room(Long.BYTES).putLong(a.size());
+                o.putLongs(a.array(), a.size());
+                break;
+            }
+            case DOUBLE_SKETCH: {
+                final DoubleSketch s = (DoubleSketch) partial;
+                o.room(2 * Integer.BYTES + Long.BYTES + 2 * Double.BYTES)
+                 .putInt(s.k()).putInt(s.levels()).putLong(s.count()).putDouble(s.min()).putDouble(s.max());
+                for (int h = 0; h < s.levels(); h++) {
+                    o.room(Integer.BYTES).putInt(s.levelSize(h));
+                    o.putDoubles(s.level(h), s.levelSize(h));
+                }
+                break;
+            }
+            default: {
+                final Object[] a = (Object[]) partial;
+                o.room(Integer.BYTES).putInt(a.length);
+                for (Object e : a)
+                    write(e, o, size(e));
+            }
+        }
+    }
+
+    /**
+     * Reads a frame, from the buffer position, which is left after the frame.
+     *
+     * @throws IllegalArgumentException if not a valid frame.
+     * @throws BufferUnderflowException if the frame is truncated.
+     */
+    public static Object read(final ByteBuffer buffer) {
+        try {
+            return read(new Input(buffer.slice().order(ByteOrder.LITTLE_ENDIAN), null), buffer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Not thrown without a channel
+        }
+    }
+
+    /**
+     * Reads one frame, via a direct buffer, without reading past it, so frames can be read one at a time e.g. from a
+     * pipe.
+     *
+     * @throws EOFException if the channel ends before the frame.
+     */
+    public static Object read(final ReadableByteChannel in) throws IOException {
+        return read(new Input(ByteBuffer.allocateDirect(IO_BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN).limit(0),
+                              in), null);
+    }
+
+    /**
+     * Memory-maps file, then reads the frame at the start of it.
+     */
+    public static Object read(final Path file) {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = in.size();
+            if (size > Integer.MAX_VALUE)
+                // Too large to map as one buffer, so stream it.
+                return read((ReadableByteChannel) in);
+            return read(in.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static Object read(final Input i, final ByteBuffer advance) throws IOException {
+        final Object partial = readFrame(i);
+        if (null != advance)
+            advance.position(advance.position() + i.bb.position());
+        return partial;
+    }
+
+    private static Object readFrame(final Input i) throws IOException {
+        ByteBuffer bb = i.need(HEADER_BYTES);
+        final int magic = bb.getInt();
+        if (magic != MAGIC)
+            throw new IllegalArgumentException(format("magic %08x not %08x", magic, MAGIC));
+        final byte version = bb.get();
+        if (version != VERSION)
+            throw new IllegalArgumentException(format("version %d not %d", version, VERSION));
+        final byte type = bb.get();
+        final boolean sorted = (bb.get() & SORTED) != 0;
+        bb.get();
+        final long payload = bb.getLong();
+        if (payload < 0)
+            throw new IllegalArgumentException("payload length " + payload + " < 0");
+        switch (type) {
+            case DOUBLES: {
+                final int n = length(i.need(Long.BYTES).getLong());
+                return DoubleArray.wrap(i.getDoubles(new double[n]), n, sorted);
+            }
+            case LONGS: {
+                final int n = length(i.need(Long.BYTES).getLong());
+                return LongArray.wrap(i.getLongs(new long[n]), n, sorted);
+            }
+            case DOUBLE_SKETCH: {
+                bb = i.need(2 * Integer.BYTES + Long.BYTES + 2 * Double.BYTES);
+                final int k = bb.getInt();
+                final int levels = bb.getInt();
+                final long count = bb.getLong();
+                final double min = bb.getDouble();
+                final double max = bb.getDouble();
+                if (levels < 1 || levels > Long.SIZE)
+                    throw new IllegalArgumentException("levels " + levels + " not between 1 and " + Long.SIZE);
+                final double[][] items = new double[levels][];
+                final int[] sizes = new int[levels];
+                for (int h = 0; h < levels; h++) {
+                    sizes[h] = length(i.need(Integer.BYTES).getInt());
+                    items[h] = i.getDoubles(new double[sizes[h]]);
+                }
+                return DoubleSketch.restore(k, count, min, max, items, sizes);
+            }
+            case CONTAINERS: {
+                final Object[] a = new Object[length(i.need(Integer.BYTES).getInt())];
+                for (int j = 0; j < a.length; j++)
+                    a[j] = readFrame(i);
+                return a;
+            }
+            default:
+                throw new IllegalArgumentException("type " + type + " not supported");
+        }
+    }
+
+    private static int length(final long n) {
+        if (n < 0 || n > Integer.MAX_VALUE - 8)
+            throw new IllegalArgumentException("length " + n + " not between 0 and " + (Integer.MAX_VALUE - 8));
+        return (int) n;
+    }
+
+    /**
+     * A buffer, or a buffer flushed to a channel.
+     */
+    private static final class Output {
+        private final ByteBuffer bb;
+        private final WritableByteChannel out;
+
+        private Output(final ByteBuffer bb, final WritableByteChannel out) {
+            this.bb = bb;
+            this.out = out;
+        }
+
+        /**
+         * @return the buffer, with at least bytes remaining, which must be at most IO_BUFFER_BYTES.
+         */
+        private ByteBuffer room(final int bytes) throws IOException {
+            if (bb.remaining() < bytes) {
+                if (null == out)
+                    throw new BufferOverflowException();
+                flush();
+            }
+            return bb;
+        }
+
+        private void flush() throws IOException {
+            if (null == out)
+                return;
+            bb.flip();
+            while (bb.hasRemaining())
+                out.write(bb);
+            bb.clear();
+        }
+
+        private void putDoubles(final double[] a, final int size) throws IOException {
+            for (int from = 0; from < size; ) {
+                final ByteBuffer b = room(Double.BYTES);
+                final int n = Math.min(size - from, b.remaining() / Double.BYTES);
+                b.asDoubleBuffer().put(a, from, n);
+                b.position(b.position() + n * Double.BYTES);
+                from += n;
+            }
+        }
+
+        private void putLongs(final long[] a, final int size) throws IOException {
+            for (int from = 0; from < size; ) {
+                final ByteBuffer b = room(Long.BYTES);
+                final int n = Math.min(size - from, b.remaining() / Long.BYTES);
+                b.asLongBuffer().put(a, from, n);
+                b.position(b.position() + n * Long.BYTES);
+                from += n;
+            }
+        }
+    }
+
+    /**
+     * A buffer, or a buffer filled from a channel, which only reads what is needed, so never past the frame.
+     */
+    private static final class Input {
+        private final ByteBuffer bb;
+        private final ReadableByteChannel in;
+
+        private Input(final ByteBuffer bb, final ReadableByteChannel in) {
+            this.bb = bb;
+            this.in = in;
+        }
+
+        /**
+         * @return the buffer, with at least bytes remaining, which must be at most IO_BUFFER_BYTES.
+         */
+        private ByteBuffer need(final int bytes) throws IOException {
+            if (bb.remaining() < bytes) {
+                if (null == in)
+                    throw new BufferUnderflowException();
+                bb.compact();
+                bb.limit(bytes);
+                while (bb.position() < bytes)
+                    if (in.read(bb) < 0)
+                        throw new EOFException("truncated partial");
+                bb.flip();
+            }
+            return bb;
+        }
+
+        /**
+         * @return the buffer, with at least one value remaining, filled with up to valuesLeft whole values, from a
+         * channel, so never past the frame.
+         */
+        private ByteBuffer chunk(final int valuesLeft, final int bytes) throws IOException {
+            if (null == in || bb.remaining() >= bytes)
+                return need(bytes);
+            final int fill = (int) Math.min((long) valuesLeft * bytes, bb.capacity() - bb.capacity() % bytes);
+            bb.compact();
+            bb.limit(fill);
+            while (bb.hasRemaining())
+                if (in.read(bb) < 0)
+                    throw new EOFException("truncated partial");
+            bb.flip();
+            return bb;
+        }
+
+        private double[] getDoubles(final double[] a) throws IOException {
+            final int size = a.length;
+            for (int from = 0; from < size; ) {
+                final ByteBuffer b = chunk(size - from, Double.BYTES);
+                final int n = Math.min(size - from, b.remaining() / Double.BYTES);
+                b.asDoubleBuffer().get(a, from, n);
+                b.position(b.position() + n * Double.BYTES);
+                from += n;
+            }
+            return a;
+        }
+
+        private long[] getLongs(final long[] a) throws IOException {
+            final int size = a.length;
+            for (int from = 0; from < size; ) {
+                final ByteBuffer b = chunk(size - from, Long.BYTES);
+                final int n = Math.min(size - from, b.remaining() / Long.BYTES);
+                b.asLongBuffer().get(a, from, n);
+                b.position(b.position() + n * Long.BYTES);
+                from += n;
+            }
+            return a;
+        }
+    }
+}
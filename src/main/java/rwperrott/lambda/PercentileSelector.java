@@ -0,0 +1,232 @@
+package rwperrott.lambda;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.UnaryOperator;
+
+/**
+ * An andThenR alternative to Finishers.sortList(), which plans the ranks for all the percentiles requested via the
+ * percentile methods, then uses multi-quickselect to only put those ranks in place, rather than fully sorting.
+ * <p>
+ * Use the same instance as andThenR for all sharers of a SharableCollector, and build their percentile finishers
+ * via it, so all the ranks are known when the shared result is finished e.g.
+ * <pre>
+ * var sel = Finishers.selectDoubles();
+ * idMap.shareDoubles("A", mapper, sel, sel.percentile(0.5d, DoublePercentileFunction.interpolate()));
+ * idMap.shareDoubles("A", mapper, sel, sel.percentile(0.99d, DoublePercentileFunction.interpolate()));
+ * </pre>
+ * Unlike Finishers.sortList(), each instance holds state, so must not be shared by unrelated collectors.
+ * <p>
+ * Not Thread-safe for percentile calls, which should all happen before collecting.
+ *
+ * @param <R> intermediate result type
+ */
+public abstract class PercentileSelector<R> implements UnaryOperator<R> {
+    private static final double[] NONE = {};
+
+    private double[] percentiles = NONE;
+
+    private PercentileSelector() {
+    }
+
+    /**
+     * Records a percentile, so its ranks will be selected.
+     */
+    final void plan(final double percentile) {
+        if (Double.isNaN(percentile))
+            throw new IllegalArgumentException("percentile NaN");
+        final int i = Arrays.binarySearch(percentiles, percentile);
+        if (i >= 0)
+            return;
+        final int insertion = -(i + 1);
+        final double[] a = new double[percentiles.length + 1];
+        System.arraycopy(percentiles, 0, a, 0, insertion);
+        a[insertion] = percentile;
+        System.arraycopy(percentiles, insertion, a, insertion + 1, percentiles.length - insertion);
+        percentiles = a;
+    }
+
+    /**
+     * Mirrors the index calculation of Finishers.percentile, so both the before and after values are in place.
+     *
+     * @return ascending, distinct ranks for size.
+     */
+    final int[] ranks(final int size) {
+        final int[] ranks = new int[percentiles.length * 2];
+        int n = 0;
+        for (double p : percentiles) {
+            if (p <= 0d)
+                ranks[n++] = 0;
+            else if (p >= 1d)
+                ranks[n++] = size - 1;
+            else {
+                final int index = (int) Finishers.percentileIndex(size, p);
+                if (index >= size)
+                    ranks[n++] = size - 1;
+                else {
+                    ranks[n++] = index;
+                    if (index + 1 < size)
+                        ranks[n++] = index + 1;
+                }
+            }
+        }
+        Arrays.sort(ranks, 0, n);
+        int distinct = 0;
+        for (int i = 0; i < n; i++)
+            if (distinct == 0 || ranks[distinct - 1] != ranks[i])
+                ranks[distinct++] = ranks[i];
+        return Arrays.copyOf(ranks, distinct);
+    }
+
+    abstract int size(R r);
+
+    abstract R select(R r, int[] ranks);
+
+    @Override
+    public final R apply(final R r) {
+        final int size = size(r);
+        // Only select if 2 or more items.
+        return size > 1 && percentiles.length > 0
+               ? select(r, ranks(size))
+               : r;
+    }
+
+    public static final class OfList<T> extends PercentileSelector<List<T>> {
+        private final Comparator<? super T> comp;
+
+        OfList(final Comparator<? super T> comp) {
+            this.comp = Objects.requireNonNull(comp, "comp");
+        }
+
+        /**
+         * @param percentile         0 to 1.0
+         * @param percentileFunction function to resolve indexFraction
+         *
+         * @return the result of Finishers.percentile, after planning its ranks.
+         */
+        public Function<List<T>, Optional<T>> percentile(final double percentile,
+                                                         final PercentileFunction<T> percentileFunction) {
+            plan(percentile);
+            return Finishers.percentile(percentile, percentileFunction);
+        }
+
+        /**
+         * @param percentiles        each 0 to 1.0
+         * @param percentileFunction function to resolve indexFraction
+         *
+         * @return the result of Finishers.percentiles, after planning all their ranks.
+         */
+        public Function<List<T>, List<T>> percentiles(final double[] percentiles,
+                                                      final PercentileFunction<T> percentileFunction) {
+            for (double p : percentiles)
+                plan(p);
+            return Finishers.percentiles(percentiles, percentileFunction);
+        }
+
+        @Override
+        int size(final List<T> l) {
+            return l.size();
+        }
+
+        /**
+         * Like List.sort, selects in an array, then writes back, unless unmodifiable, when the array is wrapped.
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        List<T> select(final List<T> l, final int[] ranks) {
+            final Object[] a = l.toArray();
+            QuickSelect.select(a, 0, a.length, ranks, comp);
+            try { // Test if modifiable
+                l.set(0, l.get(0));
+            } catch (Exception e) { // Unmodifiable, so use array.
+                return (List<T>) Arrays.asList(a);
+            }
+            final ListIterator<T> i = l.listIterator();
+            for (Object e : a) {
+                i.next();
+                i.set((T) e);
+            }
+            return l;
+        }
+    }
+
+    public static final class OfDoubles extends PercentileSelector<DoubleArray> {
+        OfDoubles() {
+        }
+
+        /**
+         * @param percentile         0 to 1.0
+         * @param percentileFunction function to resolve indexFraction
+         *
+         * @return the result of Finishers.percentileDouble, after planning its ranks.
+         */
+        public Function<DoubleArray, OptionalDouble> percentile(final double percentile,
+                                                                final DoublePercentileFunction percentileFunction) {
+            plan(percentile);
+            return Finishers.percentileDouble(percentile, percentileFunction);
+        }
+
+        /**
+         * @param percentiles        each 0 to 1.0
+         * @param percentileFunction function to resolve indexFraction
+         *
+         * @return the result of Finishers.percentilesDouble, after planning all their ranks.
+         */
+        public Function<DoubleArray, double[]> percentiles(final double[] percentiles,
+                                                           final DoublePercentileFunction percentileFunction) {
+            for (double p : percentiles)
+                plan(p);
+            return Finishers.percentilesDouble(percentiles, percentileFunction);
+        }
+
+        @Override
+        int size(final DoubleArray a) {
+            return a.size();
+        }
+
+        @Override
+        DoubleArray select(final DoubleArray a, final int[] ranks) {
+            return a.select(ranks);
+        }
+    }
+
+    public static final class OfLongs extends PercentileSelector<LongArray> {
+        OfLongs() {
+        }
+
+        /**
+         * @param percentile         0 to 1.0
+         * @param percentileFunction function to resolve indexFraction
+         *
+         * @return the result of Finishers.percentileLong, after planning its ranks.
+         */
+        public Function<LongArray, OptionalLong> percentile(final double percentile,
+                                                            final LongPercentileFunction percentileFunction) {
+            plan(percentile);
+            return Finishers.percentileLong(percentile, percentileFunction);
+        }
+
+        /**
+         * @param percentiles        each 0 to 1.0
+         * @param percentileFunction function to resolve indexFraction
+         *
+         * @return the result of Finishers.percentilesLong, after planning all their ranks.
+         */
+        public Function<LongArray, long[]> percentiles(final double[] percentiles,
+                                                       final LongPercentileFunction percentileFunction) {
+            for (double p : percentiles)
+                plan(p);
+            return Finishers.percentilesLong(percentiles, percentileFunction);
+        }
+
+        @Override
+        int size(final LongArray a) {
+            return a.size();
+        }
+
+        @Override
+        LongArray select(final LongArray a, final int[] ranks) {
+            return a.select(ranks);
+        }
+    }
+}
@@ -0,0 +1,347 @@
+package rwperrott.lambda;
+
+import java.util.Comparator;
+
+/**
+ * Multi-quickselect (nth_element style) for several ranks at once, used by PercentileSelector.
+ * <p>
+ * After select, each requested rank holds the value it would hold if fully sorted; other positions are only
+ * partitioned around them.  Expected O(n) for a small number of ranks, rather than O(n log n) for a full sort.
+ * <p>
+ * 3-way partitioning is used, so many duplicate values don't degrade it, and the pivot is the median of 3, or the
+ * ninther (median of 3 medians of 3) for large ranges.  Like introsort, after 2 * log2(n) partitions, the remaining
+ * range is heap sorted, so crafted or unlucky inputs are O(n log n), instead of O(n^2).
+ */
+final class QuickSelect {
+    private QuickSelect() {
+    }
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+    private static final int NINTHER_THRESHOLD = 128;
+
+    /**
+     * @param ranks ascending, distinct ranks, all less than toIndex.
+     */
+    static void select(final double[] a, int fromIndex, int toIndex, final int[] ranks) {
+        select(a, fromIndex, toIndex, ranks, 0, ranks.length, depthLimit(toIndex - fromIndex));
+    }
+
+    private static void select(final double[] a, int lo, int hi, final int[] ranks, int rlo, int rhi, int depth) {
+        while (rlo < rhi) {
+            if (hi - lo <= INSERTION_SORT_THRESHOLD) {
+                insertionSort(a, lo, hi);
+                return;
+            }
+            if (--depth < 0) {
+                heapSort(a, lo, hi);
+                return;
+            }
+            final double pivot = pivot(a, lo, hi);
+            // [lo, lt) < pivot, [lt, gt) == pivot, [gt, hi) > pivot
+            int lt = lo, i = lo, gt = hi;
+            while (i < gt) {
+                final int c = Double.compare(a[i], pivot);
+                if (c < 0)
+                    swap(a, lt++, i++);
+                else if (c > 0)
+                    swap(a, i, --gt);
+                else
+                    i++;
+            }
+            final int r1 = lowerBound(ranks, rlo, rhi, lt);
+            final int r2 = lowerBound(ranks, r1, rhi, gt);
+            // Recurse into the smaller side, and loop on the larger side, to bound stack depth.
+            if (lt - lo < hi - gt) {
+                select(a, lo, lt, ranks, rlo, r1, depth);
+                lo = gt;
+                rlo = r2;
+            } else {
+                select(a, gt, hi, ranks, r2, rhi, depth);
+                hi = lt;
+                rhi = r1;
+            }
+        }
+    }
+
+    static void select(final long[] a, int fromIndex, int toIndex, final int[] ranks) {
+        select(a, fromIndex, toIndex, ranks, 0, ranks.length, depthLimit(toIndex - fromIndex));
+    }
+
+    private static void select(final long[] a, int lo, int hi, final int[] ranks, int rlo, int rhi, int depth) {
+        while (rlo < rhi) {
+            if (hi - lo <= INSERTION_SORT_THRESHOLD) {
+                insertionSort(a, lo, hi);
+                return;
+            }
+            if (--depth < 0) {
+                heapSort(a, lo, hi);
+                return;
+            }
+            final long pivot = pivot(a, lo, hi);
+            int lt = lo, i = lo, gt = hi;
+            while (i < gt) {
+                final long v = a[i];
+                if (v < pivot)
+                    swap(a, lt++, i++);
+                else if (v > pivot)
+                    swap(a, i, --gt);
+                else
+                    i++;
+            }
+            final int r1 = lowerBound(ranks, rlo, rhi, lt);
+            final int r2 = lowerBound(ranks, r1, rhi, gt);
+            if (lt - lo < hi - gt) {
+                select(a, lo, lt, ranks, rlo, r1, depth);
+                lo = gt;
+                rlo = r2;
+            } else {
+                select(a, gt, hi, ranks, r2, rhi, depth);
+                hi = lt;
+                rhi = r1;
+            }
+        }
+    }
+
+    static <T> void select(final Object[] a, int fromIndex, int toIndex, final int[] ranks,
+                           final Comparator<? super T> comp) {
+        select(a, fromIndex, toIndex, ranks, 0, ranks.length, depthLimit(toIndex - fromIndex), comp);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void select(final Object[] a, int lo, int hi, final int[] ranks, int rlo, int rhi, int depth,
+                                   final Comparator<? super T> comp) {
+        while (rlo < rhi) {
+            if (hi - lo <= INSERTION_SORT_THRESHOLD) {
+                insertionSort(a, lo, hi, comp);
+                return;
+            }
+            if (--depth < 0) {
+                heapSort(a, lo, hi, comp);
+                return;
+            }
+            final T pivot = pivot(a, lo, hi, comp);
+            int lt = lo, i = lo, gt = hi;
+            while (i < gt) {
+                final int c = comp.compare((T) a[i], pivot);
+                if (c < 0)
+                    swap(a, lt++, i++);
+                else if (c > 0)
+                    swap(a, i, --gt);
+                else
+                    i++;
+            }
+            final int r1 = lowerBound(ranks, rlo, rhi, lt);
+            final int r2 = lowerBound(ranks, r1, rhi, gt);
+            if (lt - lo < hi - gt) {
+                select(a, lo, lt, ranks, rlo, r1, depth, comp);
+                lo = gt;
+                rlo = r2;
+            } else {
+                select(a, gt, hi, ranks, r2, rhi, depth, comp);
+                hi = lt;
+                rhi = r1;
+            }
+        }
+    }
+
+    /**
+     * @return index of first rank >= key, in [from, to).
+     */
+    private static int lowerBound(final int[] ranks, int from, int to, final int key) {
+        while (from < to) {
+            final int mid = (from + to) >>> 1;
+            if (ranks[mid] < key)
+                from = mid + 1;
+            else
+                to = mid;
+        }
+        return from;
+    }
+
+    /**
+     * @return the number of partitions allowed, before heap sorting, 2 * log2(n), like introsort.
+     */
+    private static int depthLimit(final int n) {
+        return 2 * (Integer.SIZE - Integer.numberOfLeadingZeros(n));
+    }
+
+    private static double pivot(final double[] a, final int lo, final int hi) {
+        final int mid = (lo + hi) >>> 1, last = hi - 1;
+        if (hi - lo < NINTHER_THRESHOLD)
+            return median(a[lo], a[mid], a[last]);
+        final int s = (hi - lo) >>> 3;
+        return median(median(a[lo], a[lo + s], a[lo + 2 * s]),
+                      median(a[mid - s], a[mid], a[mid + s]),
+                      median(a[last - 2 * s], a[last - s], a[last]));
+    }
+
+    private static long pivot(final long[] a, final int lo, final int hi) {
+        final int mid = (lo + hi) >>> 1, last = hi - 1;
+        if (hi - lo < NINTHER_THRESHOLD)
+            return median(a[lo], a[mid], a[last]);
+        final int s = (hi - lo) >>> 3;
+        return median(median(a[lo], a[lo + s], a[lo + 2 * s]),
+                      median(a[mid - s], a[mid], a[mid + s]),
+                      median(a[last - 2 * s], a[last - s], a[last]));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T pivot(final Object[] a, final int lo, final int hi, final Comparator<? super T> comp) {
+        final int mid = (lo + hi) >>> 1, last = hi - 1;
+        if (hi - lo < NINTHER_THRESHOLD)
+            return median((T) a[lo], (T) a[mid], (T) a[last], comp);
+        final int s = (hi - lo) >>> 3;
+        return median(median((T) a[lo], (T) a[lo + s], (T) a[lo + 2 * s], comp),
+                      median((T) a[mid - s], (T) a[mid], (T) a[mid + s], comp),
+                      median((T) a[last - 2 * s], (T) a[last - s], (T) a[last], comp),
+                      comp);
+    }
+
+    private static double median(final double x, final double y, final double z) {
+        if (Double.compare(x, y) > 0)
+            return Double.compare(y, z) >= 0 ? y : Double.compare(x, z) > 0 ? z : x;
+        return Double.compare(x, z) >= 0 ? x : Double.compare(y, z) > 0 ? z : y;
+    }
+
+    private static long median(final long x, final long y, final long z) {
+        if (x > y)
+            return y >= z ? y : x > z ? z : x;
+        return x >= z ? x : y > z ? z : y;
+    }
+
+    private static <T> T median(final T x, final T y, final T z, final Comparator<? super T> comp) {
+        if (comp.compare(x, y) > 0)
+            return comp.compare(y, z) >= 0 ? y : comp.compare(x, z) > 0 ? z : x;
+        return comp.compare(x, z) >= 0 ? x : comp.compare(y, z) > 0 ? z : y;
+    }
+
+    private static void insertionSort(final double[] a, final int lo, final int hi) {
+        for (int i = lo + 1; i < hi; i++) {
+            final double v = a[i];
+            int j = i - 1;
+            while (j >= lo && Double.compare(a[j], v) > 0) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = v;
+        }
+    }
+
+    private static void insertionSort(final long[] a, final int lo, final int hi) {
+        for (int i = lo + 1; i < hi; i++) {
+            final long v = a[i];
+            int j = i - 1;
+            while (j >= lo && a[j] > v) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = v;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void insertionSort(final Object[] a, final int lo, final int hi,
+                                          final Comparator<? super T> comp) {
+        for (int i = lo + 1; i < hi; i++) {
+            final Object v = a[i];
+            int j = i - 1;
+            while (j >= lo && comp.compare((T) a[j], (T) v) > 0) {
+                a[j + 1] = a[j];
+                j--;
+            }
+            a[j + 1] = v;
+        }
+    }
+
+    private static void heapSort(final double[] a, final int lo, final int hi) {
+        final int n = hi - lo;
+        for (int i = (n >>> 1) - 1; i >= 0; i--)
+            siftDown(a, lo, i, n);
+        for (int end = n - 1; end > 0; end--) {
+            swap(a, lo, lo + end);
+            siftDown(a, lo, 0, end);
+        }
+    }
+
+    private static void siftDown(final double[] a, final int lo, int i, final int n) {
+        final double v = a[lo + i];
+        int child;
+        while ((child = 2 * i + 1) < n) {
+            if (child + 1 < n && Double.compare(a[lo + child + 1], a[lo + child]) > 0)
+                child++;
+            if (Double.compare(a[lo + child], v) <= 0)
+                break;
+            a[lo + i] = a[lo + child];
+            i = child;
+        }
+        a[lo + i] = v;
+    }
+
+    private static void heapSort(final long[] a, final int lo, final int hi) {
+        final int n = hi - lo;
+        for (int i = (n >>> 1) - 1; i >= 0; i--)
+            siftDown(a, lo, i, n);
+        for (int end = n - 1; end > 0; end--) {
+            swap(a, lo, lo + end);
+            siftDown(a, lo, 0, end);
+        }
+    }
+
+    private static void siftDown(final long[] a, final int lo, int i, final int n) {
+        final long v = a[lo + i];
+        int child;
+        while ((child = 2 * i + 1) < n) {
+            if (child + 1 < n && a[lo + child + 1] > a[lo + child])
+                child++;
+            if (a[lo + child] <= v)
+                break;
+            a[lo + i] = a[lo + child];
+            i = child;
+        }
+        a[lo + i] = v;
+    }
+
+    private static <T> void heapSort(final Object[] a, final int lo, final int hi, final Comparator<? super T> comp) {
+        final int n = hi - lo;
+        for (int i = (n >>> 1) - 1; i >= 0; i--)
+            siftDown(a, lo, i, n, comp);
+        for (int end = n - 1; end > 0; end--) {
+            swap(a, lo, lo + end);
+            siftDown(a, lo, 0, end, comp);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void siftDown(final Object[] a, final int lo, int i, final int n,
+                                     final Comparator<? super T> comp) {
+        final Object v = a[lo + i];
+        int child;
+        while ((child = 2 * i + 1) < n) {
+            if (child + 1 < n && comp.compare((T) a[lo + child + 1], (T) a[lo + child]) > 0)
+                child++;
+            if (comp.compare((T) a[lo + child], (T) v) <= 0)
+                break;
+            a[lo + i] = a[lo + child];
+            i = child;
+        }
+        a[lo + i] = v;
+    }
+
+    private static void swap(final double[] a, final int i, final int j) {
+        final double t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+
+    private static void swap(final long[] a, final int i, final int j) {
+        final long t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+
+    private static void swap(final Object[] a, final int i, final int j) {
+        final Object t = a[i];
+        a[i] = a[j];
+        a[j] = t;
+    }
+}
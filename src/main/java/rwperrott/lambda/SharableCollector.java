@@ -1,6 +1,8 @@
 package rwperrott.lambda;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.*;
 import java.util.stream.Collector;
 
@@ -11,7 +13,19 @@ import static java.lang.String.format;
  * <p>
  * I did attempt to validate by Class<T>, however that didn't work for objects with erased types like Tuple*!
  * <p>
- * It maybe possible to reuse SharableCollector and share collector instances, but not concurrently.
+ * Accumulation and combining are safe on parallel streams, because each container is only used by one thread at a
+ * time.  The sharing plan is sealed by the first finisher() call, after which share() fails, so the finisher and
+ * stubs always agree on whether r is protected.  The finisher publishes r via a volatile field, so stubs see it even if
+ * finished by another thread, but it must finish before its stubs e.g. be before them in Tuple.collectors.
+ * <p>
+ * If sharers have different andThenRs, but all are Finishers sorters, r is sorted once, then shared as a read-only
+ * view of the sorted r, so a sharer in the same order, a prefix order or the reverse order doesn't copy or sort it,
+ * see Finishers.reversed() and Finishers.thenSortList().  Otherwise r is protected, so each sharer copies it to sort.
+ * <p>
+ * accumulateAll() accumulates a batch of values, in a tight loop, see Batches.collect.
+ * <p>
+ * It maybe possible to reuse SharableCollector and share collector instances, but not for concurrent collections,
+ * because there is only one r.
  *
  * @param <T>  source value type
  * @param <U>  accumulated value type
@@ -20,44 +34,90 @@ import static java.lang.String.format;
  * @param <RR> final result type
  */
 @SuppressWarnings("unchecked")
-public final class SharableCollector<T, U, A, R, RR> implements Collector<T, A, RR> {
+public final class SharableCollector<T, U, A, R, RR> implements BatchCollector<T, A, RR> {
+    // Stored for sharing validation, a Function, ToDoubleFunction or ToLongFunction
+    private final Object mapper;
     // Stored for sharing validation
-    private final Function<T, U> mapper;
-    // Stored for sharing validation
-    private final Collector<U, ?, R> collectorR;
+    private final Collector<?, ?, R> collectorR;
     // Stored for sharing check and to create finisher
     private final UnaryOperator<R> andThenR;
     // Used to create finisher
     private final Function<R, RR> andThenRR;
+    // DoubleArray or LongArray for the primitive specialisations, so SharingPlan can identify them, else null.
+    private final Class<?> primitiveType;
     //
     // Actual Collector functions
     private final Supplier<A> supplier;
     private final BiConsumer<A, T> accumulator;
+    private final BatchAccumulator<A, T> batchAccumulator;
     private final BinaryOperator<A> combiner;
-    private Function<A, RR> finisher;
+    private final Set<Characteristics> characteristics;
+    // Lazily built, once, under lock, which seals sharing.
+    private volatile Function<A, RR> finisher;
     //
-    // Intermediate result
-    private R r;
+    // Intermediate result, published by finisher for the stubs, NONE until then.
+    private static final Object NONE = new Object();
+    private volatile Object r = NONE;
+    // Guarded by this
     private int shareCount = -1;
+    // The number of share() stubs, guarded by this, and sealed by the finisher.
+    private int stubs;
+    // For releasing a spill r, the number of finishers, of the main and stubs, yet to read r.
+    private final AtomicInteger unread = new AtomicInteger();
+    // Set if a column returned a spill r, so it's owned by the caller, and not released.
+    private volatile boolean escaped;
     // If true assumes that sharers of r won't make destructive changes
     // e.g. just sorting is OK.
-    private boolean sameAndThenR = true;
+    // Only changed, under lock, before the finisher is built.
+    private volatile boolean sameAndThenR = true;
+    // If true, all andThenRs are Finishers Sorters, so r can be sorted once, then shared read-only, with its order.
+    // Only changed, under lock, before the finisher is built.
+    private volatile boolean allSorters;
+    //
+    // For SharingListener events, set by IdMap before publication.
+    private String id = "";
+    // True if a SharingListener was set on creation, so supplier(), combiner() and the finisher agree on timing, and
+    // every started container is removed.
+    private final boolean metered = SharingMetrics.enabled();
+    // nanoTime of the 1st container of each collection in progress, by container identity, so each collection, even
+    // concurrent ones, is timed separately; only used if metered, and guarded by itself.
+    private final Map<Object, Long> started = new IdentityHashMap<>();
 
-    @SuppressWarnings("unchecked")
     private SharableCollector(final Function<T, U> mapper,
                               final Collector<U, ?, R> collectorR,
                               final UnaryOperator<R> andThenR,
                               final Function<R, RR> andThenRR) {
+        this(mapper, collectorR, mappingAccumulator(mapper, collectorR), null, andThenR, andThenRR);
+    }
+
+    /**
+     * Used directly by primitive collectors, where collectorR already applies the mapper, to avoid boxing.
+     */
+    private SharableCollector(final Object mapper,
+                              final Collector<?, ?, R> collectorR,
+                              final BiConsumer<A, T> accumulator,
+                              final Class<?> primitiveType,
+                              final UnaryOperator<R> andThenR,
+                              final Function<R, RR> andThenRR) {
         this.mapper = Objects.requireNonNull(mapper, "mapper");
         this.collectorR = Objects.requireNonNull(collectorR, "collectorR");
+        this.primitiveType = primitiveType;
         this.supplier = (Supplier<A>) collectorR.supplier();
-        final BiConsumer<A, U> accumulator = (BiConsumer<A, U>) collectorR.accumulator();
-        this.accumulator = isIdentityFunction(mapper)
-                           ? (BiConsumer<A, T>) accumulator
-                           : (r, t) -> accumulator.accept(r, mapper.apply(t)); // Based upon Collectors.mapping method
+        this.accumulator = accumulator;
+        this.batchAccumulator = BatchAccumulator.of(mapper, collectorR, primitiveType, accumulator);
         this.combiner = (BinaryOperator<A>) collectorR.combiner();
+        this.characteristics = characteristics(collectorR);
         this.andThenR = Objects.requireNonNull(andThenR, "andThenR");
         this.andThenRR = Objects.requireNonNull(andThenRR, "andThenRR");
+        this.allSorters = andThenR instanceof Sorter;
+    }
+
+    static <T, U, A> BiConsumer<A, T> mappingAccumulator(final Function<T, U> mapper,
+                                                     final Collector<U, ?, ?> collectorR) {
+        final BiConsumer<A, U> accumulator = (BiConsumer<A, U>) collectorR.accumulator();
+        return isIdentityFunction(mapper)
+               ? (BiConsumer<A, T>) accumulator
+               : (r, t) -> accumulator.accept(r, mapper.apply(t)); // Based upon Collectors.mapping method
     }
 
     /**
@@ -72,7 +132,29 @@ public final class SharableCollector<T, U, A, R, RR> implements Collector<T, A,
         return f == Function.identity() || f == UnaryOperator.identity();
     }
 
-    private boolean isNew() {
+    // Parts, for SharingPlan
+
+    Object mapper() {
+        return mapper;
+    }
+
+    Collector<?, ?, R> collectorR() {
+        return collectorR;
+    }
+
+    Class<?> primitiveType() {
+        return primitiveType;
+    }
+
+    UnaryOperator<R> andThenR() {
+        return andThenR;
+    }
+
+    Function<R, RR> andThenRR() {
+        return andThenRR;
+    }
+
+    private synchronized boolean isNew() {
         return ++shareCount == 0;
     }
 
@@ -86,24 +168,84 @@ public final class SharableCollector<T, U, A, R, RR> implements Collector<T, A,
      */
     public Collector<T, ?, RR> share(final UnaryOperator<R> andThenR, // e.g. sort a list or Function.identity() if not needed.
                                      final Function<R, RR> andThenRR) {
-        // See if 1st andThenR can be share for all columns e.g. only sort a list once.
-        sameAndThenR &= andThenR == this.andThenR;
+        Objects.requireNonNull(andThenR, "andThenR");
+        Objects.requireNonNull(andThenRR, "andThenRR");
+        synchronized (this) {
+            if (null != finisher)
+                throw new IllegalStateException("share() called after finisher() sealed sharing");
+            // See if 1st andThenR can be share for all columns e.g. only sort a list once.
+            sameAndThenR &= andThenR == this.andThenR;
+            allSorters &= andThenR instanceof Sorter;
+            stubs++;
+        }
+        SharingMetrics.listener().shared(id, andThenR == this.andThenR);
         // Create stub collector, where only the finisher does work.
         return Collector.of(
                 () -> null,
                 (a, t) -> {
                 },
                 (a1, a2) -> null,
-                a -> sameAndThenR
-                     ? andThenRR.apply(r)
-                     : andThenRR.apply(andThenR.apply(r)));
+                a -> {
+                    try {
+                        return read(sameAndThenR
+                                    ? andThenRR.apply(published())
+                                    : andThenRR.apply(andThenR.apply(published())));
+                    } finally {
+                        readDone();
+                    }
+                });
+    }
+
+    private <X> X read(final X rr) {
+        if (isSpill(rr))
+            escaped = true;
+        return rr;
+    }
+
+    /**
+     * Releases a spill r, after the last of the main and stubs has read it, unless a column returned it.
+     */
+    private void readDone() {
+        if (unread.decrementAndGet() == 0) {
+            final Object r = this.r;
+            if (isSpill(r) && !escaped) {
+                this.r = NONE;
+                release(r);
+            }
+        }
+    }
+
+    /**
+     * @return the number of containers being timed, for tests.
+     */
+    int timedContainers() {
+        synchronized (started) {
+            return started.size();
+        }
+    }
+
+    private R published() {
+        final Object r = this.r;
+        if (NONE == r)
+            throw new IllegalStateException("SharableCollector must finish before its share() stubs");
+        return (R) r;
     }
 
     //
 
     @Override
     public Supplier<A> supplier() {
-        return supplier;
+        if (!metered)
+            return supplier;
+        // Only timed when listening, so the accumulate phase costs nothing extra otherwise.
+        return () -> {
+            final long t = System.nanoTime();
+            final A a = supplier.get();
+            synchronized (started) {
+                started.put(a, t);
+            }
+            return a;
+        };
     }
 
     @Override
@@ -111,57 +253,168 @@ public final class SharableCollector<T, U, A, R, RR> implements Collector<T, A,
         return accumulator;
     }
 
+    /**
+     * Applies the mapper in a tight loop, and for the primitive specialisations, appends in bulk, growing once.
+     */
+    @Override
+    public void accumulateAll(final A container, final T[] values, final int from, final int to) {
+        batchAccumulator.accept(container, values, from, to);
+    }
+
     @Override
     public BinaryOperator<A> combiner() {
-        return combiner;
+        if (!metered)
+            return combiner;
+        // Keeps the earlier start, for the combined container, which may be a1, a2 or new.
+        return (a1, a2) -> {
+            final A a = combiner.apply(a1, a2);
+            synchronized (started) {
+                final Long s1 = started.remove(a1), s2 = started.remove(a2);
+                if (null != s1 || null != s2)
+                    started.put(a, null == s1 ? s2 : null == s2 ? s1 : s1 - s2 < 0 ? s1 : s2);
+            }
+            return a;
+        };
     }
 
     @Override
     public Function<A, RR> finisher() {
         // Lazy build finisher, so can pre-chain protection when andThenR differs in later columns.
-        if (null == finisher)
-            buildFinisher();
-
-        return finisher;
+        Function<A, RR> f = finisher;
+        if (null == f)
+            synchronized (this) {
+                if (null == (f = finisher))
+                    finisher = f = buildFinisher();
+            }
+        return f;
     }
 
-    private void buildFinisher() {
+    private Function<A, RR> buildFinisher() {
         Function<A, R> finisherA2R = (Function<A, R>) collectorR.finisher();
 
-        if (!sameAndThenR)
-            finisherA2R = finisherA2R.andThen(r -> {
-                if (r instanceof List)
-                    r = (R) Collections.unmodifiableList((List<?>) r);
-                else if (r instanceof Map) // May not be useful
-                    r = (R) Collections.unmodifiableMap((Map<?, ?>) r);
-                else if (r instanceof Set) // May not be useful
-                    r = (R) Collections.unmodifiableSet((Set<?>) r);
-                return this.r = r; // save r in this.r and return r
+        if (!sameAndThenR && allSorters) // Sort once, then share read-only, so other Sorters can reuse the order.
+            finisherA2R = finisherA2R.andThen(andThenR).andThen(r -> {
+                r = ((Sorter<R>) andThenR).readOnly(r);
+                this.r = r; // publish r in this.r and return r
+                return r;
             });
+        else {
+            if (!sameAndThenR)
+                finisherA2R = finisherA2R.andThen(r -> {
+                    r = protect(r);
+                    this.r = r; // publish r in this.r and return r
+                    return r;
+                });
+
+            if (!isIdentityFunction(finisherA2R))
+                finisherA2R = finisherA2R.andThen(andThenR);
 
-        if (!isIdentityFunction(finisherA2R))
-            finisherA2R = finisherA2R.andThen(andThenR);
+            if (sameAndThenR)
+                finisherA2R = finisherA2R.andThen(r -> { // r not published in this.r yet, so publish next.
+                    this.r = r;
+                    return r;
+                });
+        }
+
+        final Function<A, RR> f = metered(finisherA2R.andThen(andThenRR));
+        // The last of the main and stubs to finish releases a spill r.
+        final int reads = stubs + 1;
+        return a -> {
+            unread.set(reads);
+            escaped = false;
+            try {
+                return read(f.apply(a));
+            } finally {
+                readDone();
+            }
+        };
+    }
 
-        if (sameAndThenR)
-            finisherA2R = finisherA2R.andThen(r -> this.r = r); // r not saved in this.r yet, so save next.
+    private Function<A, RR> metered(final Function<A, RR> f) {
+        if (!metered)
+            return f;
+        return a -> {
+            final Long started;
+            synchronized (this.started) {
+                started = this.started.remove(a);
+            }
+            final long t0 = System.nanoTime();
+            final RR rr = f.apply(a);
+            final long t1 = System.nanoTime();
+            SharingMetrics.listener().finished(id, SharingMetrics.elements(r),
+                                               null == started ? 0 : t0 - started, t1 - t0);
+            return rr;
+        };
+    }
 
-        this.finisher = finisherA2R.andThen(andThenRR);
+    /**
+     * Wraps r as read-only, if a known type, so a sharer's andThenR can't make destructive changes seen by other
+     * sharers e.g. a sort will sort a copy.
+     */
+    static <R> R protect(R r) {
+        if (r instanceof List)
+            r = (R) Collections.unmodifiableList((List<?>) r);
+        else if (r instanceof Map) // May not be useful
+            r = (R) Collections.unmodifiableMap((Map<?, ?>) r);
+        else if (r instanceof Set) // May not be useful
+            r = (R) Collections.unmodifiableSet((Set<?>) r);
+        else if (r instanceof DoubleArray)
+            r = (R) ((DoubleArray) r).unmodifiable();
+        else if (r instanceof LongArray)
+            r = (R) ((LongArray) r).unmodifiable();
+        else if (r instanceof DoubleSpill)
+            r = (R) ((DoubleSpill) r).unmodifiable();
+        else if (r instanceof LongSpill)
+            r = (R) ((LongSpill) r).unmodifiable();
+        return r;
+    }
+
+    /**
+     * @return true if r is a spill, which should be released, once all its readers are finished.
+     */
+    static boolean isSpill(final Object r) {
+        return r instanceof LongSpill || r instanceof DoubleSpill;
+    }
+
+    /**
+     * Closes r, if a spill, so its mapping and any temp files aren't kept until it's garbage collected.
+     */
+    static void release(final Object r) {
+        if (r instanceof LongSpill)
+            ((LongSpill) r).release();
+        else if (r instanceof DoubleSpill)
+            ((DoubleSpill) r).release();
+    }
+
+    /**
+     * IDENTITY_FINISH is removed, because the finisher always applies andThenR and andThenRR, so must not be
+     * skipped by Stream.collect.
+     */
+    private static Set<Characteristics> characteristics(final Collector<?, ?, ?> collectorR) {
+        final Set<Characteristics> set = EnumSet.noneOf(Characteristics.class);
+        set.addAll(collectorR.characteristics());
+        set.remove(Characteristics.IDENTITY_FINISH);
+        return Collections.unmodifiableSet(set);
     }
 
     @Override
     public Set<Characteristics> characteristics() {
-        return collectorR.characteristics();
+        return characteristics;
     }
 
     /**
      * Holds a map of Main by Id.
      * <p>
-     * Should only be used for one Stream or Seq. e.g. maybe a good idea to use a different instance for a Window.
+     * Should only be used for one Stream or Seq. e.g. maybe a good idea to use a different instance for a Window, or use
+     * SlidingWindow, which slides one frame, instead of re-collecting and re-sorting each frame.  For repeated
+     * collections e.g. batches, build a SharingPlan once, with the same share calls, then use a SharingPlan.Instance
+     * per collection.  Each id's andThenR runs on the thread finishing its 1st share, in Tuple.collectors order, so to
+     * sort several ids concurrently, use SharingPlan.Builder.parallelFinish.
      * <p>
-     * Not Thread-safe, and doesn't need to be.
+     * Thread-safe, so columns can be built concurrently, however all share calls must happen before collecting starts.
      */
     public static class IdMap {
-        private final Map<String, SharableCollector<?, ?, ?, ?, ?>> map = new HashMap<>();
+        private final Map<String, SharableCollector<?, ?, ?, ?, ?>> map = new ConcurrentHashMap<>();
 
         public <T, R, RR> Collector<T, ?, RR> share(final String id,
                                                     final Collector<T, ?, R> collectorR,
@@ -183,16 +436,69 @@ public final class SharableCollector<T, U, A, R, RR> implements Collector<T, A,
          *
          * @return a SharableCollector instance or a stub collector only converting R to RR.
          */
-        @SuppressWarnings("unchecked")
         public <T, U, R, RR> Collector<T, ?, RR> share(final String id,
                                                        final Function<T, U> mapper,
                                                        final Collector<U, ?, R> collectorR,
                                                        final UnaryOperator<R> andThenR,
                                                        final Function<R, RR> andThenRR) {
+            return share0(id, mapper, collectorR,
+                          () -> SharableCollector.of(mapper, collectorR, andThenR, andThenRR),
+                          andThenR, andThenRR);
+        }
+
+        /**
+         * @param id        the id of shared collector.
+         * @param mapper    T to double mapper, to extract a double value from T row, without boxing.
+         * @param andThenR  the unary operator processing the DoubleArray e.g. Finishers.sortDoubles().
+         * @param andThenRR the function to convert the DoubleArray to RR e.g. a percentile function.
+         * @param <T>       source value type.
+         * @param <RR>      final result type.
+         *
+         * @return a SharableCollector instance or a stub collector only converting DoubleArray to RR.
+         */
+        public <T, RR> Collector<T, ?, RR> shareDoubles(final String id,
+                                                        final ToDoubleFunction<T> mapper,
+                                                        final UnaryOperator<DoubleArray> andThenR,
+                                                        final Function<DoubleArray, RR> andThenRR) {
+            return share0(id, mapper, DoubleArray.collector(mapper),
+                          () -> SharableCollector.ofDoubles(mapper, andThenR, andThenRR),
+                          andThenR, andThenRR);
+        }
+
+        /**
+         * @param id        the id of shared collector.
+         * @param mapper    T to long mapper, to extract a long value from T row, without boxing.
+         * @param andThenR  the unary operator processing the LongArray e.g. Finishers.sortLongs().
+         * @param andThenRR the function to convert the LongArray to RR e.g. a percentile function.
+         * @param <T>       source value type.
+         * @param <RR>      final result type.
+         *
+         * @return a SharableCollector instance or a stub collector only converting LongArray to RR.
+         */
+        public <T, RR> Collector<T, ?, RR> shareLongs(final String id,
+                                                      final ToLongFunction<T> mapper,
+                                                      final UnaryOperator<LongArray> andThenR,
+                                                      final Function<LongArray, RR> andThenRR) {
+            return share0(id, mapper, LongArray.collector(mapper),
+                          () -> SharableCollector.ofLongs(mapper, andThenR, andThenRR),
+                          andThenR, andThenRR);
+        }
+
+        @SuppressWarnings("unchecked")
+        private <T, R, RR> Collector<T, ?, RR> share0(final String id,
+                                                      final Object mapper,
+                                                      final Collector<?, ?, R> collectorR,
+                                                      final Supplier<SharableCollector<T, ?, ?, R, RR>> factory,
+                                                      final UnaryOperator<R> andThenR,
+                                                      final Function<R, RR> andThenRR) {
             if (Objects.requireNonNull(id, "id").length() == 0)
                 throw new IllegalStateException("Blank id");
-            final SharableCollector<T, U, ?, R, RR> sc = (SharableCollector<T, U, ?, R, RR>) map
-                    .computeIfAbsent(id, k -> SharableCollector.of(mapper, collectorR, andThenR, andThenRR));
+            final SharableCollector<T, ?, ?, R, RR> sc = (SharableCollector<T, ?, ?, R, RR>) map
+                    .computeIfAbsent(id, k -> {
+                        final SharableCollector<T, ?, ?, R, RR> c = factory.get();
+                        c.id = k;
+                        return c;
+                    });
             if (sc.isNew())
                 return sc;
 
@@ -232,4 +538,36 @@ public final class SharableCollector<T, U, A, R, RR> implements Collector<T, A,
        final Function<R, RR> andThenRR) {
         return new SharableCollector<>(Function.identity(), collectorR, andThenR, andThenRR);
     }
+
+    /**
+     * A primitive specialisation, accumulating into a DoubleArray, so no values are boxed.
+     *
+     * @param mapper    T to double mapper, to extract a double value from T row.
+     * @param andThenR  the unary operator processing the DoubleArray e.g. Finishers.sortDoubles()
+     * @param andThenRR the function to convert the DoubleArray to RR e.g. a percentile function.
+     */
+    public static <T, RR> SharableCollector<T, T, DoubleArray, DoubleArray, RR>
+    ofDoubles(final ToDoubleFunction<T> mapper,
+              final UnaryOperator<DoubleArray> andThenR,
+              final Function<DoubleArray, RR> andThenRR) {
+        final Collector<T, DoubleArray, DoubleArray> collectorR = DoubleArray.collector(mapper);
+        return new SharableCollector<>(mapper, collectorR, collectorR.accumulator(), DoubleArray.class,
+                                       andThenR, andThenRR);
+    }
+
+    /**
+     * A primitive specialisation, accumulating into a LongArray, so no values are boxed.
+     *
+     * @param mapper    T to long mapper, to extract a long value from T row.
+     * @param andThenR  the unary operator processing the LongArray e.g. Finishers.sortLongs()
+     * @param andThenRR the function to convert the LongArray to RR e.g. a percentile function.
+     */
+    public static <T, RR> SharableCollector<T, T, LongArray, LongArray, RR>
+    ofLongs(final ToLongFunction<T> mapper,
+            final UnaryOperator<LongArray> andThenR,
+            final Function<LongArray, RR> andThenRR) {
+        final Collector<T, LongArray, LongArray> collectorR = LongArray.collector(mapper);
+        return new SharableCollector<>(mapper, collectorR, collectorR.accumulator(), LongArray.class,
+                                       andThenR, andThenRR);
+    }
 }
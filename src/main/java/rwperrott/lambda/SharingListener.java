@@ -0,0 +1,56 @@
+package rwperrott.lambda;
+
+/**
+ * Receives sharing and sorting events, when registered via SharingMetrics.setListener(), so column layouts can be
+ * tuned e.g. to see if sharers lose sameAndThenR, and force protected copies and re-sorts.
+ * <p>
+ * All methods default to doing nothing, and are only called per share, sort or finish, never per element.
+ * <p>
+ * Must be Thread-safe, because events can come from any thread.
+ */
+public interface SharingListener {
+    SharingListener NONE = new SharingListener() {
+    };
+
+    /**
+     * Called for each share() stub.
+     *
+     * @param id           the IdMap id, or "" if shared directly.
+     * @param sameAndThenR true if the stub has the same andThenR, so r is shared as is, else r is published
+     *                     read-only, as a sorted view if all the andThenRs are Sorters, else protected.
+     */
+    default void shared(String id, boolean sameAndThenR) {
+    }
+
+    /**
+     * @param type     the sorted type e.g. List, DoubleArray or LongArray.
+     * @param size     the number of elements.
+     * @param parallel true if sorted via Arrays.parallelSort.
+     */
+    default void sorted(Class<?> type, int size, boolean parallel) {
+    }
+
+    /**
+     * Called when a sort is skipped, because already sorted.
+     */
+    default void sortSkipped(Class<?> type, int size) {
+    }
+
+    /**
+     * Called when a defensive copy is made, because a shared result was read-only.
+     */
+    default void copied(Class<?> type, int size) {
+    }
+
+    /**
+     * Called when a SharableCollector finishes.
+     *
+     * @param id              the IdMap id, or "" if not from an IdMap.
+     * @param elements        the number of elements in r, or -1 if unknown.
+     * @param accumulateNanos from the 1st supplier() container of the collection to the finish start, or 0 if
+     *                        unknown e.g. the collector was created before the listener was set.
+     * @param finishNanos     the finisher time, including andThenR and andThenRR.
+     */
+    default void finished(String id, long elements, long accumulateNanos, long finishNanos) {
+    }
+}
@@ -0,0 +1,297 @@
+package rwperrott.lambda;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Holds the SharingListener, which is SharingListener.NONE by default, so the only cost when disabled is a volatile
+ * read per share, sort or finish, and no supplier or finisher wrapping.
+ * <p>
+ * A SharableCollector checks for a listener when it's created, so set the listener before creating collectors, and
+ * collectors created before then aren't timed.
+ */
+public final class SharingMetrics {
+    private static volatile SharingListener listener = SharingListener.NONE;
+
+    private SharingMetrics() {
+    }
+
+    public static SharingListener listener() {
+        return listener;
+    }
+
+    /**
+     * @param listener the listener, or SharingListener.NONE to disable.
+     */
+    public static void setListener(final SharingListener listener) {
+        SharingMetrics.listener = Objects.requireNonNull(listener, "listener");
+    }
+
+    static boolean enabled() {
+        return listener != SharingListener.NONE;
+    }
+
+    /**
+     * @return the number of elements in r, for the known types, else -1.
+     */
+    static long elements(final Object r) {
+        if (r instanceof Collection)
+            return ((Collection<?>) r).size();
+        if (r instanceof DoubleRanks)
+            return ((DoubleRanks) r).count();
+        if (r instanceof LongRanks)
+            return ((LongRanks) r).count();
+        if (r instanceof Map)
+            return ((Map<?, ?>) r).size();
+        return -1;
+    }
+
+    /**
+     * @return a new listener, which counts events.
+     */
+    public static Counters counters() {
+        return new Counters();
+    }
+
+    /**
+     * @return a listener which emits JFR events, which are only committed if enabled in a recording e.g. via
+     * -XX:StartFlightRecording.
+     */
+    public static SharingListener jfr() {
+        return JfrListener.INSTANCE;
+    }
+
+    /**
+     * Counts events, via LongAdders, so is cheap to update from many threads.
+     */
+    public static final class Counters implements SharingListener {
+        private final Map<String, LongAdder> shares = new ConcurrentHashMap<>();
+        private final LongAdder differentAndThenRShares = new LongAdder();
+        private final LongAdder sorts = new LongAdder();
+        private final LongAdder parallelSorts = new LongAdder();
+        private final LongAdder sortsSkipped = new LongAdder();
+        private final LongAdder copies = new LongAdder();
+        private final LongAdder sortedElements = new LongAdder();
+        private final LongAdder finishes = new LongAdder();
+        private final LongAdder finishedElements = new LongAdder();
+        private final LongAdder accumulateNanos = new LongAdder();
+        private final LongAdder finishNanos = new LongAdder();
+
+        private Counters() {
+        }
+
+        @Override
+        public void shared(final String id, final boolean sameAndThenR) {
+            shares.computeIfAbsent(id, k -> new LongAdder()).increment();
+            if (!sameAndThenR)
+                differentAndThenRShares.increment();
+        }
+
+        @Override
+        public void sorted(final Class<?> type, final int size, final boolean parallel) {
+            sorts.increment();
+            if (parallel)
+                parallelSorts.increment();
+            sortedElements.add(size);
+        }
+
+        @Override
+        public void sortSkipped(final Class<?> type, final int size) {
+            sortsSkipped.increment();
+        }
+
+        @Override
+        public void copied(final Class<?> type, final int size) {
+            copies.increment();
+        }
+
+        @Override
+        public void finished(final String id, final long elements, final long accumulateNanos,
+                             final long finishNanos) {
+            finishes.increment();
+            if (elements > 0)
+                finishedElements.add(elements);
+            this.accumulateNanos.add(accumulateNanos);
+            this.finishNanos.add(finishNanos);
+        }
+
+        /**
+         * @return the number of share() stubs for id.
+         */
+        public long shares(final String id) {
+            final LongAdder a = shares.get(id);
+            return null == a ? 0 : a.sum();
+        }
+
+        /**
+         * @return the number of share() stubs, with a different andThenR from the 1st column, so r is published
+         * read-only: sorted once, as a read-only view, if all the andThenRs are Sorters, else protected e.g. as an
+         * unmodifiable List, which a sorting andThenR copies.
+         */
+        public long differentAndThenRShares() {
+            return differentAndThenRShares.sum();
+        }
+
+        public long sorts() {
+            return sorts.sum();
+        }
+
+        public long parallelSorts() {
+            return parallelSorts.sum();
+        }
+
+        public long sortsSkipped() {
+            return sortsSkipped.sum();
+        }
+
+        public long copies() {
+            return copies.sum();
+        }
+
+        public long sortedElements() {
+            return sortedElements.sum();
+        }
+
+        public long finishes() {
+            return finishes.sum();
+        }
+
+        public long finishedElements() {
+            return finishedElements.sum();
+        }
+
+        public long accumulateNanos() {
+            return accumulateNanos.sum();
+        }
+
+        public long finishNanos() {
+            return finishNanos.sum();
+        }
+
+        @Override
+        public String toString() {
+            return "Counters{shares=" + shares
+                   + ", differentAndThenRShares=" + differentAndThenRShares
+                   + ", sorts=" + sorts
+                   + ", parallelSorts=" + parallelSorts
+                   + ", sortsSkipped=" + sortsSkipped
+                   + ", copies=" + copies
+                   + ", sortedElements=" + sortedElements
+                   + ", finishes=" + finishes
+                   + ", finishedElements=" + finishedElements
+                   + ", accumulateNanos=" + accumulateNanos
+                   + ", finishNanos=" + finishNanos
+                   + '}';
+        }
+    }
+
+    private static final class JfrListener implements SharingListener {
+        private static final JfrListener INSTANCE = new JfrListener();
+
+        @Override
+        public void shared(final String id, final boolean sameAndThenR) {
+            final ShareEvent e = new ShareEvent();
+            if (e.isEnabled()) {
+                e.id = id;
+                e.sameAndThenR = sameAndThenR;
+                e.commit();
+            }
+        }
+
+        @Override
+        public void sorted(final Class<?> type, final int size, final boolean parallel) {
+            sort(type, size, parallel, false, false);
+        }
+
+        @Override
+        public void sortSkipped(final Class<?> type, final int size) {
+            sort(type, size, false, true, false);
+        }
+
+        @Override
+        public void copied(final Class<?> type, final int size) {
+            sort(type, size, false, false, true);
+        }
+
+        private static void sort(final Class<?> type, final int size, final boolean parallel, final boolean skipped,
+                                 final boolean copied) {
+            final SortEvent e = new SortEvent();
+            if (e.isEnabled()) {
+                e.type = type.getSimpleName();
+                e.size = size;
+                e.parallel = parallel;
+                e.skipped = skipped;
+                e.copied = copied;
+                e.commit();
+            }
+        }
+
+        @Override
+        public void finished(final String id, final long elements, final long accumulateNanos,
+                             final long finishNanos) {
+            final FinishEvent e = new FinishEvent();
+            if (e.isEnabled()) {
+                e.id = id;
+                e.elements = elements;
+                e.accumulateNanos = accumulateNanos;
+                e.finishNanos = finishNanos;
+                e.commit();
+            }
+        }
+    }
+
+    @Name("rwperrott.lambda.Share")
+    @Label("Share")
+    @Category("Sharable Collector")
+    @StackTrace(false)
+    static final class ShareEvent extends Event {
+        @Label("Id")
+        String id;
+        @Label("Same andThenR")
+        boolean sameAndThenR;
+    }
+
+    @Name("rwperrott.lambda.Sort")
+    @Label("Sort")
+    @Category("Sharable Collector")
+    @StackTrace(false)
+    static final class SortEvent extends Event {
+        @Label("Type")
+        String type;
+        @Label("Size")
+        int size;
+        @Label("Parallel")
+        boolean parallel;
+        @Label("Skipped")
+        boolean skipped;
+        @Label("Copied")
+        boolean copied;
+    }
+
+    @Name("rwperrott.lambda.Finish")
+    @Label("Finish")
+    @Category("Sharable Collector")
+    @StackTrace(false)
+    static final class FinishEvent extends Event {
+        @Label("Id")
+        String id;
+        @Label("Elements")
+        long elements;
+        @Label("Accumulate Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long accumulateNanos;
+        @Label("Finish Time")
+        @Timespan(Timespan.NANOSECONDS)
+        long finishNanos;
+    }
+}
@@ -0,0 +1,928 @@
+package rwperrott.lambda;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.*;
+import java.util.stream.Collector;
+
+import static java.lang.String.format;
+
+/**
+ * An immutable, reusable alternative to SharableCollector.IdMap, for many groups e.g. downstream of
+ * Collectors.groupingBy or Seq.groupBy, where an IdMap per group would allocate a map, SharableCollectors and finisher
+ * chains for each group.
+ * <p>
+ * The plan is built once, via a Builder, with the same share calls as IdMap, then collector() returns one Collector,
+ * where each group only holds an Object[] of accumulators, one per id, and the finisher fills an Object[] of column
+ * results, read via the Column handles returned by share e.g.
+ * <pre>
+ * var b = SharingPlan.&lt;Row&gt;builder();
+ * var p50 = b.shareDoubles("A", mapper, Finishers.sortDoubles(), Finishers.percentileDouble(0.5d, interpolate()));
+ * var p99 = b.shareDoubles("A", mapper, Finishers.sortDoubles(), Finishers.percentileDouble(0.99d, interpolate()));
+ * Map&lt;K, Object[]&gt; m = rows.collect(Collectors.groupingBy(Row::key, b.build().collector()));
+ * m.forEach((k, r) -&gt; print(k, p50.get(r), p99.get(r)));
+ * </pre>
+ * Within an id, each distinct andThenR is applied once per group, with r protected first if there are several, unless
+ * all are Finishers sorters, when r is sorted once, then the others reuse its order, so unlike SharableCollector,
+ * sharers with the same andThenR don't repeat it.
+ * <p>
+ * collector() is a BatchCollector, so Batches.collect accumulates column at a time, per batch of rows.
+ * <p>
+ * newInstance() hands out a Collector per column instead, like IdMap share calls e.g. for Tuple.collectors, so the
+ * plan is a reusable template, for repeated collections e.g. batches.
+ * <p>
+ * plan() builds the same shared stages automatically, without ids, from unshared column collectors e.g. from
+ * SharableCollector.of(), as a DAG of mapper, collector, andThenR and andThenRR stages, so each mapper is only called
+ * once per row, even if it feeds several collectors, each collector accumulates once, and each andThenR runs once, for
+ * all its finishers.
+ * <p>
+ * Thread-safe, because the finisher holds no state, so can be used for concurrent groups and parallel streams.
+ *
+ * @param <T> source value type
+ */
+@SuppressWarnings("unchecked")
+public final class SharingPlan<T> {
+    // Ordered with stages sharing a mapper together, then the unmapped stages.
+    private final Stage<T, ?, ?>[] stages;
+    // Distinct mappers, with the end index of their stages.
+    private final Function<T, ?>[] mappers;
+    private final int[] mapperEnds;
+    private final int columns;
+    // Non-null to finish stages concurrently.
+    private final ForkJoinPool finishPool;
+    private final BatchCollector<T, Object[], Object[]> collector;
+    // For Instance column collectors, the index of the stage of each column.
+    private final int[] stageOfColumn;
+
+    private SharingPlan(final Builder<T> builder) {
+        final Map<Function<T, ?>, List<Stage<T, ?, ?>>> byMapper = new LinkedHashMap<>();
+        final List<Stage<T, ?, ?>> unmapped = new ArrayList<>();
+        for (Stage.Builder<T, ?, ?> b : builder.stages.values()) {
+            final Stage<T, ?, ?> stage = b.build();
+            if (null == stage.mapper)
+                unmapped.add(stage);
+            else
+                byMapper.computeIfAbsent(stage.mapper, k -> new ArrayList<>()).add(stage);
+        }
+        final List<Stage<T, ?, ?>> ordered = new ArrayList<>();
+        this.mappers = byMapper.keySet().toArray((Function<T, ?>[]) new Function<?, ?>[0]);
+        this.mapperEnds = new int[mappers.length];
+        int g = 0;
+        for (List<Stage<T, ?, ?>> l : byMapper.values()) {
+            ordered.addAll(l);
+            mapperEnds[g++] = ordered.size();
+        }
+        ordered.addAll(unmapped);
+        this.stages = ordered.toArray((Stage<T, ?, ?>[]) new Stage<?, ?, ?>[0]);
+        this.columns = builder.columns;
+        this.finishPool = builder.finishPool;
+        this.collector = buildCollector();
+        this.stageOfColumn = new int[columns];
+        for (int s = 0; s < stages.length; s++)
+            for (int[] c : stages[s].columns)
+                for (int column : c)
+                    stageOfColumn[column] = s;
+    }
+
+    public static <T> Builder<T> builder() {
+        return new Builder<>();
+    }
+
+    /**
+     * Plans shared stages for columns, by reference equality of their parts.
+     * <p>
+     * A SharableCollector column is split into its mapper, collectorR, andThenR and andThenRR, where collectorRs are
+     * the same if they have the same functions and characteristics e.g. from separate Collectors.toList() calls, or
+     * the same primitive specialisation and mapper.  Any other column is a stage of its own, unless the same instance,
+     * so stubs from share() or IdMap can't be planned.
+     *
+     * @return a plan, with a result per column, in the same order.
+     */
+    @SafeVarargs
+    public static <T> SharingPlan<T> plan(final Collector<T, ?, ?>... columns) {
+        final Builder<T> b = builder();
+        for (Collector<T, ?, ?> column : columns)
+            b.add(column);
+        return b.build();
+    }
+
+    public static <T> SharingPlan<T> plan(final List<? extends Collector<T, ?, ?>> columns) {
+        final Builder<T> b = builder();
+        for (Collector<T, ?, ?> column : columns)
+            b.add(column);
+        return b.build();
+    }
+
+    /**
+     * @return the number of distinct mappers, each called once per row.
+     */
+    public int mappers() {
+        return mappers.length;
+    }
+
+    /**
+     * @return the number of shared accumulators e.g. one per id.
+     */
+    public int stages() {
+        return stages.length;
+    }
+
+    public int columns() {
+        return columns;
+    }
+
+    /**
+     * Always returns the same instance.
+     *
+     * @return a Collector, accumulating one container per id, and finishing to an Object[] of column results.
+     */
+    public BatchCollector<T, Object[], Object[]> collector() {
+        return collector;
+    }
+
+    private BatchCollector<T, Object[], Object[]> buildCollector() {
+        final Stage<T, Object, Object>[] stages = (Stage<T, Object, Object>[]) this.stages;
+        final Function<T, ?>[] mappers = this.mappers;
+        final int[] mapperEnds = this.mapperEnds;
+        final int n = stages.length;
+        final Set<Collector.Characteristics> characteristics = EnumSet.of(Collector.Characteristics.UNORDERED);
+        for (Stage<T, ?, ?> stage : stages)
+            if (!stage.unordered)
+                characteristics.clear();
+        return new PlanCollector<>(this, Collector.of(
+                () -> {
+                    final Object[] a = new Object[n];
+                    for (int i = 0; i < n; i++)
+                        a[i] = stages[i].supplier.get();
+                    return a;
+                },
+                (a, t) -> {
+                    int i = 0;
+                    for (int g = 0; g < mappers.length; g++) {
+                        final Object u = mappers[g].apply(t);
+                        for (final int end = mapperEnds[g]; i < end; i++)
+                            stages[i].mappedAccumulator.accept(a[i], u);
+                    }
+                    for (; i < n; i++)
+                        stages[i].accumulator.accept(a[i], t);
+                },
+                (a1, a2) -> {
+                    for (int i = 0; i < n; i++)
+                        a1[i] = stages[i].combiner.apply(a1[i], a2[i]);
+                    return a1;
+                },
+                this::finish,
+                characteristics.toArray(new Collector.Characteristics[0])));
+    }
+
+    /**
+     * Like the accumulator, but column at a time, so each mapper is applied to the batch once, in a tight loop, then
+     * each stage accumulates the whole batch, appending in bulk for the primitive specialisations.
+     */
+    private void accumulateAll(final Object[] a, final T[] values, final int from, final int to) {
+        final Stage<T, Object, Object>[] stages = (Stage<T, Object, Object>[]) this.stages;
+        final int n = to - from;
+        Object[] mapped = null;
+        int i = 0;
+        for (int g = 0; g < mappers.length; g++) {
+            final Function<T, ?> mapper = mappers[g];
+            if (null == mapped)
+                mapped = new Object[n];
+            for (int j = 0; j < n; j++)
+                mapped[j] = mapper.apply(values[from + j]);
+            for (final int end = mapperEnds[g]; i < end; i++)
+                stages[i].mappedBatchAccumulator.accept(a[i], mapped, 0, n);
+        }
+        for (; i < stages.length; i++)
+            stages[i].batchAccumulator.accept(a[i], values, from, to);
+    }
+
+    /**
+     * If parallelFinish was set, the 1st stage finishes on the caller thread, while the others finish on the pool,
+     * each writing only its own columns.
+     */
+    private Object[] finish(final Object[] a) {
+        final Stage<T, Object, ?>[] stages = (Stage<T, Object, ?>[]) this.stages;
+        final Object[] results = new Object[columns];
+        final int n = stages.length;
+        if (null == finishPool || n < 2) {
+            for (int i = 0; i < n; i++)
+                stages[i].finish(a[i], results);
+            return results;
+        }
+        final ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[n - 1];
+        int submitted = 0;
+        Throwable failure = null;
+        try {
+            for (int i = 1; i < n; i++) {
+                final Stage<T, Object, ?> stage = stages[i];
+                final Object ai = a[i];
+                tasks[submitted] = finishPool.submit(() -> stage.finish(ai, results));
+                submitted++;
+            }
+            stages[0].finish(a[0], results);
+        } catch (RuntimeException | Error e) {
+            failure = e;
+        } finally {
+            // Always joined, not cancelled, because a cancelled task may still be running, so no task can still be
+            // writing results after this returns or throws.  Also makes the results of the tasks visible.
+            for (int i = 0; i < submitted; i++)
+                try {
+                    tasks[i].join();
+                } catch (RuntimeException | Error e) {
+                    if (null == failure)
+                        failure = e;
+                    else
+                        failure.addSuppressed(e);
+                }
+        }
+        if (failure instanceof RuntimeException)
+            throw (RuntimeException) failure;
+        if (null != failure)
+            throw (Error) failure;
+        return results;
+    }
+
+    /**
+     * The plan is a reusable template, so this is cheap, only allocating the column results, and a collector per
+     * column used, instead of rebuilding an IdMap, SharableCollectors and finisher chains per collection.
+     *
+     * @return new per-collection state, for column collectors e.g. for Tuple.collectors.
+     */
+    public Instance<T> newInstance() {
+        return new Instance<>(this);
+    }
+
+    /**
+     * Per-collection state, handing out a Collector per column, like SharableCollector.IdMap share calls, where the
+     * 1st column of each id accumulates, and its finisher finishes all the columns of the id, so must finish before
+     * the others e.g. be before them in Tuple.collectors.
+     * <p>
+     * If parallelFinish was set, the 1st finisher called, of any column, starts finishing all the ids on the pool,
+     * because all the columns have accumulated by then, then each column waits for the result of its id, so the
+     * columns can be in any order, but must be collected by the same collect e.g. via Tuple.collectors.
+     * <p>
+     * Single use, like an IdMap, but the plan is reused, so validation and finisher chains aren't repeated.
+     *
+     * @param <T> source value type
+     */
+    public static final class Instance<T> {
+        private static final Object NONE = new Object();
+
+        private final SharingPlan<T> plan;
+        // Guarded by this, so stubs see the results, even if finished by another thread.
+        private final Object[] results;
+        // For parallelFinish, guarded by this: the containers of each stage, not yet combined, so only one is left
+        // once accumulated, or null if the 1st column of the stage wasn't handed out.
+        private final Set<Object>[] containers;
+        // For parallelFinish, guarded by this: the finish of each stage, null until the 1st finisher is called.
+        private CompletableFuture<?>[] finishing;
+
+        @SuppressWarnings("unchecked")
+        private Instance(final SharingPlan<T> plan) {
+            this.plan = plan;
+            this.results = new Object[plan.columns];
+            Arrays.fill(results, NONE);
+            this.containers = (Set<Object>[]) new Set<?>[plan.stages.length];
+        }
+
+        /**
+         * @return a Collector for column, only accumulating if column is the 1st column of its id.
+         */
+        public <RR> Collector<T, ?, RR> collector(final Column<RR> column) {
+            final int index = column.index;
+            if (index >= plan.columns)
+                throw new IllegalArgumentException(format("column %d not in plan of %d columns", index, plan.columns));
+            final int s = plan.stageOfColumn[index];
+            final Stage<T, Object, ?> stage = (Stage<T, Object, ?>) plan.stages[s];
+            if (stage.firstColumn != index)
+                return new StubColumn<>(this, s, index);
+            if (null != plan.finishPool)
+                synchronized (this) {
+                    if (null == containers[s])
+                        containers[s] = Collections.newSetFromMap(new IdentityHashMap<>());
+                }
+            return new MainColumn<>(this, stage, s, index);
+        }
+
+        /**
+         * @return a Collector per column, in column order, so the 1st of each id is before the others.
+         */
+        public List<Collector<T, ?, ?>> collectors() {
+            final List<Collector<T, ?, ?>> l = new ArrayList<>(plan.columns);
+            for (int i = 0; i < plan.columns; i++)
+                l.add(collector(new Column<>(i)));
+            return l;
+        }
+
+        private boolean parallel() {
+            return null != plan.finishPool;
+        }
+
+        private synchronized <A> A supplied(final int stage, final A a) {
+            containers[stage].add(a);
+            return a;
+        }
+
+        private synchronized <A> A combined(final int stage, final A a1, final A a2, final A a) {
+            final Set<Object> c = containers[stage];
+            c.remove(a1);
+            c.remove(a2);
+            c.add(a);
+            return a;
+        }
+
+        private synchronized void finish(final Stage<T, Object, ?> stage, final Object a) {
+            stage.finish(a, results);
+        }
+
+        /**
+         * Starts finishing all the stages, once, each writing only its own columns.
+         */
+        private synchronized void finishAll() {
+            if (null != finishing)
+                return;
+            final Stage<T, Object, ?>[] stages = (Stage<T, Object, ?>[]) plan.stages;
+            finishing = new CompletableFuture<?>[stages.length];
+            for (int s = 0; s < stages.length; s++) {
+                final Set<Object> c = containers[s];
+                if (null == c)
+                    continue;
+                if (c.size() != 1)
+                    throw new IllegalStateException(format("%d containers left for stage %d, so not one collect",
+                                                           c.size(), s));
+                final Stage<T, Object, ?> stage = stages[s];
+                final Object a = c.iterator().next();
+                finishing[s] = CompletableFuture.runAsync(() -> stage.finish(a, results), plan.finishPool);
+            }
+        }
+
+        /**
+         * Waits for the stage to finish, which also makes its results visible.
+         */
+        private void await(final int stage) {
+            final CompletableFuture<?> f;
+            synchronized (this) {
+                f = finishing[stage];
+            }
+            if (null == f)
+                throw new IllegalStateException("1st column of an id must be collected with its other columns");
+            try {
+                f.join();
+            } catch (CompletionException e) {
+                final Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException)
+                    throw (RuntimeException) cause;
+                if (cause instanceof Error)
+                    throw (Error) cause;
+                throw e;
+            }
+        }
+
+        private synchronized Object result(final int column) {
+            final Object r = results[column];
+            if (NONE == r)
+                throw new IllegalStateException("1st column of an id must finish before its other columns");
+            return r;
+        }
+    }
+
+    private static final class MainColumn<T, A, RR> implements Collector<T, A, RR> {
+        private final Stage<T, A, ?> stage;
+        private final Supplier<A> supplier;
+        private final BinaryOperator<A> combiner;
+        private final Function<A, RR> finisher;
+
+        private MainColumn(final Instance<T> instance, final Stage<T, A, ?> stage, final int s, final int column) {
+            this.stage = stage;
+            if (instance.parallel()) {
+                // Tracks the containers, so the 1st finisher called can finish all the stages.
+                final Supplier<A> supplier = stage.supplier;
+                final BinaryOperator<A> combiner = stage.combiner;
+                this.supplier = () -> instance.supplied(s, supplier.get());
+                this.combiner = (a1, a2) -> instance.combined(s, a1, a2, combiner.apply(a1, a2));
+                this.finisher = a -> {
+                    instance.finishAll();
+                    instance.await(s);
+                    return (RR) instance.result(column);
+                };
+            } else {
+                this.supplier = stage.supplier;
+                this.combiner = stage.combiner;
+                this.finisher = a -> {
+                    instance.finish((Stage<T, Object, ?>) stage, a);
+                    return (RR) instance.result(column);
+                };
+            }
+        }
+
+        @Override
+        public Supplier<A> supplier() {
+            return supplier;
+        }
+
+        @Override
+        public BiConsumer<A, T> accumulator() {
+            return stage.accumulator;
+        }
+
+        @Override
+        public BinaryOperator<A> combiner() {
+            return combiner;
+        }
+
+        @Override
+        public Function<A, RR> finisher() {
+            return finisher;
+        }
+
+        @Override
+        public Set<Characteristics> characteristics() {
+            return stage.characteristics;
+        }
+    }
+
+    /**
+     * The plan collector, with a batch accumulator.
+     */
+    private static final class PlanCollector<T> implements BatchCollector<T, Object[], Object[]> {
+        private final SharingPlan<T> plan;
+        private final Collector<T, Object[], Object[]> collector;
+
+        private PlanCollector(final SharingPlan<T> plan, final Collector<T, Object[], Object[]> collector) {
+            this.plan = plan;
+            this.collector = collector;
+        }
+
+        @Override
+        public void accumulateAll(final Object[] container, final T[] values, final int from, final int to) {
+            Objects.checkFromToIndex(from, to, values.length);
+            plan.accumulateAll(container, values, from, to);
+        }
+
+        @Override
+        public Supplier<Object[]> supplier() {
+            return collector.supplier();
+        }
+
+        @Override
+        public BiConsumer<Object[], T> accumulator() {
+            return collector.accumulator();
+        }
+
+        @Override
+        public BinaryOperator<Object[]> combiner() {
+            return collector.combiner();
+        }
+
+        @Override
+        public Function<Object[], Object[]> finisher() {
+            return collector.finisher();
+        }
+
+        @Override
+        public Set<Characteristics> characteristics() {
+            return collector.characteristics();
+        }
+    }
+
+    /**
+     * Only converts the result of the 1st column of its id, like a SharableCollector.share() stub, waiting for it if
+     * parallelFinish was set.
+     */
+    private static final class StubColumn<T, RR> implements Collector<T, Object, RR> {
+        private static final Supplier<Object> SUPPLIER = () -> null;
+        private static final BiConsumer<Object, Object> ACCUMULATOR = (a, t) -> {
+        };
+        private static final BinaryOperator<Object> COMBINER = (a1, a2) -> null;
+
+        private final Function<Object, RR> finisher;
+
+        private StubColumn(final Instance<T> instance, final int s, final int column) {
+            this.finisher = instance.parallel()
+                            ? a -> {
+                                instance.finishAll();
+                                instance.await(s);
+                                return (RR) instance.result(column);
+                            }
+                            : a -> (RR) instance.result(column);
+        }
+
+        @Override
+        public Supplier<Object> supplier() {
+            return SUPPLIER;
+        }
+
+        @Override
+        public BiConsumer<Object, T> accumulator() {
+            return (BiConsumer<Object, T>) (BiConsumer<?, ?>) ACCUMULATOR;
+        }
+
+        @Override
+        public BinaryOperator<Object> combiner() {
+            return COMBINER;
+        }
+
+        @Override
+        public Function<Object, RR> finisher() {
+            return finisher;
+        }
+
+        @Override
+        public Set<Characteristics> characteristics() {
+            return Collections.emptySet();
+        }
+    }
+
+    /**
+     * A typed handle for a column result.
+     *
+     * @param <RR> final result type
+     */
+    public static final class Column<RR> {
+        private final int index;
+
+        private Column(final int index) {
+            this.index = index;
+        }
+
+        public int index() {
+            return index;
+        }
+
+        /**
+         * @param results a result of SharingPlan.collector()
+         */
+        public RR get(final Object[] results) {
+            return (RR) results[index];
+        }
+    }
+
+    /**
+     * The shared accumulator for an id, with its columns grouped by andThenR.
+     */
+    private static final class Stage<T, A, R> {
+        // Non-null if the plan applies the mapper, once for all stages with the same mapper.
+        private final Function<T, ?> mapper;
+        private final BiConsumer<A, Object> mappedAccumulator;
+        private final BatchAccumulator<A, Object> mappedBatchAccumulator;
+        private final Supplier<A> supplier;
+        private final BiConsumer<A, T> accumulator;
+        private final BatchAccumulator<A, T> batchAccumulator;
+        private final BinaryOperator<A> combiner;
+        private final Function<A, R> finisher;
+        private final boolean unordered;
+        private final Set<Collector.Characteristics> characteristics;
+        // The 1st column, which accumulates, for Instance.
+        private final int firstColumn;
+        private final UnaryOperator<R>[] andThenRs;
+        private final boolean allSorters;
+        private final int[][] columns;
+        private final Function<R, ?>[][] andThenRRs;
+
+        private Stage(final Builder<T, A, R> b) {
+            this.mapper = b.mappedBy;
+            this.mappedAccumulator = null == mapper ? null : (BiConsumer<A, Object>) b.collectorR.accumulator();
+            this.supplier = (Supplier<A>) b.collectorR.supplier();
+            this.mappedBatchAccumulator = null == mapper ? null : BatchAccumulator.of(mappedAccumulator);
+            this.accumulator = b.accumulator;
+            this.batchAccumulator = BatchAccumulator.of(b.mapper, b.collectorR, b.primitiveType, b.accumulator);
+            this.combiner = (BinaryOperator<A>) b.collectorR.combiner();
+            this.finisher = b.finisher;
+            this.unordered = b.collectorR.characteristics().contains(Collector.Characteristics.UNORDERED);
+            this.characteristics = unordered
+                                   ? Collections.unmodifiableSet(EnumSet.of(Collector.Characteristics.UNORDERED))
+                                   : Collections.emptySet();
+            final int n = b.andThenRs.size();
+            this.andThenRs = b.andThenRs.toArray((UnaryOperator<R>[]) new UnaryOperator<?>[n]);
+            this.allSorters = Sorter.all(b.andThenRs);
+            this.columns = new int[n][];
+            this.andThenRRs = (Function<R, ?>[][]) new Function<?, ?>[n][];
+            for (int i = 0; i < n; i++) {
+                final List<Integer> c = b.columns.get(i);
+                columns[i] = c.stream().mapToInt(Integer::intValue).toArray();
+                andThenRRs[i] = b.andThenRRs.get(i).toArray((Function<R, ?>[]) new Function<?, ?>[0]);
+            }
+            int first = Integer.MAX_VALUE;
+            for (int[] c : columns)
+                for (int column : c)
+                    first = Math.min(first, column);
+            this.firstColumn = first;
+        }
+
+        private void finish(final A a, final Object[] results) {
+            final R r = finisher.apply(a);
+            boolean escaped = false;
+            try {
+                if (andThenRs.length == 1) {
+                    escaped = finish(0, r, results);
+                    return;
+                }
+                // If all are Sorters, sort once, so the others can reuse the order, else protect, so each copies to
+                // sort.
+                final R shared = allSorters
+                                 ? ((Sorter<R>) andThenRs[0]).readOnly(andThenRs[0].apply(r))
+                                 : SharableCollector.protect(r);
+                for (int i = 0; i < andThenRs.length; i++)
+                    escaped |= finish(i, shared, results);
+            } finally {
+                // All the columns have read r, so release a spill, unless a column returned it.
+                if (!escaped)
+                    SharableCollector.release(r);
+            }
+        }
+
+        /**
+         * @return true if a result is a spill, so must not be released.
+         */
+        private boolean finish(final int i, final R r, final Object[] results) {
+            final R rr = andThenRs[i].apply(r);
+            final int[] c = columns[i];
+            final Function<R, ?>[] f = andThenRRs[i];
+            boolean escaped = false;
+            for (int j = 0; j < c.length; j++)
+                escaped |= SharableCollector.isSpill(results[c[j]] = f[j].apply(rr));
+            return escaped;
+        }
+
+        private static final class Builder<T, A, R> {
+            // Stored for sharing validation, a Function, ToDoubleFunction or ToLongFunction
+            private final Object mapper;
+            private final Collector<?, ?, R> collectorR;
+            private final Class<?> primitiveType;
+            private final BiConsumer<A, T> accumulator;
+            private final Function<A, R> finisher;
+            private final Function<T, ?> mappedBy;
+            private final List<UnaryOperator<R>> andThenRs = new ArrayList<>();
+            private final List<List<Integer>> columns = new ArrayList<>();
+            private final List<List<Function<R, ?>>> andThenRRs = new ArrayList<>();
+
+            /**
+             * @param finisher collectorR.finisher(), or identity, if collectorR is a whole column.
+             */
+            private Builder(final Object mapper,
+                            final Collector<?, ?, R> collectorR,
+                            final Class<?> primitiveType,
+                            final BiConsumer<A, T> accumulator,
+                            final Function<A, R> finisher) {
+                this.mapper = Objects.requireNonNull(mapper, "mapper");
+                this.collectorR = Objects.requireNonNull(collectorR, "collectorR");
+                this.primitiveType = primitiveType;
+                this.accumulator = accumulator;
+                this.finisher = finisher;
+                this.mappedBy = mapper instanceof Function && !SharableCollector.isIdentityFunction((Function<?, ?>) mapper)
+                                ? (Function<T, ?>) mapper
+                                : null;
+            }
+
+            private void add(final int column, final UnaryOperator<R> andThenR, final Function<R, ?> andThenRR) {
+                Objects.requireNonNull(andThenR, "andThenR");
+                Objects.requireNonNull(andThenRR, "andThenRR");
+                int i = 0;
+                while (i < andThenRs.size() && andThenRs.get(i) != andThenR)
+                    i++;
+                if (i == andThenRs.size()) {
+                    andThenRs.add(andThenR);
+                    columns.add(new ArrayList<>());
+                    andThenRRs.add(new ArrayList<>());
+                }
+                columns.get(i).add(column);
+                andThenRRs.get(i).add(andThenRR);
+            }
+
+            private Stage<T, A, R> build() {
+                return new Stage<>(this);
+            }
+        }
+    }
+
+    /**
+     * Records share calls, with the same validation as IdMap, so a plan can be built once.
+     * <p>
+     * Not Thread-safe.
+     *
+     * @param <T> source value type
+     */
+    public static final class Builder<T> {
+        // By id, or by StageKey for planned columns.
+        private final Map<Object, Stage.Builder<T, ?, ?>> stages = new LinkedHashMap<>();
+        private int columns;
+        private ForkJoinPool finishPool;
+
+        private Builder() {
+        }
+
+        /**
+         * Finishes the stages concurrently, on pool, so with several ids, each with a costly andThenR e.g. a sort
+         * of a large list, finishing only takes about as long as the slowest id, instead of the sum of them.
+         * <p>
+         * Not worthwhile for small groups e.g. downstream of groupingBy, because of the task overhead per stage.
+         *
+         * @param pool e.g. ForkJoinPool.commonPool().
+         *
+         * @return this
+         */
+        public Builder<T> parallelFinish(final ForkJoinPool pool) {
+            this.finishPool = Objects.requireNonNull(pool, "pool");
+            return this;
+        }
+
+        public <R, RR> Column<RR> share(final String id,
+                                        final Collector<T, ?, R> collectorR,
+                                        final UnaryOperator<R> andThenR,
+                                        final Function<R, RR> andThenRR) {
+            return share(id, Function.identity(), collectorR, andThenR, andThenRR);
+        }
+
+        /**
+         * @param id         the id of shared accumulator.
+         * @param mapper     Function.identity() or T to U mapper, to extract U value from T row.
+         * @param collectorR the collector providing the R result from U values.
+         * @param andThenR   the unary operator processing R e.g. a sort and/or protect function.
+         * @param andThenRR  the function to convert R to RR e.g. a percentile function.
+         * @param <U>        accumulated value type.
+         * @param <R>        collector result type.
+         * @param <RR>       final result type.
+         *
+         * @return a handle for the column result.
+         */
+        public <U, R, RR> Column<RR> share(final String id,
+                                           final Function<T, U> mapper,
+                                           final Collector<U, ?, R> collectorR,
+                                           final UnaryOperator<R> andThenR,
+                                           final Function<R, RR> andThenRR) {
+            return share0(id, mapper, collectorR, null,
+                          () -> SharableCollector.mappingAccumulator(mapper, collectorR),
+                          andThenR, andThenRR);
+        }
+
+        /**
+         * @param id        the id of shared accumulator.
+         * @param mapper    T to double mapper, to extract a double value from T row, without boxing.
+         * @param andThenR  the unary operator processing the DoubleArray e.g. Finishers.sortDoubles().
+         * @param andThenRR the function to convert the DoubleArray to RR e.g. a percentile function.
+         * @param <RR>      final result type.
+         *
+         * @return a handle for the column result.
+         */
+        public <RR> Column<RR> shareDoubles(final String id,
+                                            final ToDoubleFunction<T> mapper,
+                                            final UnaryOperator<DoubleArray> andThenR,
+                                            final Function<DoubleArray, RR> andThenRR) {
+            final Collector<T, DoubleArray, DoubleArray> collectorR = DoubleArray.collector(mapper);
+            return share0(id, mapper, collectorR, DoubleArray.class, collectorR::accumulator, andThenR, andThenRR);
+        }
+
+        /**
+         * @param id        the id of shared accumulator.
+         * @param mapper    T to long mapper, to extract a long value from T row, without boxing.
+         * @param andThenR  the unary operator processing the LongArray e.g. Finishers.sortLongs().
+         * @param andThenRR the function to convert the LongArray to RR e.g. a percentile function.
+         * @param <RR>      final result type.
+         *
+         * @return a handle for the column result.
+         */
+        public <RR> Column<RR> shareLongs(final String id,
+                                          final ToLongFunction<T> mapper,
+                                          final UnaryOperator<LongArray> andThenR,
+                                          final Function<LongArray, RR> andThenRR) {
+            final Collector<T, LongArray, LongArray> collectorR = LongArray.collector(mapper);
+            return share0(id, mapper, collectorR, LongArray.class, collectorR::accumulator, andThenR, andThenRR);
+        }
+
+        private <A, R, RR> Column<RR> share0(final String id,
+                                             final Object mapper,
+                                             final Collector<?, ?, R> collectorR,
+                                             final Class<?> primitiveType,
+                                             final Supplier<BiConsumer<A, T>> accumulator,
+                                             final UnaryOperator<R> andThenR,
+                                             final Function<R, RR> andThenRR) {
+            if (Objects.requireNonNull(id, "id").length() == 0)
+                throw new IllegalStateException("Blank id");
+            Stage.Builder<T, A, R> stage = (Stage.Builder<T, A, R>) stages.get(id);
+            if (null == stage)
+                stages.put(id, stage = new Stage.Builder<>(mapper, collectorR, primitiveType, accumulator.get(),
+                                                           (Function<A, R>) collectorR.finisher()));
+            else {
+                // Validation to try and spot breaking reference/type conflicts for share calls for of id
+                if (mapper != stage.mapper)
+                    throw new IllegalArgumentException(format("mapper %s not %s",
+                                                              mapper, stage.mapper));
+                if (collectorR.getClass() != stage.collectorR.getClass())
+                    throw new IllegalArgumentException(format("collector %s not a %s",
+                                                              collectorR.getClass(), stage.collectorR.getClass()));
+            }
+            stage.add(columns, andThenR, andThenRR);
+            return new Column<>(columns++);
+        }
+
+        /**
+         * Adds a column, sharing a stage with previous columns, where possible.
+         *
+         * @return a handle for the column result.
+         * @see SharingPlan#plan(List)
+         */
+        public <RR> Column<RR> add(final Collector<T, ?, RR> column) {
+            Objects.requireNonNull(column, "column");
+            if (column instanceof SharableCollector)
+                return add((SharableCollector<T, ?, ?, ?, RR>) column);
+            final Stage.Builder<T, Object, Object> stage = (Stage.Builder<T, Object, Object>) stages.computeIfAbsent(
+                    new StageKey(column, column),
+                    k -> new Stage.Builder<>(Function.identity(), (Collector<?, ?, Object>) column, null,
+                                             (BiConsumer<Object, T>) column.accumulator(), Function.identity()));
+            stage.add(columns, UnaryOperator.identity(), (Function<Object, ?>) column.finisher());
+            return new Column<>(columns++);
+        }
+
+        private <A, R, RR> Column<RR> add(final SharableCollector<T, ?, A, R, RR> column) {
+            final Object mapper = column.mapper();
+            final Collector<?, ?, R> collectorR = column.collectorR();
+            final Object collectorKey = null != column.primitiveType()
+                                        ? column.primitiveType()
+                                        : new CollectorKey(collectorR);
+            final Stage.Builder<T, A, R> stage = (Stage.Builder<T, A, R>) stages.computeIfAbsent(
+                    new StageKey(mapper, collectorKey),
+                    k -> new Stage.Builder<>(mapper, collectorR, column.primitiveType(), column.accumulator(),
+                                             (Function<A, R>) collectorR.finisher()));
+            stage.add(columns, column.andThenR(), column.andThenRR());
+            return new Column<>(columns++);
+        }
+
+        /**
+         * The Builder can be reused, to build plans with more columns.
+         */
+        public SharingPlan<T> build() {
+            if (columns == 0)
+                throw new IllegalStateException("No columns");
+            return new SharingPlan<>(this);
+        }
+    }
+
+    /**
+     * Identifies a planned stage, by mapper and collector.
+     */
+    private static final class StageKey {
+        private final Object mapper;
+        private final Object collectorKey;
+
+        private StageKey(final Object mapper, final Object collectorKey) {
+            this.mapper = mapper;
+            this.collectorKey = collectorKey;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof StageKey))
+                return false;
+            final StageKey k = (StageKey) o;
+            return mapper == k.mapper && collectorKey.equals(k.collectorKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(mapper) + collectorKey.hashCode();
+        }
+    }
+
+    /**
+     * Collectors are the same if they have the same functions and characteristics, because separate calls of e.g.
+     * Collectors.toList() return new instances, with the same non-capturing functions.
+     */
+    private static final class CollectorKey {
+        private final Object supplier;
+        private final Object accumulator;
+        private final Object combiner;
+        private final Object finisher;
+        private final Set<Collector.Characteristics> characteristics;
+
+        private CollectorKey(final Collector<?, ?, ?> c) {
+            this.supplier = c.supplier();
+            this.accumulator = c.accumulator();
+            this.combiner = c.combiner();
+            this.finisher = c.finisher();
+            this.characteristics = c.characteristics();
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof CollectorKey))
+                return false;
+            final CollectorKey k = (CollectorKey) o;
+            return supplier == k.supplier && accumulator == k.accumulator && combiner == k.combiner
+                   && finisher == k.finisher && characteristics.equals(k.characteristics);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(supplier), System.identityHashCode(accumulator),
+                                System.identityHashCode(combiner), System.identityHashCode(finisher));
+        }
+    }
+}
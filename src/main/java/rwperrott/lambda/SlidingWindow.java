@@ -0,0 +1,240 @@
+package rwperrott.lambda;
+
+import org.jooq.lambda.Window;
+
+import java.util.Objects;
+import java.util.Optional;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+/**
+ * A windowed alternative to SharableCollector.IdMap, for jOOL Window functions, which keeps the frame values in an
+ * order-statistic frame, then slides it by one row, adding the entering value and removing the leaving value, rather
+ * than re-collecting and re-sorting the whole frame for each row.
+ * <p>
+ * Create with the same ROWS frame bounds as the Window, then share the frame with the finishers of each column e.g.
+ * <pre>
+ * var sliding = SlidingWindow.ofDoubles(mapper, -99, 0);
+ * var p50 = sliding.share(Finishers.percentileDouble(0.5d, DoublePercentileFunction.interpolate()));
+ * var p95 = sliding.share(Finishers.percentileDouble(0.95d, DoublePercentileFunction.interpolate()));
+ * seq.window(Window.of(-99, 0)).map(t -> tuple(t.v1.value(), p50.apply(t.v1), p95.apply(t.v1)));
+ * </pre>
+ * The frame only slides once per Window, so all sharers are answered from the same frame.
+ * <p>
+ * Sliding needs the previous Window to be for the previous row of the same partition, detected by the partition key and
+ * rowNumber(), otherwise the frame is rebuilt from Window.window(), so interleaved partitions will be slower.  Window
+ * doesn't expose its partition, so create with the same partitionBy function as a partitioned Window, and only use for
+ * one Seq.window() call.
+ * <p>
+ * Not Thread-safe, so only use with a sequential Seq.
+ *
+ * @param <T> row type
+ * @param <R> frame type
+ */
+public abstract class SlidingWindow<T, R> {
+    private final Function<? super T, ?> partitionBy;
+    private final long lower;
+    private final long upper;
+    private Window<T> last;
+    private long lastRowNumber;
+    private Object lastPartition;
+
+    private SlidingWindow(final Function<? super T, ?> partitionBy, final long lower, final long upper) {
+        if (lower > upper)
+            throw new IllegalArgumentException("lower > upper");
+        this.partitionBy = Objects.requireNonNull(partitionBy, "partitionBy");
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    /**
+     * For an unpartitioned Window.
+     *
+     * @param mapper extracts a double value from each T, without boxing.
+     * @param lower  frame start, relative to the current row, or Long.MIN_VALUE for unbounded preceding.
+     * @param upper  frame end, relative to the current row, or Long.MAX_VALUE for unbounded following.
+     */
+    public static <T> SlidingWindow<T, DoubleFrame> ofDoubles(final ToDoubleFunction<? super T> mapper,
+                                                               final long lower,
+                                                               final long upper) {
+        return new OfDoubles<>(mapper, t -> null, lower, upper);
+    }
+
+    /**
+     * @param mapper      extracts a double value from each T, without boxing.
+     * @param partitionBy the same partition key function as the Window.
+     * @param lower       frame start, relative to the current row, or Long.MIN_VALUE for unbounded preceding.
+     * @param upper       frame end, relative to the current row, or Long.MAX_VALUE for unbounded following.
+     */
+    public static <T> SlidingWindow<T, DoubleFrame> ofDoubles(final ToDoubleFunction<? super T> mapper,
+                                                               final Function<? super T, ?> partitionBy,
+                                                               final long lower,
+                                                               final long upper) {
+        return new OfDoubles<>(mapper, partitionBy, lower, upper);
+    }
+
+    /**
+     * For an unpartitioned Window.
+     *
+     * @param mapper extracts a long value from each T, without boxing.
+     * @param lower  frame start, relative to the current row, or Long.MIN_VALUE for unbounded preceding.
+     * @param upper  frame end, relative to the current row, or Long.MAX_VALUE for unbounded following.
+     */
+    public static <T> SlidingWindow<T, LongFrame> ofLongs(final ToLongFunction<? super T> mapper,
+                                                           final long lower,
+                                                           final long upper) {
+        return new OfLongs<>(mapper, t -> null, lower, upper);
+    }
+
+    /**
+     * @param mapper      extracts a long value from each T, without boxing.
+     * @param partitionBy the same partition key function as the Window.
+     * @param lower       frame start, relative to the current row, or Long.MIN_VALUE for unbounded preceding.
+     * @param upper       frame end, relative to the current row, or Long.MAX_VALUE for unbounded following.
+     */
+    public static <T> SlidingWindow<T, LongFrame> ofLongs(final ToLongFunction<? super T> mapper,
+                                                           final Function<? super T, ?> partitionBy,
+                                                           final long lower,
+                                                           final long upper) {
+        return new OfLongs<>(mapper, partitionBy, lower, upper);
+    }
+
+    /**
+     * @param andThenRR e.g. Finishers.percentile
+     *
+     * @return a function applying andThenRR to the frame of each Window.
+     */
+    public final <RR> Function<Window<T>, RR> share(final Function<? super R, RR> andThenRR) {
+        Objects.requireNonNull(andThenRR, "andThenRR");
+        return w -> andThenRR.apply(slide(w));
+    }
+
+    /**
+     * @return the frame for w, which is only valid until the next Window.
+     */
+    public final R slide(final Window<T> w) {
+        if (w != last) {
+            final Object partition = partitionBy.apply(w.value());
+            if (last == null
+                || w.rowNumber() != lastRowNumber + 1
+                || !Objects.equals(partition, lastPartition)
+                || !step(w)
+                || count() != w.count()) {
+                clear();
+                if (w.count() > 0) // jOOL window() fails for an empty frame past the partition end.
+                    w.window().forEach(this::add);
+            }
+            last = w;
+            lastRowNumber = w.rowNumber();
+            lastPartition = partition;
+        }
+        return frame();
+    }
+
+    /**
+     * Removes the row before the previous frame, and adds the row after it.
+     *
+     * @return false if the leaving value wasn't in the frame.
+     */
+    private boolean step(final Window<T> w) {
+        if (lower != Long.MIN_VALUE) {
+            final Optional<T> leaving = relative(w, lower - 1);
+            if (leaving.isPresent() && !remove(leaving.get()))
+                return false;
+        }
+        if (upper != Long.MAX_VALUE)
+            relative(w, upper).ifPresent(this::add);
+        return true;
+    }
+
+    private static <T> Optional<T> relative(final Window<T> w, final long offset) {
+        return offset < 0 ? w.lag(-offset) : w.lead(offset);
+    }
+
+    abstract void add(T t);
+
+    abstract boolean remove(T t);
+
+    abstract void clear();
+
+    abstract long count();
+
+    abstract R frame();
+
+    public static final class OfDoubles<T> extends SlidingWindow<T, DoubleFrame> {
+        private final ToDoubleFunction<? super T> mapper;
+        private final DoubleFrame frame = new DoubleFrame();
+
+        OfDoubles(final ToDoubleFunction<? super T> mapper,
+                         final Function<? super T, ?> partitionBy,
+                         final long lower,
+                         final long upper) {
+            super(partitionBy, lower, upper);
+            this.mapper = Objects.requireNonNull(mapper, "mapper");
+        }
+
+        @Override
+        void add(final T t) {
+            frame.add(mapper.applyAsDouble(t));
+        }
+
+        @Override
+        boolean remove(final T t) {
+            return frame.remove(mapper.applyAsDouble(t));
+        }
+
+        @Override
+        void clear() {
+            frame.clear();
+        }
+
+        @Override
+        long count() {
+            return frame.count();
+        }
+
+        @Override
+        DoubleFrame frame() {
+            return frame;
+        }
+    }
+
+    public static final class OfLongs<T> extends SlidingWindow<T, LongFrame> {
+        private final ToLongFunction<? super T> mapper;
+        private final LongFrame frame = new LongFrame();
+
+        OfLongs(final ToLongFunction<? super T> mapper,
+                       final Function<? super T, ?> partitionBy,
+                       final long lower,
+                       final long upper) {
+            super(partitionBy, lower, upper);
+            this.mapper = Objects.requireNonNull(mapper, "mapper");
+        }
+
+        @Override
+        void add(final T t) {
+            frame.add(mapper.applyAsLong(t));
+        }
+
+        @Override
+        boolean remove(final T t) {
+            return frame.remove(mapper.applyAsLong(t));
+        }
+
+        @Override
+        void clear() {
+            frame.clear();
+        }
+
+        @Override
+        long count() {
+            return frame.count();
+        }
+
+        @Override
+        LongFrame frame() {
+            return frame;
+        }
+    }
+}
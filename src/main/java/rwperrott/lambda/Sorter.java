@@ -0,0 +1,29 @@
+package rwperrott.lambda;
+
+import java.util.function.UnaryOperator;
+
+/**
+ * An andThenR from Finishers, which only reorders R, so when all the sharers of an id use Sorters, the first can sort
+ * r once, then share it read-only, and the others reuse its order, instead of each sorting a protected copy.
+ *
+ * @param <R> the sorted type
+ */
+interface Sorter<R> extends UnaryOperator<R> {
+    /**
+     * @param sorted the result of apply().
+     *
+     * @return sorted, as a read-only view, which records its order, so other Sorters can skip sorting, or reverse it
+     * by index remapping.
+     */
+    R readOnly(R sorted);
+
+    /**
+     * @return true if all of andThenRs are Sorters.
+     */
+    static boolean all(final Iterable<? extends UnaryOperator<?>> andThenRs) {
+        for (UnaryOperator<?> andThenR : andThenRs)
+            if (!(andThenR instanceof Sorter))
+                return false;
+        return true;
+    }
+}
@@ -0,0 +1,84 @@
+package rwperrott.lambda;
+
+import static org.jooq.lambda.tuple.Tuple.tuple;
+import static org.testng.Assert.*;
+
+import org.jooq.lambda.Seq;
+import org.jooq.lambda.tuple.Tuple;
+import org.jooq.lambda.tuple.Tuple2;
+import org.testng.annotations.*;
+
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+public class BatchesTest {
+    static final List<Tuple2<String, Long>> namedValues;
+
+    static {
+        final Random random = new Random(42);
+        namedValues = Seq.range(0, 10_001)
+                         .map(i -> tuple("Row" + i, (long) random.nextInt(10_000)))
+                         .toList();
+    }
+
+    @Test
+    public void planTest() {
+        final ToDoubleFunction<Tuple2<String, Long>> doubles = t -> t.v2;
+        final ToLongFunction<Tuple2<String, Long>> longs = t -> t.v2;
+        final Function<Tuple2<String, Long>, Long> keyExtractor = t -> t.v2;
+        final var b = SharingPlan.<Tuple2<String, Long>>builder();
+        b.shareDoubles("A", doubles, Finishers.sortDoubles(),
+                       Finishers.percentileDouble(0.5d, DoublePercentileFunction.interpolate()));
+        b.shareLongs("B", longs, Finishers.sortLongs(), Finishers.percentileLong(0.99d, LongPercentileFunction.ceil()));
+        b.share("C", Collectors.toList(), Finishers.sortList(keyExtractor),
+                Finishers.percentile(0.9d, PercentileFunction.floor()));
+        b.share("D", t -> t.v1, Collectors.<String>toList(), Finishers.<String>sortList(),
+                Finishers.percentile(0.1d, PercentileFunction.floor()));
+        b.add(Collectors.counting());
+        final SharingPlan<Tuple2<String, Long>> plan = b.build();
+
+        final Object[] expected = namedValues.stream().collect(plan.collector());
+        assertEquals(Batches.collect(namedValues.stream(), plan.collector()), expected);
+        assertEquals(Batches.collect(Seq.seq(namedValues), plan.collector()), expected);
+        assertEquals(Batches.collect(namedValues.spliterator(), plan.collector(), 7), expected); // Partial batches
+        assertEquals(Batches.collect(namedValues.parallelStream(), plan.collector()), expected);
+        @SuppressWarnings("unchecked")
+        final Tuple2<String, Long>[] rows = namedValues.toArray((Tuple2<String, Long>[]) new Tuple2<?, ?>[0]);
+        assertEquals(Batches.collect(rows, 0, rows.length, plan.collector()), expected);
+    }
+
+    @Test
+    public void sharableCollectorTest() {
+        final ToDoubleFunction<Tuple2<String, Long>> mapper = t -> t.v2;
+        final var doubles = SharableCollector.ofDoubles(mapper, Finishers.sortDoubles(),
+                                                        Finishers.percentileDouble(0.75d, DoublePercentileFunction.floor()));
+        assertEquals(Batches.collect(namedValues.stream(), doubles), namedValues.stream().collect(doubles));
+        final var list = SharableCollector.of(Collectors.<Long>toList(), Finishers.<Long>sortList(),
+                                              Finishers.percentile(0.75d, PercentileFunction.floor()));
+        final List<Long> values = Seq.seq(namedValues).map(t -> t.v2).toList();
+        assertEquals(Batches.collect(values.stream(), list), values.stream().collect(list));
+
+        // Not a BatchCollector, so via its accumulator.
+        final var both = Tuple.collectors(Collectors.<Tuple2<String, Long>>counting(),
+                                          Collectors.summingLong((Tuple2<String, Long> t) -> t.v2));
+        assertEquals(Batches.collect(namedValues.stream(), both), namedValues.stream().collect(both));
+    }
+
+    @Test
+    public void bulkAddTest() {
+        final DoubleArray d = new DoubleArray();
+        d.addAll(new double[]{3d, 1d, 2d}, 1, 3);
+        d.addAll(new String[]{"4", "5"}, 0, 2, Double::parseDouble);
+        assertEquals(d.toArray(), new double[]{1d, 2d, 4d, 5d});
+        assertFalse(d.isSorted());
+        final LongArray l = new LongArray();
+        l.addAll(new Long[]{7L, 8L, 9L}, 1, 2, Long::longValue);
+        assertEquals(l.toArray(), new long[]{8L});
+        assertThrows(IndexOutOfBoundsException.class, () -> l.addAll(new long[1], 0, 2));
+        assertThrows(UnsupportedOperationException.class, () -> l.unmodifiable().addAll(new long[1], 0, 1));
+    }
+}
@@ -0,0 +1,100 @@
+package rwperrott.lambda;
+
+import static org.jooq.lambda.tuple.Tuple.tuple;
+import static org.testng.Assert.*;
+
+import org.jooq.lambda.Seq;
+import org.jooq.lambda.tuple.Tuple;
+import org.jooq.lambda.tuple.Tuple2;
+import org.testng.annotations.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+public class CountsTest {
+    static final List<Tuple2<String, Long>> namedValues;
+    static final double[] ps = {0d, 0.001d, 0.1d, 0.25d, 0.5d, 0.75d, 0.9d, 0.99d, 0.999d, 1d};
+
+    static {
+        // Few distinct values e.g. rounded latencies.
+        final Random random = new Random(11);
+        namedValues = Seq.range(0, 50_001)
+                         .map(i -> tuple("Row" + i, (long) (random.nextGaussian() * 20d) * 5L))
+                         .toList();
+    }
+
+    @Test
+    public void longCountsTest() {
+        final ToLongFunction<Tuple2<String, Long>> mapper = t -> t.v2;
+        final LongCounts counts = namedValues.parallelStream().collect(LongCounts.collector(mapper));
+        final LongArray sorted = namedValues.stream().collect(LongArray.collector(mapper)).sort();
+        assertEquals(counts.count(), sorted.size());
+        assertTrue(counts.distinct() < 1_000, "distinct " + counts.distinct());
+        assertEquals(counts.countOf(0L), namedValues.stream().filter(t -> t.v2 == 0L).count());
+        assertEquals(Arrays.stream(counts.counts()).sum(), counts.count());
+        for (LongPercentileFunction f : List.of(LongPercentileFunction.floor(), LongPercentileFunction.ceil(),
+                                                LongPercentileFunction.halfUp(),
+                                                LongPercentileFunction.interpolate()))
+            assertEquals(Finishers.percentilesLong(ps, f).apply(counts), Finishers.percentilesLong(ps, f).apply(sorted));
+        for (long rank = 0; rank < counts.count(); rank += 101)
+            assertEquals(counts.valueAt(rank), sorted.valueAt(rank));
+        assertThrows(IndexOutOfBoundsException.class, () -> counts.valueAt(counts.count()));
+    }
+
+    @Test
+    public void doubleCountsTest() {
+        final DoubleCounts counts = new DoubleCounts();
+        final DoubleArray array = new DoubleArray();
+        for (double d : new double[]{2.5d, Double.NaN, -0.0d, 0.0d, -1d, 2.5d, Double.NaN, 2.5d, -1d}) {
+            counts.add(d);
+            array.add(d);
+        }
+        final DoubleArray sorted = array.sort();
+        assertEquals(counts.distinct(), 5);
+        assertEquals(counts.countOf(2.5d), 3);
+        for (long rank = 0; rank < counts.count(); rank++)
+            assertEquals(Double.compare(counts.valueAt(rank), sorted.valueAt(rank)), 0, "rank " + rank);
+        for (DoublePercentileFunction f : List.of(DoublePercentileFunction.floor(), DoublePercentileFunction.ceil(),
+                                                  DoublePercentileFunction.halfUp(),
+                                                  DoublePercentileFunction.interpolate()))
+            // Arrays.equals, because NaN != NaN
+            assertTrue(Arrays.equals(Finishers.percentilesDouble(ps, f).apply(counts),
+                                     Finishers.percentilesDouble(ps, f).apply(sorted)));
+    }
+
+    @Test
+    public void sharedTest() {
+        final Function<Tuple2<String, Long>, Long> mapper = t -> t.v2;
+        final Function<Tuple2<String, Long>, Double> doubles = t -> (double) t.v2;
+        final UnaryOperator<List<Long>> identity = UnaryOperator.identity();
+        for (double p : ps) {
+            final var idMap = new SharableCollector.IdMap();
+            final var r = namedValues.parallelStream().collect(Tuple.collectors(
+                    SharableCollector.of(mapper, Collectors.toList(), Finishers.sortList(),
+                                         Finishers.percentile(p, PercentileFunction.floor())),
+                    idMap.share("A", mapper, ListCounts.collector(), identity,
+                                Finishers.percentile(p, PercentileFunction.floor())),
+                    idMap.share("A", mapper, ListCounts.collector(), identity,
+                                Finishers.percentile(p, PercentileFunction.ceil())),
+                    SharableCollector.of(doubles, Collectors.toList(), Finishers.sortList(),
+                                         Finishers.percentile(p, PercentileFunction.interpolateDouble())),
+                    SharableCollector.of(doubles, ListCounts.collector(), UnaryOperator.identity(),
+                                         Finishers.percentile(p, PercentileFunction.interpolateDouble()))));
+            assertEquals(r.v2, r.v1, "p=" + p);
+            assertTrue(r.v2.orElseThrow() <= r.v3.orElseThrow(), "p=" + p);
+            assertEquals(r.v5, r.v4, "p=" + p);
+        }
+        final ListCounts<Long> counts = (ListCounts<Long>) namedValues.stream().map(mapper)
+                                                                      .collect(ListCounts.collector());
+        final List<Long> sorted = Finishers.<Long>sortList().apply(namedValues.stream().map(mapper)
+                                                                              .collect(Collectors.toList()));
+        assertEquals(counts, sorted); // Iteration and equals work, because all the values are represented.
+        assertEquals(counts.values(), Seq.seq(sorted).distinct().toList());
+    }
+}
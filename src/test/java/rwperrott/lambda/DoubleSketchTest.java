@@ -0,0 +1,146 @@
+package rwperrott.lambda;
+
+import static org.testng.Assert.*;
+
+import org.jooq.lambda.tuple.Tuple;
+import org.testng.annotations.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collector;
+
+public class DoubleSketchTest {
+    static final double[] percentiles = {0d, 0.01d, 0.1d, 0.25d, 0.5d, 0.75d, 0.9d, 0.95d, 0.99d, 0.999d, 1d};
+    static final int N = 1_000_003;
+    static final double[] values = new double[N];
+
+    static {
+        // Exponential, like latencies.
+        final Random random = new Random(3);
+        for (int i = 0; i < N; i++)
+            values[i] = -Math.log(1d - random.nextDouble()) * 100d;
+    }
+
+    /**
+     * @return the normalized rank distance of v from percentile p, in sorted.
+     */
+    static double rankError(final double[] sorted, final double v, final double p) {
+        int lo = Arrays.binarySearch(sorted, v);
+        if (lo < 0)
+            lo = -(lo + 1);
+        int hi = lo;
+        while (hi < sorted.length && sorted[hi] == v)
+            hi++;
+        final double rank = p * sorted.length;
+        return rank < lo ? (lo - rank) / sorted.length
+                         : rank > hi ? (rank - hi) / sorted.length
+                                     : 0d;
+    }
+
+    @Test
+    public void accuracyTest() {
+        System.out.println();
+        System.out.println("accuracyTest");
+        final double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        System.out.println("    k | retained | max rank error | estimate");
+        for (int k : new int[]{50, 200, 800}) {
+            final DoubleSketch s =
+                    Arrays.stream(values).boxed().parallel()
+                          .collect(DoubleSketch.collector(Double::doubleValue, k, 17));
+            assertEquals(s.count(), N);
+            double maxError = 0d;
+            for (double p : percentiles) {
+                final double v = Finishers.percentileDouble(p, DoublePercentileFunction.floor()).apply(s).orElseThrow();
+                maxError = Math.max(maxError, rankError(sorted, v, p));
+            }
+            System.out.printf(" %4d | %8d | %14.5f | %8.5f%n", k, s.retained(), maxError, s.normalizedRankError());
+            assertTrue(maxError <= 2d * s.normalizedRankError(), "k=" + k + " error " + maxError);
+            assertTrue(s.retained() <= 3 * k + 64, "k=" + k + " retained " + s.retained());
+            assertEquals(s.valueAt(0), sorted[0]);
+            assertEquals(s.valueAt(N - 1), sorted[N - 1]);
+        }
+    }
+
+    @Test
+    public void mergeTest() {
+        final DoubleSketch a = new DoubleSketch(100, 1);
+        final DoubleSketch b = new DoubleSketch(100, 2);
+        for (int i = 0; i < 10_000; i++)
+            a.add(i);
+        for (int i = 10_000; i < 30_000; i++)
+            b.add(i);
+        final DoubleSketch m = new DoubleSketch(100, 3).merge(a).merge(b);
+        assertEquals(m.count(), 30_000L);
+        assertEquals(m.valueAt(0), 0d);
+        assertEquals(m.valueAt(29_999), 29_999d);
+        assertEquals(m.valueAt(15_000), 15_000d, 30_000 * 2d * m.normalizedRankError());
+    }
+
+    @Test
+    public void seedTest() {
+        final double[][] runs = new double[2][];
+        for (int run = 0; run < runs.length; run++) {
+            final DoubleSketch s = Arrays.stream(values).boxed().collect(DoubleSketch.collector(Double::doubleValue,
+                                                                                                  50, 23));
+            runs[run] = Finishers.percentilesDouble(percentiles, DoublePercentileFunction.floor()).apply(s);
+        }
+        assertEquals(runs[1], runs[0]);
+
+        // Each container has its own seed, so their compaction errors don't correlate.
+        final Collector<Double, DoubleSketch, DoubleSketch> c = DoubleSketch.collector(Double::doubleValue, 50, 23);
+        final DoubleSketch a = c.supplier().get(), b = c.supplier().get();
+        for (double v : values) {
+            a.add(v);
+            b.add(v);
+        }
+        assertNotEquals(Finishers.percentilesDouble(percentiles, DoublePercentileFunction.floor()).apply(a),
+                        Finishers.percentilesDouble(percentiles, DoublePercentileFunction.floor()).apply(b));
+    }
+
+    /**
+     * Prints timings for the exact and sketch paths, sharing one collector for several percentiles.
+     */
+    @Test
+    public void compareTest() {
+        System.out.println();
+        System.out.println("compareTest");
+        final ToDoubleFunction<Double> mapper = Double::doubleValue;
+        final Collector<Double, DoubleSketch, DoubleSketch> sketch = DoubleSketch.collector(mapper);
+        final UnaryOperator<DoubleSketch> andThenR = UnaryOperator.identity();
+        System.out.println(" path   | parallel |  ms  | p50      | p99      | p99.9");
+        for (boolean parallel : new boolean[]{false, true}) {
+            for (int pass = 0; pass < 2; pass++) { // 1st pass is warm-up
+                final var exactIdMap = new SharableCollector.IdMap();
+                final var sketchIdMap = new SharableCollector.IdMap();
+                var stream = Arrays.stream(values).boxed();
+                long t0 = System.nanoTime();
+                final var exact = (parallel ? stream.parallel() : stream).collect(Tuple.collectors(
+                        exactIdMap.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                                Finishers.percentileDouble(0.5d, DoublePercentileFunction.interpolate())),
+                        exactIdMap.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                                Finishers.percentileDouble(0.99d, DoublePercentileFunction.interpolate())),
+                        exactIdMap.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                                Finishers.percentileDouble(0.999d, DoublePercentileFunction.interpolate()))));
+                long t1 = System.nanoTime();
+                stream = Arrays.stream(values).boxed();
+                final var approx = (parallel ? stream.parallel() : stream).collect(Tuple.collectors(
+                        sketchIdMap.share("A", sketch, andThenR,
+                                          Finishers.percentileDouble(0.5d, DoublePercentileFunction.interpolate())),
+                        sketchIdMap.share("A", sketch, andThenR,
+                                          Finishers.percentileDouble(0.99d, DoublePercentileFunction.interpolate())),
+                        sketchIdMap.share("A", sketch, andThenR,
+                                          Finishers.percentileDouble(0.999d, DoublePercentileFunction.interpolate()))));
+                long t2 = System.nanoTime();
+                if (pass == 0)
+                    continue;
+                System.out.printf(" exact  | %-8s | %4d | %8.3f | %8.3f | %8.3f%n", parallel, (t1 - t0) / 1_000_000,
+                                  exact.v1.orElseThrow(), exact.v2.orElseThrow(), exact.v3.orElseThrow());
+                System.out.printf(" sketch | %-8s | %4d | %8.3f | %8.3f | %8.3f%n", parallel, (t2 - t1) / 1_000_000,
+                                  approx.v1.orElseThrow(), approx.v2.orElseThrow(), approx.v3.orElseThrow());
+            }
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package rwperrott.lambda;
+
+import static org.jooq.lambda.tuple.Tuple.tuple;
+import static org.testng.Assert.*;
+
+import org.jooq.lambda.Seq;
+import org.jooq.lambda.tuple.Tuple;
+import org.jooq.lambda.tuple.Tuple2;
+import org.testng.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+
+public class FinishersTest {
+    static final List<Tuple2<String, Double>> namedValues;
+
+    static {
+        final Random random = new Random(13);
+        namedValues = Seq.range(0, 200_003)
+                         .map(i -> tuple("Row" + i, random.nextDouble()))
+                         .toList();
+    }
+
+    @Test
+    public void parallelSortListTest() {
+        final Function<Tuple2<String, Double>, Double> keyExtractor = t -> t.v2;
+        assertSame(Finishers.parallelSortList(keyExtractor, 1000), Finishers.parallelSortList(keyExtractor, 1000));
+        assertNotSame(Finishers.parallelSortList(keyExtractor, 1000), Finishers.sortList(keyExtractor));
+
+        final List<Tuple2<String, Double>> expected = new ArrayList<>(namedValues);
+        expected.sort(Comparator.comparing(keyExtractor));
+
+        final List<Tuple2<String, Double>> modifiable = new ArrayList<>(namedValues);
+        assertSame(Finishers.parallelSortList(keyExtractor, 1000).apply(modifiable), modifiable);
+        assertEquals(modifiable, expected);
+
+        final List<Tuple2<String, Double>> unmodifiable = Collections.unmodifiableList(new ArrayList<>(namedValues));
+        assertEquals(Finishers.parallelSortList(keyExtractor, 1000).apply(unmodifiable), expected);
+        assertEquals(unmodifiable, namedValues);
+    }
+
+    @Test
+    public void parallelSortDoublesTest() {
+        assertSame(Finishers.parallelSortDoubles(), Finishers.parallelSortDoubles(Finishers.DEFAULT_PARALLEL_THRESHOLD));
+        final DoubleArray a = new DoubleArray();
+        for (Tuple2<String, Double> t : namedValues)
+            a.add(t.v2);
+        final double[] expected = a.toArray();
+        Arrays.sort(expected);
+        final DoubleArray view = a.unmodifiable();
+        final DoubleArray sorted = Finishers.parallelSortDoubles(1000).apply(view);
+        assertNotSame(sorted, view);
+        assertEquals(sorted.toArray(), expected);
+        assertSame(Finishers.parallelSortDoubles(1000).apply(a), a);
+        assertEquals(a.toArray(), expected);
+    }
+
+    @Test
+    public void sortedRunsTest() {
+        final Function<Tuple2<String, Double>, Double> keyExtractor = t -> t.v2;
+        final List<Tuple2<String, Double>> expected = new ArrayList<>(namedValues);
+        expected.sort(Comparator.comparing(keyExtractor));
+
+        final List<Tuple2<String, Double>> runs =
+                namedValues.parallelStream().collect(Finishers.sortedRunsList(keyExtractor));
+        assertSame(Finishers.sortList(keyExtractor).apply(runs), runs);
+        assertEquals(runs, expected);
+        runs.set(0, runs.get(runs.size() - 1));
+        assertEquals(Finishers.sortList(keyExtractor).apply(runs).get(0), expected.get(1));
+
+        final List<Tuple2<String, Double>> sequential =
+                namedValues.stream().collect(Finishers.sortedRunsList(keyExtractor));
+        assertEquals(Finishers.sortList(keyExtractor).apply(sequential), expected);
+
+        final double[] expectedDoubles = namedValues.stream().mapToDouble(t -> t.v2).sorted().toArray();
+        final DoubleArray a = namedValues.parallelStream()
+                                         .collect(DoubleArray.sortedRunsCollector((Tuple2<String, Double> t) -> t.v2));
+        assertTrue(a.isSorted());
+        assertEquals(a.toArray(), expectedDoubles);
+        final LongArray l = namedValues.parallelStream()
+                                       .collect(LongArray.sortedRunsCollector((Tuple2<String, Double> t) -> (long) (t.v2 * 1e9)));
+        assertTrue(l.isSorted());
+        assertEquals(l.toArray(), Arrays.stream(expectedDoubles).mapToLong(d -> (long) (d * 1e9)).toArray());
+    }
+
+    @Test
+    public void keyCachedSortTest() {
+        final Function<Tuple2<String, Double>, Double> keyExtractor = t -> t.v2;
+        final List<Tuple2<String, Double>> expected = new ArrayList<>(namedValues);
+        expected.sort(Comparator.comparing(keyExtractor));
+
+        assertSame(Finishers.sortListCached(keyExtractor), Finishers.sortListCached(keyExtractor));
+        final List<Tuple2<String, Double>> modifiable = new ArrayList<>(namedValues);
+        assertSame(Finishers.sortListCached(keyExtractor).apply(modifiable), modifiable);
+        assertEquals(modifiable, expected);
+        assertEquals(Finishers.sortListCached(keyExtractor).apply(Collections.unmodifiableList(namedValues)),
+                     expected);
+
+        final ToDoubleFunction<Tuple2<String, Double>> doubleKey = t -> t.v2;
+        assertSame(Finishers.sortListByDouble(doubleKey), Finishers.sortListByDouble(doubleKey));
+        final List<Tuple2<String, Double>> keyed = Finishers.sortListByDouble(doubleKey).apply(namedValues);
+        assertEquals(keyed, expected);
+        assertSame(Finishers.sortListByDouble(doubleKey).apply(keyed), keyed);
+        final DoubleArray a = namedValues.stream().collect(DoubleArray.collector(doubleKey)).sort();
+        for (double p : new double[]{0d, 0.25d, 0.5d, 0.99d, 1d}) {
+            final var expectedP = Finishers.percentileDouble(p, DoublePercentileFunction.interpolate()).apply(a);
+            assertEquals(Finishers.percentileDouble(p, doubleKey, DoublePercentileFunction.interpolate()).apply(keyed),
+                         expectedP);
+            // Not keyed, so extracts keys
+            assertEquals(Finishers.percentileDouble(p, doubleKey, DoublePercentileFunction.interpolate()).apply(expected),
+                         expectedP);
+        }
+    }
+
+    @Test
+    public void longKeyedSortTest() {
+        final Random random = new Random(19);
+        // Few distinct and negative keys, to check stability and sign order.
+        final List<Tuple2<String, Long>> rows = Seq.range(0, 10_001)
+                                                   .map(i -> tuple("Row" + i, (long) random.nextInt(100) - 50))
+                                                   .toList();
+        final ToLongFunction<Tuple2<String, Long>> key = t -> t.v2;
+        final List<Tuple2<String, Long>> expected = new ArrayList<>(rows);
+        expected.sort(Comparator.comparingLong(key));
+        final List<Tuple2<String, Long>> keyed = Finishers.sortListByLong(key).apply(rows);
+        assertEquals(keyed, expected);
+        assertEquals(Finishers.percentilesLong(new double[]{0d, 0.5d, 1d}, key, LongPercentileFunction.floor()).apply(keyed),
+                     new long[]{expected.get(0).v2, expected.get(5000).v2, expected.get(10_000).v2});
+
+        // Sorters, so derivable and sharable read-only, and cached per key type.
+        assertTrue(Finishers.sortListByLong(key) instanceof Sorter);
+        final List<Tuple2<String, Long>> descending = new ArrayList<>(expected);
+        Collections.reverse(descending);
+        assertEquals(Finishers.reversed(Finishers.sortListByLong(key)).apply(rows).stream().map(t -> t.v2)
+                              .collect(Collectors.toList()),
+                     descending.stream().map(t -> t.v2).collect(Collectors.toList()));
+        final var idMap = new SharableCollector.IdMap();
+        final var r = rows.stream().collect(Tuple.collectors(
+                idMap.share("A", Collectors.toList(), Finishers.sortListByLong(key),
+                            Finishers.percentileLong(0.5d, key, LongPercentileFunction.floor())),
+                idMap.share("A", Collectors.toList(), Finishers.sortList(t -> t.v2),
+                            Finishers.percentile(0.5d, PercentileFunction.floor()))));
+        assertEquals(r.v1.getAsLong(), expected.get(5000).v2.longValue());
+        assertEquals(r.v2.orElseThrow().v2, expected.get(5000).v2);
+        final BothKeys both = new BothKeys();
+        assertNotSame(Finishers.<Tuple2<String, Long>>sortListByDouble(both),
+                      Finishers.<Tuple2<String, Long>>sortListByLong(both));
+        assertTrue(Finishers.<Tuple2<String, Long>>sortListByDouble(both).apply(rows) instanceof DoubleKeyedList);
+        assertTrue(Finishers.<Tuple2<String, Long>>sortListByLong(both).apply(rows) instanceof LongKeyedList);
+    }
+
+    static final class BothKeys implements ToDoubleFunction<Tuple2<String, Long>>, ToLongFunction<Tuple2<String, Long>> {
+        @Override
+        public double applyAsDouble(final Tuple2<String, Long> t) {
+            return t.v2;
+        }
+
+        @Override
+        public long applyAsLong(final Tuple2<String, Long> t) {
+            return t.v2;
+        }
+    }
+
+    @Test
+    public void sortOrderTest() {
+        final List<Tuple2<String, Double>> rows = namedValues.subList(0, 10_007);
+        final Function<Tuple2<String, Double>, Integer> bucket = t -> (int) (t.v2 * 10);
+        final Function<Tuple2<String, Double>, String> name = t -> t.v1;
+        final var byBucket = Finishers.sortList(bucket);
+        final var byBucketName = Finishers.thenSortList(byBucket, name);
+        assertSame(Finishers.thenSortList(byBucket, name), byBucketName);
+        assertSame(Finishers.reversed(Finishers.reversed(byBucket)), byBucket);
+        assertSame(Finishers.reversed(Finishers.reversed(Finishers.<Double>sortList())), Finishers.<Double>sortList());
+        assertThrows(IllegalArgumentException.class, () -> Finishers.reversed(l -> l));
+
+        final List<Tuple2<String, Double>> expected = new ArrayList<>(rows);
+        expected.sort(Comparator.comparing(bucket).thenComparing(name));
+        final List<Tuple2<String, Double>> reversed = new ArrayList<>(expected);
+        Collections.reverse(reversed);
+        assertEquals(byBucketName.apply(new ArrayList<>(rows)), expected);
+        assertEquals(Finishers.reversed(byBucketName).apply(new ArrayList<>(rows)), reversed);
+
+        final SharingMetrics.Counters counters = SharingMetrics.counters();
+        SharingMetrics.setListener(counters);
+        try {
+            final Function<List<Tuple2<String, Double>>, List<Tuple2<String, Double>>> copy = ArrayList::new;
+            final var idMap = new SharableCollector.IdMap();
+            final var r = rows.stream().collect(Tuple.collectors(
+                    idMap.share("A", Collectors.toList(), byBucketName, copy),
+                    idMap.share("A", Collectors.toList(), byBucket, copy),
+                    idMap.share("A", Collectors.toList(), Finishers.reversed(byBucket), copy),
+                    idMap.share("A", Collectors.toList(), Finishers.reversed(byBucketName), copy)));
+            assertEquals(r.v1, expected);
+            assertEquals(r.v2, expected); // Prefix order, so the same list
+            assertEquals(r.v3, reversed);
+            assertEquals(r.v4, reversed);
+            // Only sorted once, and never copied.
+            assertEquals(counters.sorts(), 1);
+            assertEquals(counters.copies(), 0);
+            assertEquals(counters.sortsSkipped(), 3);
+        } finally {
+            SharingMetrics.setListener(SharingListener.NONE);
+        }
+    }
+}
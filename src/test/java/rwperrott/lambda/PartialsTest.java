@@ -0,0 +1,133 @@
+package rwperrott.lambda;
+
+import static org.jooq.lambda.tuple.Tuple.tuple;
+import static org.testng.Assert.*;
+
+import org.jooq.lambda.Seq;
+import org.jooq.lambda.tuple.Tuple2;
+import org.testng.annotations.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+public class PartialsTest {
+    static final List<Tuple2<String, Long>> namedValues;
+
+    static {
+        final Random random = new Random(7);
+        namedValues = Seq.range(0, 30_001)
+                         .map(i -> tuple("Row" + i, (long) random.nextInt(100_000)))
+                         .toList();
+    }
+
+    @Test
+    public void planTest() throws IOException {
+        final ToDoubleFunction<Tuple2<String, Long>> doubles = t -> t.v2;
+        final ToLongFunction<Tuple2<String, Long>> longs = t -> t.v2;
+        final var b = SharingPlan.<Tuple2<String, Long>>builder();
+        b.shareDoubles("A", doubles, Finishers.sortDoubles(),
+                       Finishers.percentileDouble(0.5d, DoublePercentileFunction.interpolate()));
+        b.shareDoubles("A", doubles, Finishers.sortDoubles(),
+                       Finishers.percentileDouble(0.99d, DoublePercentileFunction.interpolate()));
+        b.shareLongs("B", longs, Finishers.sortLongs(), Finishers.percentileLong(0.9d, LongPercentileFunction.floor()));
+        final SharingPlan<Tuple2<String, Long>> plan = b.build();
+        final Object[] expected = namedValues.stream().collect(plan.collector());
+
+        // A worker per part, shipping its partial via a file.
+        final Path dir = Files.createTempDirectory("partialsTest");
+        try {
+            final List<Object[]> partials = new ArrayList<>();
+            for (int part = 0; part < 3; part++) {
+                final Path file = dir.resolve("part-" + part + ".bin");
+                final List<Tuple2<String, Long>> rows =
+                        namedValues.subList(part * 10_000, (part + 1) * 10_000 + part / 2);
+                final Object[] a = Partials.accumulate(rows.stream(), plan.collector());
+                Partials.write(a, file);
+                assertEquals(Files.size(file), Partials.size(a));
+                partials.add((Object[]) Partials.read(file));
+            }
+            assertEquals(Partials.finish(plan.collector(), partials), expected);
+        } finally {
+            try (var s = Files.list(dir)) {
+                s.forEach(p -> p.toFile().delete());
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void pipeTest() throws Exception {
+        final DoubleArray sortedRun = new DoubleArray();
+        final LongArray longs = new LongArray();
+        namedValues.forEach(t -> {
+            sortedRun.add(t.v2 / 3d);
+            longs.add(-t.v2);
+        });
+        sortedRun.sort();
+        final Pipe pipe = Pipe.open();
+        // Larger than the pipe buffer, so written concurrently.
+        final CompletableFuture<Void> writer = CompletableFuture.runAsync(() -> {
+            try (var out = pipe.sink()) {
+                Partials.write(sortedRun, out);
+                Partials.write(longs, out);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        try (var in = pipe.source()) {
+            final DoubleArray d = (DoubleArray) Partials.read(in);
+            final LongArray l = (LongArray) Partials.read(in);
+            assertTrue(d.isSorted()); // Still a sorted run, so not sorted again.
+            assertEquals(d.toArray(), sortedRun.toArray());
+            assertFalse(l.isSorted());
+            assertEquals(l.toArray(), longs.toArray());
+        }
+        writer.get();
+    }
+
+    @Test
+    public void sketchTest() {
+        final ToDoubleFunction<Tuple2<String, Long>> mapper = t -> t.v2;
+        final var collector = DoubleSketch.<Tuple2<String, Long>>collector(mapper, 64, 5);
+        final DoubleSketch a = namedValues.subList(0, 20_000).stream().collect(collector);
+        final DoubleSketch b = namedValues.subList(20_000, namedValues.size()).stream().collect(collector);
+        final ByteBuffer bb = ByteBuffer.allocate(Math.toIntExact(Partials.size(a) + Partials.size(b)));
+        Partials.write(a, bb);
+        Partials.write(b, bb);
+        assertFalse(bb.hasRemaining());
+        bb.flip();
+        final DoubleSketch ra = (DoubleSketch) Partials.read(bb);
+        final DoubleSketch rb = (DoubleSketch) Partials.read(bb);
+        assertEquals(ra.retained(), a.retained());
+        for (long rank = 0; rank < a.count(); rank += 997)
+            assertEquals(ra.valueAt(rank), a.valueAt(rank));
+        assertEquals(rb.count(), b.count());
+
+        final DoubleSketch merged = Partials.merge(collector, List.of(ra, rb));
+        assertEquals(merged.count(), namedValues.size());
+        final var p = Finishers.percentileDouble(0.5d, DoublePercentileFunction.floor());
+        final double median = namedValues.stream().collect(DoubleArray.collector(mapper)).sort()
+                                         .valueAt(namedValues.size() / 2);
+        assertEquals(p.apply(merged).orElseThrow(), median, 100_000 * 4 * merged.normalizedRankError());
+    }
+
+    @Test
+    public void invalidTest() {
+        assertThrows(IllegalArgumentException.class, () -> Partials.size(new ArrayList<>()));
+        assertThrows(IllegalArgumentException.class, () -> Partials.read(ByteBuffer.allocate(16)));
+        final ByteBuffer bb = ByteBuffer.allocate(Math.toIntExact(Partials.size(new LongArray()) - 1));
+        assertThrows(BufferOverflowException.class, () -> Partials.write(new LongArray(), bb));
+        assertThrows(IllegalArgumentException.class, () -> Partials.merge(DoubleSketch.collector(t -> 0d), List.of()));
+    }
+}
@@ -0,0 +1,148 @@
+package rwperrott.lambda;
+
+import static org.jooq.lambda.tuple.Tuple.tuple;
+import static org.testng.Assert.*;
+
+import org.jooq.lambda.Seq;
+import org.jooq.lambda.tuple.Tuple;
+import org.jooq.lambda.tuple.Tuple2;
+import org.testng.annotations.*;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+public class PercentileSelectorTest {
+    static final double[] percentiles = {0d, 0.001d, 0.25d, 0.5d, 0.95d, 0.99d, 0.999d, 1d};
+
+    static final List<Tuple2<String, Double>> namedValues;
+
+    static {
+        final Random random = new Random(7);
+        // Few distinct values, to check duplicate handling of the 3-way partition.
+        namedValues = Seq.range(0, 100_003)
+                         .map(i -> tuple("Row" + i, (double) random.nextInt(5_000)))
+                         .toList();
+    }
+
+    @Test
+    public void selectDoublesTest() {
+        final ToDoubleFunction<Tuple2<String, Double>> mapper = t -> t.v2;
+        for (double p : percentiles) {
+            final var sel = Finishers.selectDoubles();
+            final var idMap = new SharableCollector.IdMap();
+            final var r =
+                    Seq.seq(namedValues)
+                       .collect(Tuple.collectors(
+                               idMap.shareDoubles("S", mapper, Finishers.sortDoubles(),
+                                                  Finishers.percentileDouble(p, DoublePercentileFunction.interpolate())),
+                               idMap.shareDoubles("A", mapper, sel, sel.percentile(p, DoublePercentileFunction.interpolate())),
+                               idMap.shareDoubles("A", mapper, sel, sel.percentile(0.5d, DoublePercentileFunction.floor())),
+                               idMap.shareDoubles("A", mapper, sel, sel.percentile(0.9d, DoublePercentileFunction.ceil()))
+                                                ));
+            assertEquals(r.v2, r.v1, "p=" + p);
+        }
+    }
+
+    @Test
+    public void selectListByTest() {
+        final Function<Tuple2<String, Double>, Double> keyExtractor = t -> t.v2;
+        final UnaryOperator<List<Tuple2<String, Double>>> andThenR = Finishers.sortList(keyExtractor);
+        for (double p : percentiles) {
+            final var sel = Finishers.selectList(keyExtractor);
+            final var col = SharableCollector.of(Collectors.toList(), sel, sel.percentile(p, PercentileFunction.floor()));
+            final var r =
+                    Seq.seq(namedValues)
+                       .collect(Tuple.collectors(
+                               SharableCollector.of(Collectors.toList(), andThenR,
+                                                    Finishers.percentile(p, PercentileFunction.floor())),
+                               col,
+                               col.share(sel, sel.percentile(1d - p, PercentileFunction.ceil()))
+                                                ));
+            // Ties may select a different row, so only compare keys.
+            assertEquals(r.v2.map(keyExtractor), r.v1.map(keyExtractor), "p=" + p);
+        }
+    }
+
+    @Test
+    public void selectLongsTest() {
+        final Random random = new Random(11);
+        final List<Long> values = Seq.range(0, 10_007).map(i -> random.nextLong() >> 16).toList();
+        final UnaryOperator<List<Long>> andThenR = Finishers.sortList();
+        final ToLongFunction<Long> mapper = Long::longValue;
+        final var sel = Finishers.selectLongs();
+        final var idMap = new SharableCollector.IdMap();
+        final var r =
+                Seq.seq(values)
+                   .collect(Tuple.collectors(
+                           SharableCollector.of(Collectors.toList(), andThenR,
+                                                Finishers.percentile(0.95d, PercentileFunction.floor())),
+                           idMap.shareLongs("A", mapper, sel, sel.percentile(0.95d, LongPercentileFunction.floor())),
+                           idMap.shareLongs("A", mapper, sel, sel.percentile(0.05d, LongPercentileFunction.floor()))
+                                            ));
+        assertEquals(r.v2.orElseThrow(), (long) r.v1.orElseThrow());
+    }
+
+    @Test
+    public void quickSelectShapesTest() {
+        final Random random = new Random(13);
+        final int n = 5_000;
+        final int[] ranks = {0, 1, n / 4, n / 2, n - 2, n - 1};
+        final long[][] shapes = {
+                random.longs(n).toArray(),
+                LongStream.range(0, n).toArray(), // ascending
+                LongStream.range(0, n).map(i -> n - i).toArray(), // descending
+                LongStream.range(0, n).map(i -> Math.min(i, n - i)).toArray(), // organ pipe
+                new long[n] // all equal
+        };
+        for (long[] shape : shapes) {
+            final long[] sorted = shape.clone();
+            Arrays.sort(sorted);
+            final long[] longs = shape.clone();
+            QuickSelect.select(longs, 0, n, ranks);
+            final double[] doubles = Arrays.stream(shape).asDoubleStream().toArray();
+            QuickSelect.select(doubles, 0, n, ranks);
+            final Object[] objects = Arrays.stream(shape).boxed().toArray();
+            QuickSelect.select(objects, 0, n, ranks, Comparator.<Long>naturalOrder());
+            for (int rank : ranks) {
+                assertEquals(longs[rank], sorted[rank], "rank " + rank);
+                assertEquals(doubles[rank], (double) sorted[rank], "rank " + rank);
+                assertEquals(objects[rank], sorted[rank], "rank " + rank);
+            }
+        }
+    }
+
+    /**
+     * McIlroy's "A Killer Adversary for Quicksort", which lazily fixes values, so every pivot is nearly the smallest,
+     * so only the heap sort fallback keeps the comparisons O(n log n).
+     */
+    @Test
+    public void quickSelectAdversaryTest() {
+        final int n = 20_000;
+        final int gas = n;
+        final int[] val = new int[n];
+        Arrays.fill(val, gas);
+        final int[] state = new int[3]; // solid, candidate, comparisons
+        final Comparator<Integer> adversary = (x, y) -> {
+            state[2]++;
+            if (val[x] == gas && val[y] == gas)
+                val[x == state[1] ? x : y] = state[0]++;
+            if (val[x] == gas)
+                state[1] = x;
+            else if (val[y] == gas)
+                state[1] = y;
+            return Integer.compare(val[x], val[y]);
+        };
+        final Object[] a = Seq.range(0, n).toList().toArray();
+        QuickSelect.select(a, 0, n, new int[]{n / 2}, adversary);
+        final double log2n = Math.log(n) / Math.log(2);
+        assertTrue(state[2] < 8 * n * log2n, "comparisons " + state[2]);
+    }
+}
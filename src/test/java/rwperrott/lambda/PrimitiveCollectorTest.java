@@ -0,0 +1,153 @@
+package rwperrott.lambda;
+
+import static org.jooq.lambda.tuple.Tuple.tuple;
+import static org.testng.Assert.*;
+
+import org.jooq.lambda.Seq;
+import org.jooq.lambda.tuple.Tuple;
+import org.jooq.lambda.tuple.Tuple2;
+import org.testng.annotations.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.OptionalDouble;
+import java.util.OptionalLong;
+import java.util.Random;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collectors;
+
+public class PrimitiveCollectorTest {
+    static final List<Tuple2<String, Long>> namedValues;
+
+    static {
+        final Random random = new Random(42);
+        namedValues = Seq.range(0, 1001)
+                         .map(i -> tuple("Row" + i, (long) random.nextInt(10_000)))
+                         .toList();
+    }
+
+    @Test
+    public void collectDoublesTest() {
+        final ToDoubleFunction<Tuple2<String, Long>> mapper = t -> t.v2;
+        final UnaryOperator<List<Double>> andThenR = Finishers.sortList();
+        for (double p = 0d; p <= 1.00d; p += 0.05d) {
+            final var idMap = new SharableCollector.IdMap();
+            final var r =
+                    Seq.seq(namedValues)
+                       .collect(Tuple.collectors(
+                               SharableCollector.of(t -> (double) t.v2, Collectors.toList(), andThenR,
+                                                    Finishers.percentile(p, PercentileFunction.interpolateDouble())),
+                               idMap.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                                  Finishers.percentileDouble(p, DoublePercentileFunction.floor())),
+                               idMap.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                                  Finishers.percentileDouble(p, DoublePercentileFunction.halfUp())),
+                               idMap.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                                  Finishers.percentileDouble(p, DoublePercentileFunction.interpolate())),
+                               idMap.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                                  Finishers.percentileDouble(p, DoublePercentileFunction.ceil()))
+                                                ));
+            final double floor = r.v2.orElseThrow();
+            final double ceil = r.v5.orElseThrow();
+            assertEquals(r.v4, OptionalDouble.of(r.v1.orElseThrow()), "p=" + p);
+            assertTrue(floor <= r.v3.orElseThrow() && r.v3.orElseThrow() <= ceil, "p=" + p);
+            assertTrue(floor <= r.v4.orElseThrow() && r.v4.orElseThrow() <= ceil, "p=" + p);
+        }
+    }
+
+    @Test
+    public void collectLongsTest() {
+        final ToLongFunction<Tuple2<String, Long>> mapper = t -> t.v2;
+        final UnaryOperator<List<Long>> andThenR = Finishers.sortList();
+        for (double p = 0d; p <= 1.00d; p += 0.05d) {
+            final var col = SharableCollector.ofLongs(mapper, Finishers.sortLongs(),
+                                                      Finishers.percentileLong(p, LongPercentileFunction.floor()));
+            final var r =
+                    Seq.seq(namedValues)
+                       .collect(Tuple.collectors(
+                               SharableCollector.of(t -> t.v2, Collectors.toList(), andThenR,
+                                                    Finishers.percentile(p, PercentileFunction.floor())),
+                               col,
+                               // Different andThenR, so the shared LongArray is protected and sorted as a copy.
+                               col.share(LongArray::sort, Finishers.percentileLong(p, LongPercentileFunction.ceil()))
+                                                ));
+            assertEquals(r.v2, OptionalLong.of(r.v1.orElseThrow()), "p=" + p);
+            assertTrue(r.v2.orElseThrow() <= r.v3.orElseThrow(), "p=" + p);
+        }
+    }
+
+    @Test
+    public void emptyTest() {
+        final var r = Seq.<Tuple2<String, Long>>empty()
+                         .collect(SharableCollector.ofLongs(t -> t.v2, Finishers.sortLongs(),
+                                                            Finishers.percentileLong(0.5d, LongPercentileFunction.interpolate())));
+        assertFalse(r.isPresent());
+    }
+
+    @Test
+    public void interpolateLongTest() {
+        final LongPercentileFunction f = LongPercentileFunction.interpolate();
+        assertEquals(f.applyAsLong(10, 20, 0.25d), 13);
+        assertEquals(f.applyAsLong(Long.MAX_VALUE - 2, Long.MAX_VALUE, 0.5d), Long.MAX_VALUE - 1);
+        // Spans more than Long.MAX_VALUE, so t1 - t0 overflows.
+        assertEquals(f.applyAsLong(Long.MIN_VALUE, Long.MAX_VALUE, 0d), Long.MIN_VALUE);
+        assertEquals(f.applyAsLong(Long.MIN_VALUE, Long.MAX_VALUE, 0.5d), 0);
+        assertEquals(f.applyAsLong(Long.MIN_VALUE, Long.MAX_VALUE, 1d), Long.MAX_VALUE);
+        assertEquals(f.applyAsLong(-1, Long.MAX_VALUE, 1d), Long.MAX_VALUE);
+        // 2^53 + 3 rounds up to 2^53 + 4 as a double, so is clamped.
+        assertEquals(f.applyAsLong(0, (1L << 53) + 3, 1d), (1L << 53) + 3);
+    }
+
+    @Test
+    public void unmodifiableSortCopiesTest() {
+        final DoubleArray a = new DoubleArray();
+        a.add(3d);
+        a.add(1d);
+        a.add(2d);
+        final DoubleArray view = a.unmodifiable();
+        final DoubleArray sorted = view.sort();
+        assertNotSame(sorted, view);
+        assertEquals(sorted.toArray(), new double[]{1d, 2d, 3d});
+        assertEquals(a.toArray(), new double[]{3d, 1d, 2d});
+        expectThrows(UnsupportedOperationException.class, () -> view.add(4d));
+    }
+
+    @Test
+    public void percentilesTest() {
+        final double[] ps = {0.99d, 0d, 0.5d, 0.95d, 1d, 0.25d};
+        final ToDoubleFunction<Tuple2<String, Long>> mapper = t -> t.v2;
+        final UnaryOperator<List<Long>> andThenR = Finishers.sortList();
+        final var sel = Finishers.selectDoubles();
+        final var r =
+                Seq.seq(namedValues)
+                   .collect(Tuple.collectors(
+                           SharableCollector.of(t -> t.v2, Collectors.toList(), andThenR,
+                                                Finishers.percentiles(ps, PercentileFunction.floor())),
+                           SharableCollector.ofDoubles(mapper, Finishers.sortDoubles(),
+                                                       Finishers.percentilesDouble(ps, DoublePercentileFunction.interpolate())),
+                           SharableCollector.ofDoubles(mapper, sel, sel.percentiles(ps, DoublePercentileFunction.interpolate()))
+                                            ));
+        assertEquals(r.v1.size(), ps.length);
+        assertEquals(r.v3, r.v2);
+        for (int i = 0; i < ps.length; i++) {
+            final double p = ps[i];
+            final List<Long> sorted = Seq.seq(namedValues).map(t -> t.v2).sorted().toList();
+            assertEquals(r.v1.get(i), Finishers.percentile(p, PercentileFunction.<Long>floor()).apply(sorted).orElseThrow(), "p=" + p);
+        }
+        // A fixed size result, even if empty, so columns can be read by percentile index.
+        final long[] noLongs = Finishers.percentilesLong(ps, LongPercentileFunction.floor()).apply(new LongArray());
+        assertEquals(noLongs.length, ps.length);
+        assertTrue(Arrays.stream(noLongs).allMatch(v -> v == Long.MIN_VALUE));
+        final double[] noDoubles = Finishers.percentilesDouble(ps, DoublePercentileFunction.floor())
+                                            .apply(new DoubleArray());
+        assertTrue(Arrays.stream(noDoubles).allMatch(Double::isNaN));
+        assertEquals(noDoubles.length, ps.length);
+        final List<Long> noValues = Finishers.percentiles(ps, PercentileFunction.<Long>floor())
+                                             .apply(Collections.emptyList());
+        assertEquals(noValues.size(), ps.length);
+        assertTrue(noValues.stream().allMatch(Objects::isNull));
+    }
+}
@@ -0,0 +1,110 @@
+package rwperrott.lambda;
+
+import static org.testng.Assert.*;
+
+import org.jooq.lambda.tuple.Tuple;
+import org.testng.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalLong;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.UnaryOperator;
+import java.util.stream.Stream;
+
+public class RecorderTest {
+    @Test
+    public void bucketTest() {
+        for (int bits : new int[]{2, 8, 16}) {
+            int previous = -1;
+            for (long v : new long[]{0, 1, 3, 255, 256, 257, 1000, 65_535, 65_536, 1L << 40, Long.MAX_VALUE}) {
+                final int b = LongRecorder.bucket(v, bits);
+                assertTrue(b > previous || LongRecorder.bucket(v - 1, bits) == b, "bits " + bits + " v " + v);
+                assertTrue(LongRecorder.lowestValue(b, bits) <= v, "bits " + bits + " v " + v);
+                assertTrue(LongRecorder.highestValue(b, bits) >= v, "bits " + bits + " v " + v);
+                previous = b;
+            }
+            // Consecutive buckets are contiguous
+            for (int b = 1; b <= LongRecorder.bucket(Long.MAX_VALUE, bits); b++)
+                assertEquals(LongRecorder.lowestValue(b, bits), LongRecorder.highestValue(b - 1, bits) + 1);
+        }
+    }
+
+    @Test
+    public void concurrentTest() throws Exception {
+        final LongRecorder recorder = new LongRecorder();
+        final int threads = 8, perThread = 100_000;
+        final LongArray all = new LongArray();
+        final List<long[]> values = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            final long[] a = new long[perThread];
+            for (int i = 0; i < perThread; i++)
+                all.add(a[i] = (long) Math.abs(random.nextGaussian() * 1_000_000d));
+            values.add(a);
+        }
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (long[] a : values)
+                futures.add(pool.submit(() -> {
+                    for (long v : a)
+                        recorder.record(v);
+                }));
+            for (Future<?> f : futures)
+                f.get();
+        } finally {
+            pool.shutdown();
+        }
+        all.sort();
+        final LongHistogram h = recorder.snapshot();
+        assertEquals(h.count(), (long) threads * perThread);
+        assertEquals(h.max(), all.get(all.size() - 1));
+        assertEquals(h.valueAt(0), all.get(0));
+        assertEquals(h.valueAt(h.count() - 1), h.max());
+        final double error = 1d / (1 << (LongRecorder.DEFAULT_PRECISION_BITS - 1));
+        for (double p : new double[]{0d, 0.5d, 0.9d, 0.99d, 0.999d, 1d}) {
+            final long expected = Finishers.percentileLong(p, LongPercentileFunction.floor()).apply(all).getAsLong();
+            final long actual = Finishers.percentileLong(p, LongPercentileFunction.floor()).apply(h).getAsLong();
+            assertTrue(Math.abs(actual - expected) <= expected * error + 1, p + ": " + actual + " vs " + expected);
+        }
+
+        // One snapshot shared by all the percentile columns
+        final var idMap = new SharableCollector.IdMap();
+        final var r = Stream.of(1).collect(Tuple.collectors(
+                idMap.share("latency", recorder.<Integer>snapshotCollector(), UnaryOperator.identity(),
+                            Finishers.percentileLong(0.5d, LongPercentileFunction.floor())),
+                idMap.share("latency", recorder.<Integer>snapshotCollector(), UnaryOperator.identity(),
+                            Finishers.percentileLong(0.99d, LongPercentileFunction.floor()))));
+        assertEquals(r.v1, Finishers.percentileLong(0.5d, LongPercentileFunction.floor()).apply(h));
+        assertEquals(r.v2, Finishers.percentileLong(0.99d, LongPercentileFunction.floor()).apply(h));
+
+        assertEquals(recorder.intervalSnapshot().count(), h.count());
+        assertTrue(recorder.snapshot().isEmpty());
+        assertEquals(Finishers.percentileLong(0.5d, LongPercentileFunction.floor()).apply(recorder.snapshot()),
+                     OptionalLong.empty());
+    }
+
+    @Test
+    public void exactSmallValuesTest() {
+        final LongRecorder recorder = new LongRecorder(8, 1);
+        for (long v = 0; v < 256; v++)
+            recorder.record(v);
+        final LongHistogram h = recorder.snapshot();
+        for (int rank = 0; rank < 256; rank++)
+            assertEquals(h.valueAt(rank), rank);
+        assertEquals(h.countAt(7), 1);
+
+        // Values in one wide bucket are clamped to the recorded min and max.
+        final LongRecorder wide = new LongRecorder(2, 1);
+        wide.record(1_000_001);
+        wide.record(1_000_002);
+        final LongHistogram w = wide.snapshot();
+        assertEquals(w.valueAt(0), 1_000_001);
+        assertEquals(w.valueAt(1), 1_000_002);
+        assertThrows(IllegalArgumentException.class, () -> recorder.record(-1));
+    }
+}
@@ -12,6 +12,7 @@ import org.testng.annotations.*;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
 import java.util.function.Function;
 import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
@@ -159,4 +160,41 @@ public class SharableCollectorTest {
         }
         System.out.println(header);
     }
+
+    @Test
+    public void parallelTest() {
+        final Random random = new Random(5);
+        final List<Double> values = Seq.range(0, 1_000_003).map(i -> random.nextDouble()).toList();
+        final UnaryOperator<List<Double>> andThenR = Finishers.sortList();
+        final UnaryOperator<List<Double>> reverseAndThenR = Finishers.sortList(Comparator.<Double>reverseOrder());
+        Object expected = null;
+        for (boolean parallel : new boolean[]{false, true}) {
+            final var idMap = new SharableCollector.IdMap();
+            final var stream = parallel ? values.parallelStream() : values.stream();
+            final var r = stream.collect(Tuple.collectors(
+                    idMap.share("A", Collectors.toList(), andThenR, Finishers.percentile(0.9d, PercentileFunction.floor())),
+                    idMap.share("A", Collectors.toList(), andThenR, Finishers.percentile(0.5d, PercentileFunction.floor())),
+                    // Different andThenR, so shared list is protected, and this sorts a copy.
+                    idMap.share("A", Collectors.toList(), reverseAndThenR, Finishers.percentile(0.1d, PercentileFunction.floor())),
+                    idMap.share("A", Collectors.toList(), andThenR, Finishers.percentile(0.1d, PercentileFunction.floor()))
+                                                         ));
+            System.out.printf("parallel %-5s -> %s%n", parallel, r);
+            assertTrue(r.v4.orElseThrow() < r.v2.orElseThrow() && r.v2.orElseThrow() < r.v1.orElseThrow());
+            assertTrue(r.v3.orElseThrow() > r.v2.orElseThrow());
+            if (parallel)
+                assertEquals(r, expected);
+            expected = r;
+        }
+    }
+
+    @Test
+    public void shareAfterFinishTest() {
+        final UnaryOperator<List<Double>> andThenR = Finishers.sortList();
+        final var col = SharableCollector.of(Collectors.toList(), andThenR, Finishers.percentile(0.5d, PercentileFunction.floor()));
+        final var stub = col.share(andThenR, Finishers.percentile(0.9d, PercentileFunction.floor()));
+        // Stub before its SharableCollector, so nothing published yet.
+        expectThrows(IllegalStateException.class, () -> Seq.of(values).collect(Tuple.collectors(stub, col)));
+        Seq.of(values).collect(Tuple.collectors(col, stub));
+        expectThrows(IllegalStateException.class, () -> col.share(andThenR, Finishers.percentile(0.1d, PercentileFunction.floor())));
+    }
 }
@@ -0,0 +1,166 @@
+package rwperrott.lambda;
+
+import static org.jooq.lambda.tuple.Tuple.tuple;
+import static org.testng.Assert.*;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.jooq.lambda.Seq;
+import org.jooq.lambda.tuple.Tuple;
+import org.jooq.lambda.tuple.Tuple2;
+import org.testng.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collectors;
+
+public class SharingMetricsTest {
+    static final List<Tuple2<String, Double>> namedValues;
+
+    static {
+        final Random random = new Random(11);
+        namedValues = Seq.range(0, 10_007)
+                         .map(i -> tuple("Row" + i, random.nextDouble()))
+                         .toList();
+    }
+
+    @Test
+    public void countersTest() {
+        final SharingMetrics.Counters counters = SharingMetrics.counters();
+        SharingMetrics.setListener(counters);
+        try {
+            final ToDoubleFunction<Tuple2<String, Double>> mapper = t -> t.v2;
+            final Function<Tuple2<String, Double>, Double> keyExtractor = t -> t.v2;
+            final var idMap = new SharableCollector.IdMap();
+            final var r = namedValues.stream().collect(Tuple.collectors(
+                    idMap.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                       Finishers.percentileDouble(0.5d, DoublePercentileFunction.floor())),
+                    idMap.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                       Finishers.percentileDouble(0.9d, DoublePercentileFunction.floor())),
+                    // Different andThenR, but all sorters, so r is sorted once, then shared read-only.
+                    idMap.shareDoubles("A", mapper, Finishers.parallelSortDoubles(1000),
+                                       DoubleArray::count),
+                    idMap.share("B", Collectors.toList(), Finishers.sortList(keyExtractor),
+                                Finishers.percentile(0.5d, PercentileFunction.floor()))));
+            assertTrue(r.v1.isPresent());
+            assertEquals(r.v3.longValue(), namedValues.size());
+
+            assertEquals(counters.shares("A"), 2);
+            assertEquals(counters.shares("B"), 0);
+            assertEquals(counters.differentAndThenRShares(), 1);
+            // A and B each sorted once, and A's stubs skip sorting.
+            assertEquals(counters.sorts(), 2);
+            assertEquals(counters.parallelSorts(), 0);
+            assertEquals(counters.sortsSkipped(), 2);
+            assertEquals(counters.copies(), 0);
+            assertEquals(counters.sortedElements(), 2L * namedValues.size());
+            assertEquals(counters.finishes(), 2);
+            assertEquals(counters.finishedElements(), 2L * namedValues.size());
+            assertTrue(counters.accumulateNanos() > 0);
+            assertTrue(counters.finishNanos() > 0);
+
+            // Already sorted, so skipped.
+            final DoubleArray a = namedValues.stream().collect(DoubleArray.collector(mapper)).sort();
+            Finishers.sortDoubles().apply(a);
+            assertEquals(counters.sortsSkipped(), 3);
+        } finally {
+            SharingMetrics.setListener(SharingListener.NONE);
+        }
+    }
+
+    @Test
+    public void reuseTimingTest() throws InterruptedException {
+        final List<Long> accumulateNanos = new CopyOnWriteArrayList<>();
+        SharingMetrics.setListener(new SharingListener() {
+            @Override
+            public void finished(final String id, final long elements, final long accumulate, final long finish) {
+                accumulateNanos.add(accumulate);
+            }
+        });
+        try {
+            final ToDoubleFunction<Tuple2<String, Double>> mapper = t -> t.v2;
+            final var collector = SharableCollector.ofDoubles(mapper, Finishers.sortDoubles(), DoubleArray::size);
+            final List<Tuple2<String, Double>> rows = namedValues.subList(0, 100);
+            assertEquals(rows.stream().collect(collector).intValue(), rows.size());
+            Thread.sleep(200);
+            // Timed from its own 1st container, not the 1st collection's, even in parallel.
+            assertEquals(rows.parallelStream().collect(collector).intValue(), rows.size());
+            assertEquals(accumulateNanos.size(), 2);
+            assertTrue(accumulateNanos.get(1) < TimeUnit.MILLISECONDS.toNanos(200), "" + accumulateNanos);
+        } finally {
+            SharingMetrics.setListener(SharingListener.NONE);
+        }
+    }
+
+    @Test
+    public void listenerSetLaterTest() {
+        final ToDoubleFunction<Tuple2<String, Double>> mapper = t -> t.v2;
+        final var before = SharableCollector.ofDoubles(mapper, Finishers.sortDoubles(), DoubleArray::size);
+        assertEquals(namedValues.parallelStream().collect(before).intValue(), namedValues.size());
+        final SharingMetrics.Counters counters = SharingMetrics.counters();
+        SharingMetrics.setListener(counters);
+        final SharableCollector<Tuple2<String, Double>, Tuple2<String, Double>, DoubleArray, DoubleArray, Integer>
+                after;
+        try {
+            // Not timed, so no containers are kept.
+            assertEquals(namedValues.parallelStream().collect(before).intValue(), namedValues.size());
+            assertEquals(before.timedContainers(), 0);
+            assertEquals(counters.finishes(), 0);
+
+            after = SharableCollector.ofDoubles(mapper, Finishers.sortDoubles(), DoubleArray::size);
+            assertEquals(namedValues.parallelStream().collect(after).intValue(), namedValues.size());
+            assertEquals(after.timedContainers(), 0);
+            assertEquals(counters.finishes(), 1);
+        } finally {
+            SharingMetrics.setListener(SharingListener.NONE);
+        }
+        // Still timed, and its containers removed, after the listener is unset.
+        assertEquals(namedValues.parallelStream().collect(after).intValue(), namedValues.size());
+        assertEquals(after.timedContainers(), 0);
+        assertEquals(counters.finishes(), 1);
+    }
+
+    @Test
+    public void jfrTest() throws IOException {
+        final Path file = Files.createTempFile("sharing", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("rwperrott.lambda.Share");
+            recording.enable("rwperrott.lambda.Finish");
+            SharingMetrics.setListener(SharingMetrics.jfr());
+            recording.start();
+            try {
+                final Function<Tuple2<String, Double>, Double> mapper = t -> t.v2;
+                final var idMap = new SharableCollector.IdMap();
+                namedValues.stream().collect(Tuple.collectors(
+                        idMap.share("A", mapper, Collectors.toList(), Finishers.sortList(),
+                                    Finishers.percentile(0.5d, PercentileFunction.floor())),
+                        idMap.share("A", mapper, Collectors.toList(), Finishers.sortList(),
+                                    Finishers.percentile(0.9d, PercentileFunction.floor()))));
+            } finally {
+                SharingMetrics.setListener(SharingListener.NONE);
+            }
+            recording.stop();
+            recording.dump(file);
+            final List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+            final RecordedEvent share = events.stream()
+                                              .filter(e -> e.getEventType().getName().equals("rwperrott.lambda.Share"))
+                                              .findFirst().orElseThrow();
+            assertEquals(share.getString("id"), "A");
+            assertTrue(share.getBoolean("sameAndThenR"));
+            final RecordedEvent finish = events.stream()
+                                               .filter(e -> e.getEventType().getName().equals("rwperrott.lambda.Finish"))
+                                               .findFirst().orElseThrow();
+            assertEquals(finish.getLong("elements"), namedValues.size());
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package rwperrott.lambda;
+
+import static org.jooq.lambda.tuple.Tuple.tuple;
+import static org.testng.Assert.*;
+
+import org.jooq.lambda.Seq;
+import org.jooq.lambda.tuple.Tuple;
+import org.jooq.lambda.tuple.Tuple2;
+import org.testng.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalDouble;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+
+public class SharingPlanTest {
+    static final List<Tuple2<String, Long>> namedValues;
+
+    static {
+        final Random random = new Random(17);
+        namedValues = Seq.range(0, 100_003)
+                         .map(i -> tuple("Group" + random.nextInt(1000), (long) random.nextInt(10_000)))
+                         .toList();
+    }
+
+    @Test
+    public void groupingByTest() {
+        final ToDoubleFunction<Tuple2<String, Long>> mapper = t -> t.v2;
+        final Function<Tuple2<String, Long>, Long> keyExtractor = t -> t.v2;
+        final var b = SharingPlan.<Tuple2<String, Long>>builder();
+        final var p50 = b.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                       Finishers.percentileDouble(0.5d, DoublePercentileFunction.interpolate()));
+        final var p99 = b.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                       Finishers.percentileDouble(0.99d, DoublePercentileFunction.interpolate()));
+        // Different andThenR, so r is protected, and each andThenR applied once.
+        final var max = b.shareDoubles("A", mapper, Finishers.parallelSortDoubles(1000),
+                                       a -> a.isEmpty() ? 0d : a.get(a.size() - 1));
+        final var minRow = b.share("B", Collectors.toList(), Finishers.sortList(keyExtractor),
+                                   Finishers.percentile(0d, PercentileFunction.floor()));
+        final SharingPlan<Tuple2<String, Long>> plan = b.build();
+        assertEquals(plan.stages(), 2);
+        assertEquals(plan.columns(), 4);
+
+        for (boolean parallel : new boolean[]{false, true}) { // Reused
+            final Map<String, Object[]> m = (parallel ? namedValues.parallelStream() : namedValues.stream())
+                    .collect(Collectors.groupingBy(t -> t.v1, plan.collector()));
+            final Map<String, List<Tuple2<String, Long>>> groups =
+                    namedValues.stream().collect(Collectors.groupingBy(t -> t.v1));
+            assertEquals(m.keySet(), groups.keySet());
+            groups.forEach((k, rows) -> {
+                final Object[] r = m.get(k);
+                final DoubleArray a = rows.stream().collect(DoubleArray.collector(mapper)).sort();
+                final OptionalDouble e50 = Finishers.percentileDouble(0.5d, DoublePercentileFunction.interpolate()).apply(a);
+                final OptionalDouble e99 = Finishers.percentileDouble(0.99d, DoublePercentileFunction.interpolate()).apply(a);
+                assertEquals(p50.get(r), e50);
+                assertEquals(p99.get(r), e99);
+                final List<Tuple2<String, Long>> sorted = new ArrayList<>(rows);
+                sorted.sort(Comparator.comparing(keyExtractor));
+                final Optional<Tuple2<String, Long>> min = minRow.get(r);
+                assertEquals(min.orElseThrow().v2, sorted.get(0).v2);
+                assertEquals(max.get(r), a.get(a.size() - 1));
+            });
+        }
+    }
+
+    @Test
+    public void validationTest() {
+        final var b = SharingPlan.<Tuple2<String, Long>>builder();
+        assertThrows(IllegalStateException.class, b::build);
+        b.shareLongs("A", t -> t.v2, Finishers.sortLongs(), LongArray::count);
+        assertThrows(IllegalArgumentException.class,
+                     () -> b.shareLongs("A", t -> t.v2, Finishers.sortLongs(), LongArray::count));
+        assertThrows(IllegalStateException.class,
+                     () -> b.shareLongs("", t -> t.v2, Finishers.sortLongs(), LongArray::count));
+    }
+
+    @Test
+    public void planTest() {
+        final long[] calls = {0};
+        final Function<Tuple2<String, Long>, Long> mapper = t -> {
+            calls[0]++;
+            return t.v2;
+        };
+        final ToDoubleFunction<Tuple2<String, Long>> doubleMapper = t -> t.v2;
+        final List<Collector<Tuple2<String, Long>, ?, ?>> columns = List.of(
+                SharableCollector.of(mapper, Collectors.toList(), Finishers.sortList(),
+                                     Finishers.percentile(0.5d, PercentileFunction.floor())),
+                SharableCollector.of(mapper, Collectors.toList(), Finishers.sortList(),
+                                     Finishers.percentile(0.99d, PercentileFunction.floor())),
+                SharableCollector.of(mapper, Collectors.toList(), Finishers.sortList(Comparator.reverseOrder()),
+                                     Finishers.percentile(0.5d, PercentileFunction.floor())),
+                SharableCollector.of(mapper, Collectors.toSet(), s -> s, Set::size),
+                SharableCollector.ofDoubles(doubleMapper, Finishers.sortDoubles(),
+                                            Finishers.percentileDouble(0.5d, DoublePercentileFunction.interpolate())),
+                SharableCollector.ofDoubles(doubleMapper, Finishers.sortDoubles(),
+                                            Finishers.percentileDouble(0.99d, DoublePercentileFunction.interpolate())),
+                Collectors.counting());
+        final SharingPlan<Tuple2<String, Long>> plan = SharingPlan.plan(columns);
+        assertEquals(plan.columns(), columns.size());
+        assertEquals(plan.stages(), 4);
+        assertEquals(plan.mappers(), 1);
+
+        final Object[] r = namedValues.stream().collect(plan.collector());
+        assertEquals(calls[0], namedValues.size(), "mapper called once per row");
+        for (int i = 0; i < columns.size(); i++)
+            assertEquals(r[i], namedValues.stream().collect(columns.get(i)), "column " + i);
+    }
+
+    @Test
+    public void instanceTest() {
+        final ToDoubleFunction<Tuple2<String, Long>> mapper = t -> t.v2;
+        final Function<Tuple2<String, Long>, Long> keyExtractor = t -> t.v2;
+        final var b = SharingPlan.<Tuple2<String, Long>>builder();
+        final var p50 = b.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                       Finishers.percentileDouble(0.5d, DoublePercentileFunction.interpolate()));
+        final var p99 = b.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                       Finishers.percentileDouble(0.99d, DoublePercentileFunction.interpolate()));
+        final var minRow = b.share("B", Collectors.toList(), Finishers.sortList(keyExtractor),
+                                   Finishers.percentile(0d, PercentileFunction.floor()));
+        final SharingPlan<Tuple2<String, Long>> plan = b.build();
+
+        for (int batch = 0; batch < 3; batch++) { // Template reused per batch
+            final List<Tuple2<String, Long>> rows = namedValues.subList(batch * 10_000, (batch + 1) * 10_000);
+            final var idMap = new SharableCollector.IdMap();
+            final var expected = rows.stream().collect(Tuple.collectors(
+                    idMap.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                       Finishers.percentileDouble(0.5d, DoublePercentileFunction.interpolate())),
+                    idMap.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                       Finishers.percentileDouble(0.99d, DoublePercentileFunction.interpolate())),
+                    idMap.share("B", Collectors.toList(), Finishers.sortList(keyExtractor),
+                                Finishers.percentile(0d, PercentileFunction.floor()))));
+            final SharingPlan.Instance<Tuple2<String, Long>> i = plan.newInstance();
+            final var r = (batch == 1 ? rows.parallelStream() : rows.stream())
+                    .collect(Tuple.collectors(i.collector(p50), i.collector(p99), i.collector(minRow)));
+            assertEquals(r.v1, expected.v1);
+            assertEquals(r.v2, expected.v2);
+            assertEquals(r.v3.orElseThrow().v2, expected.v3.orElseThrow().v2);
+            assertEquals(plan.newInstance().collectors().size(), plan.columns());
+        }
+
+        // A stub before its 1st column fails, like IdMap.
+        final SharingPlan.Instance<Tuple2<String, Long>> i = plan.newInstance();
+        assertThrows(IllegalStateException.class,
+                     () -> namedValues.stream().collect(Tuple.collectors(i.collector(p99), i.collector(p50))));
+    }
+
+    @Test
+    public void parallelFinishTest() {
+        final ToDoubleFunction<Tuple2<String, Long>> mapper = t -> t.v2;
+        final Function<Tuple2<String, Long>, Long> keyExtractor = t -> t.v2;
+        final List<SharingPlan<Tuple2<String, Long>>> plans = new ArrayList<>();
+        final List<List<SharingPlan.Column<?>>> columns = new ArrayList<>();
+        for (int p = 0; p < 2; p++) {
+            final var b = SharingPlan.<Tuple2<String, Long>>builder();
+            if (p == 1)
+                b.parallelFinish(ForkJoinPool.commonPool());
+            columns.add(List.of(
+                    b.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                   Finishers.percentileDouble(0.5d, DoublePercentileFunction.interpolate())),
+                    b.share("B", Collectors.toList(), Finishers.sortList(keyExtractor),
+                            Finishers.percentile(0.99d, PercentileFunction.floor())),
+                    b.shareLongs("C", t -> t.v2, Finishers.sortLongs(),
+                                 Finishers.percentileLong(0.9d, LongPercentileFunction.floor())),
+                    b.shareDoubles("A", mapper, Finishers.sortDoubles(),
+                                   Finishers.percentileDouble(0.99d, DoublePercentileFunction.interpolate()))));
+            plans.add(b.build());
+        }
+        final Object[] expected = namedValues.stream().collect(plans.get(0).collector());
+        assertEquals(namedValues.parallelStream().collect(plans.get(1).collector()), expected);
+
+        // Any column order, even a stub before its 1st column, because each column waits for its id to finish.
+        final List<SharingPlan.Column<?>> c = columns.get(1);
+        for (int batch = 0; batch < 2; batch++) {
+            final SharingPlan.Instance<Tuple2<String, Long>> i = plans.get(1).newInstance();
+            final var r = (batch == 1 ? namedValues.parallelStream() : namedValues.stream()).collect(Tuple.collectors(
+                    i.collector(c.get(3)), i.collector(c.get(1)), i.collector(c.get(2)), i.collector(c.get(0))));
+            assertEquals(r.v1, expected[3]);
+            assertEquals(r.v2, expected[1]);
+            assertEquals(r.v3, expected[2]);
+            assertEquals(r.v4, expected[0]);
+        }
+
+        // A stub without its 1st column fails.
+        final SharingPlan.Instance<Tuple2<String, Long>> i = plans.get(1).newInstance();
+        assertThrows(IllegalStateException.class,
+                     () -> namedValues.stream().collect(Tuple.collectors(i.collector(c.get(3)), i.collector(c.get(1)))));
+    }
+
+    @Test
+    public void parallelFinishFailureTest() {
+        final var b = SharingPlan.<Tuple2<String, Long>>builder().parallelFinish(ForkJoinPool.commonPool());
+        b.shareLongs("X", t -> t.v2, l -> {
+            throw new IllegalStateException("X");
+        }, LongArray::size);
+        b.shareLongs("Y", t -> t.v2, l -> {
+            throw new IllegalArgumentException("Y");
+        }, LongArray::size);
+        b.shareLongs("Z", t -> t.v2, Finishers.sortLongs(), LongArray::size);
+        final SharingPlan<Tuple2<String, Long>> plan = b.build();
+        // The caller thread failure, after all the pool tasks are joined, with their failures suppressed.
+        final IllegalStateException e = expectThrows(IllegalStateException.class,
+                                                     () -> namedValues.stream().collect(plan.collector()));
+        assertEquals(e.getMessage(), "X");
+        assertEquals(e.getSuppressed().length, 1);
+        assertTrue(e.getSuppressed()[0] instanceof IllegalArgumentException);
+    }
+}
@@ -0,0 +1,117 @@
+package rwperrott.lambda;
+
+import static org.jooq.lambda.tuple.Tuple.tuple;
+import static org.testng.Assert.*;
+
+import org.jooq.lambda.Seq;
+import org.jooq.lambda.Window;
+import org.jooq.lambda.tuple.Tuple2;
+import org.testng.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalDouble;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+
+public class SlidingWindowTest {
+    static final List<Tuple2<String, Long>> namedValues;
+
+    static {
+        final Random random = new Random(7);
+        namedValues = Seq.range(0, 2001)
+                         .map(i -> tuple("Row" + (i % 3), (long) random.nextInt(500)))
+                         .toList();
+    }
+
+    @Test
+    public void longFrameTest() {
+        final Random random = new Random(11);
+        final LongFrame frame = new LongFrame();
+        final List<Long> expected = new ArrayList<>();
+        for (int i = 0; i < 20_000; i++) {
+            final long v = random.nextInt(1000);
+            if (random.nextInt(3) == 0 && !expected.isEmpty()) {
+                final Long r = expected.get(random.nextInt(expected.size()));
+                assertTrue(frame.remove(r));
+                expected.remove(r);
+            } else {
+                frame.add(v);
+                expected.add(v);
+            }
+        }
+        assertFalse(frame.remove(-1));
+        Collections.sort(expected);
+        assertEquals(frame.count(), expected.size());
+        for (int i = 0; i < expected.size(); i++)
+            assertEquals(frame.valueAt(i), (long) expected.get(i));
+        while (!expected.isEmpty())
+            assertTrue(frame.remove(expected.remove(expected.size() - 1)));
+        assertTrue(frame.isEmpty());
+    }
+
+    @Test
+    public void slideTest() {
+        final ToDoubleFunction<Tuple2<String, Long>> mapper = t -> t.v2;
+        for (long[] bounds : new long[][]{{-99, 0}, {-5, 5}, {2, 10}, {Long.MIN_VALUE, 0}, {0, Long.MAX_VALUE}}) {
+            final var sliding = SlidingWindow.ofDoubles(mapper, t -> t.v1, bounds[0], bounds[1]);
+            final Function<Window<Tuple2<String, Long>>, OptionalDouble> p50 =
+                    sliding.share(Finishers.percentileDouble(0.5d, DoublePercentileFunction.interpolate()));
+            final Function<Window<Tuple2<String, Long>>, OptionalDouble> p95 =
+                    sliding.share(Finishers.percentileDouble(0.95d, DoublePercentileFunction.floor()));
+            // Partitioned and unordered, so frames slide within each partition, and rebuild between them.
+            Seq.seq(namedValues)
+               .window(Window.of(t -> t.v1, bounds[0], bounds[1]))
+               .map(t -> t.v1)
+               .forEach(w -> {
+                   final DoubleArray a = w.count() > 0
+                                         ? w.window().collect(DoubleArray.collector(mapper)).sort()
+                                         : new DoubleArray();
+                   assertEquals(p50.apply(w),
+                                Finishers.percentileDouble(0.5d, DoublePercentileFunction.interpolate()).apply(a));
+                   assertEquals(p95.apply(w),
+                                Finishers.percentileDouble(0.95d, DoublePercentileFunction.floor()).apply(a));
+                   assertEquals(sliding.slide(w).toArray(), a.toArray());
+               });
+        }
+    }
+
+    @Test
+    public void slidesIncrementallyTest() {
+        final long[] calls = {0};
+        final var sliding = SlidingWindow.ofLongs((Tuple2<String, Long> t) -> {
+            calls[0]++;
+            return t.v2;
+        }, -99, 0);
+        final var p50 = sliding.share(Finishers.percentileLong(0.5d, LongPercentileFunction.floor()));
+        final var p95 = sliding.share(Finishers.percentileLong(0.95d, LongPercentileFunction.floor()));
+        Seq.seq(namedValues)
+           .window(Window.of(-99, 0))
+           .forEach(t -> assertTrue(p50.apply(t.v1).orElseThrow() <= p95.apply(t.v1).orElseThrow()));
+        // 1 add, and at most 1 remove per row, rather than re-collecting up to 100 rows.
+        assertTrue(calls[0] <= 2L * namedValues.size(), "calls " + calls[0]);
+    }
+
+    @Test
+    public void slidesByPositionTest() {
+        // One row instance, repeated, in ordered partitions, so only the partition key and row number tell rows apart.
+        final Tuple2<String, Long> row = tuple("Row", 1L);
+        final List<Tuple2<String, Long>> rows = new ArrayList<>();
+        for (int i = 0; i < 3_000; i++)
+            rows.add(i < 1_000 ? row : tuple(i < 2_000 ? "A" : "B", (long) i));
+        final long[] calls = {0};
+        final var sliding = SlidingWindow.ofLongs((Tuple2<String, Long> t) -> {
+            calls[0]++;
+            return t.v2;
+        }, t -> t.v1, -9, 0);
+        final var max = sliding.share(Finishers.percentileLong(1d, LongPercentileFunction.floor()));
+        Seq.seq(rows)
+           .window(Window.of(t -> t.v1, -9, 0))
+           .map(t -> t.v1)
+           .forEach(w -> assertEquals(max.apply(w).orElseThrow(), (long) w.max(t -> t.v2).orElseThrow()));
+        // Rebuilt once per partition, then 1 add, and at most 1 remove per row.
+        assertTrue(calls[0] <= 2L * rows.size(), "calls " + calls[0]);
+    }
+}
@@ -0,0 +1,191 @@
+package rwperrott.lambda;
+
+import static org.testng.Assert.*;
+
+import org.jooq.lambda.tuple.Tuple;
+import org.testng.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalDouble;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.UnaryOperator;
+import java.util.stream.Collector;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+public class SpillTest {
+    static final int N = 100_003;
+    static final double[] values = new double[N];
+
+    static {
+        final Random random = new Random(5);
+        for (int i = 0; i < N; i++)
+            values[i] = random.nextGaussian() * 100d;
+    }
+
+    static long files(final Path dir) throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.count();
+        }
+    }
+
+    @Test
+    public void doubleSpillTest() throws IOException {
+        final Path dir = Files.createTempDirectory("spillTest");
+        try {
+            final double[] sorted = values.clone();
+            Arrays.sort(sorted);
+            final ToDoubleFunction<Double> mapper = Double::doubleValue;
+            // 8KB budget, so many runs are spilled.
+            final Collector<Double, DoubleSpill, DoubleSpill> spill = DoubleSpill.collector(mapper, dir, 8192);
+            final var idMap = new SharableCollector.IdMap();
+            final var r = Arrays.stream(values).boxed().parallel().collect(Tuple.collectors(
+                    idMap.share("A", spill, Finishers.sortDoubleSpill(),
+                                Finishers.percentileDouble(0.5d, DoublePercentileFunction.interpolate())),
+                    idMap.share("A", spill, Finishers.sortDoubleSpill(),
+                                Finishers.percentilesDouble(new double[]{0d, 0.99d, 1d}, DoublePercentileFunction.floor())),
+                    idMap.share("A", spill, Finishers.sortDoubleSpill(), s -> s)));
+            final DoubleArray a = new DoubleArray();
+            for (double v : values)
+                a.add(v);
+            a.sort();
+            assertEquals(r.v1, Finishers.percentileDouble(0.5d, DoublePercentileFunction.interpolate()).apply(a));
+            assertEquals(r.v2, new double[]{sorted[0],
+                                            Finishers.percentileDouble(0.99d, DoublePercentileFunction.floor())
+                                                     .apply(a).orElseThrow(),
+                                            sorted[N - 1]});
+            final DoubleSpill s = r.v3;
+            assertEquals(s.count(), N);
+            assertEquals(s.runs(), 0);
+            for (int i = 0; i < N; i++)
+                assertEquals(s.valueAt(i), sorted[i]);
+            assertEquals(files(dir), 0L, "temp files deleted");
+            assertThrows(IllegalStateException.class, () -> s.add(1d));
+        } finally {
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void longSpillTest() throws IOException {
+        final Path dir = Files.createTempDirectory("spillTest");
+        try (LongSpill s = new LongSpill(dir, 800)) {
+            final long[] expected = new long[1000];
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = Long.MAX_VALUE - i * 7919L % 1000;
+                s.add(expected[i]);
+            }
+            Arrays.sort(expected);
+            assertTrue(s.runs() > 0);
+            assertEquals(files(dir), s.runs());
+            assertThrows(IllegalStateException.class, () -> s.valueAt(0));
+            s.sort();
+            for (int i = 0; i < expected.length; i++)
+                assertEquals(s.valueAt(i), expected[i]);
+        } finally {
+            assertEquals(files(dir), 0L, "temp files deleted");
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void manyRunsTest() throws IOException {
+        assertEquals(LongSpill.readBufferBytes(1), 1 << 16);
+        assertEquals(LongSpill.readBufferBytes(1000), 4192);
+        assertEquals(LongSpill.readBufferBytes(1 << 22), Long.BYTES);
+        final Path dir = Files.createTempDirectory("spillTest");
+        // One long per run, so the merge readers share one buffer, rather than a 64KB direct buffer each.
+        try (LongSpill s = new LongSpill(dir, 8)) {
+            final int n = 5_000;
+            for (long i = n - 1; i >= 0; i--)
+                s.add(i);
+            assertEquals(s.runs(), n - 1);
+            s.sort();
+            for (int i = 0; i < n; i++)
+                assertEquals(s.valueAt(i), i);
+        } finally {
+            assertEquals(files(dir), 0L, "temp files deleted");
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void releaseTest() throws IOException {
+        final Path dir = Files.createTempDirectory("spillTest");
+        try {
+            final ToDoubleFunction<Double> mapper = Double::doubleValue;
+            final List<DoubleSpill> spills = new CopyOnWriteArrayList<>();
+            final Collector<Double, ?, DoubleSpill> spill =
+                    Collectors.collectingAndThen(DoubleSpill.collector(mapper, dir, 8192), x -> {
+                        spills.add(x);
+                        return x;
+                    });
+            final UnaryOperator<DoubleSpill> sort = Finishers.sortDoubleSpill();
+            final Function<DoubleSpill, OptionalDouble> p50 =
+                    Finishers.percentileDouble(0.5d, DoublePercentileFunction.floor());
+            final double expected;
+            try (DoubleSpill all = new DoubleSpill()) {
+                for (double v : values)
+                    all.add(v);
+                expected = p50.apply(all.sort()).orElseThrow();
+            }
+            // The same andThenR, then a different one, so the stub reads a read-only view.
+            for (UnaryOperator<DoubleSpill> other : List.of(sort, (UnaryOperator<DoubleSpill>) x -> {
+                assertThrows(IllegalStateException.class, () -> x.add(1d));
+                return x.sort();
+            })) {
+                final var idMap = new SharableCollector.IdMap();
+                final var r = Arrays.stream(values).boxed().parallel().collect(Tuple.collectors(
+                        idMap.share("A", spill, sort, p50),
+                        idMap.share("A", spill, other, p50)));
+                assertEquals(r.v1.orElseThrow(), expected);
+                assertEquals(r.v2.orElseThrow(), expected);
+            }
+            final var b = SharingPlan.<Double>builder();
+            b.share("A", spill, sort, p50);
+            b.share("A", spill, sort, p50);
+            assertEquals(Arrays.stream(values).boxed().collect(b.build().collector())[1], OptionalDouble.of(expected));
+
+            // Each closed, once its columns have read it.
+            assertEquals(spills.size(), 3);
+            for (DoubleSpill x : spills)
+                assertEquals(x.count(), 0L);
+            assertEquals(files(dir), 0L, "temp files deleted");
+        } finally {
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    @Test
+    public void closeTest() throws IOException {
+        final Path dir = Files.createTempDirectory("spillTest");
+        final LongSpill s = new LongSpill(dir, 8);
+        for (long i = 0; i < 10; i++)
+            s.add(i);
+        assertEquals(files(dir), 9L);
+        s.close();
+        assertEquals(files(dir), 0L);
+        assertEquals(s.count(), 0L);
+        Files.delete(dir);
+    }
+
+    @Test
+    public void sortableTest() {
+        final double[] a = {Double.NaN, Double.POSITIVE_INFINITY, 1d, 0d, -0d, -Double.MIN_VALUE, -1d,
+                            Double.NEGATIVE_INFINITY};
+        final long[] sortable = new long[a.length];
+        for (int i = 0; i < a.length; i++)
+            sortable[i] = DoubleSpill.toSortable(a[i]);
+        Arrays.sort(a);
+        Arrays.sort(sortable);
+        for (int i = 0; i < a.length; i++)
+            assertEquals(Double.doubleToLongBits(DoubleSpill.fromSortable(sortable[i])), Double.doubleToLongBits(a[i]));
+    }
+}
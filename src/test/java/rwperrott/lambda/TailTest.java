@@ -0,0 +1,100 @@
+package rwperrott.lambda;
+
+import static org.jooq.lambda.tuple.Tuple.tuple;
+import static org.testng.Assert.*;
+
+import org.jooq.lambda.Seq;
+import org.jooq.lambda.tuple.Tuple;
+import org.jooq.lambda.tuple.Tuple2;
+import org.testng.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Random;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+import java.util.function.UnaryOperator;
+
+public class TailTest {
+    static final List<Tuple2<String, Double>> namedValues;
+    static final double[] tailPercentiles = {0.9d, 0.99d, 0.999d, 1d};
+    static final double[] headPercentiles = {0d, 0.001d, 0.01d, 0.1d};
+
+    static {
+        final Random random = new Random(23);
+        namedValues = Seq.range(0, 100_003)
+                         .map(i -> tuple("Row" + i, random.nextGaussian() * 100d))
+                         .toList();
+    }
+
+    @Test
+    public void doubleTailTest() {
+        final ToDoubleFunction<Tuple2<String, Double>> mapper = t -> t.v2;
+        final DoubleArray all = namedValues.stream().collect(DoubleArray.collector(mapper)).sort();
+        final int largestK = DoubleTail.largestK(namedValues.size(), tailPercentiles);
+        final int smallestK = DoubleTail.smallestK(namedValues.size(), headPercentiles);
+        assertTrue(largestK < namedValues.size() / 9);
+        for (DoublePercentileFunction f : new DoublePercentileFunction[]{
+                DoublePercentileFunction.floor(), DoublePercentileFunction.ceil(), DoublePercentileFunction.interpolate()}) {
+            for (boolean parallel : new boolean[]{false, true}) {
+                final DoubleTail largest = (parallel ? namedValues.parallelStream() : namedValues.stream())
+                        .collect(DoubleTail.largest(mapper, largestK));
+                assertEquals(largest.count(), namedValues.size());
+                assertEquals(largest.retained(), largestK);
+                assertEquals(Finishers.percentilesDouble(tailPercentiles, f).apply(largest),
+                             Finishers.percentilesDouble(tailPercentiles, f).apply(all));
+                final DoubleTail smallest = (parallel ? namedValues.parallelStream() : namedValues.stream())
+                        .collect(DoubleTail.smallest(mapper, smallestK));
+                assertEquals(Finishers.percentilesDouble(headPercentiles, f).apply(smallest),
+                             Finishers.percentilesDouble(headPercentiles, f).apply(all));
+            }
+        }
+        // k too small for p50
+        final DoubleTail largest = namedValues.stream().collect(DoubleTail.largest(mapper, largestK));
+        assertThrows(IllegalArgumentException.class,
+                     () -> Finishers.percentileDouble(0.5d, DoublePercentileFunction.floor()).apply(largest));
+        assertThrows(IllegalArgumentException.class, () -> largest.merge(new DoubleTail(largestK, false)));
+    }
+
+    @Test
+    public void longTailTest() {
+        final ToLongFunction<Tuple2<String, Double>> mapper = t -> Math.round(t.v2);
+        final LongArray all = namedValues.stream().collect(LongArray.collector(mapper)).sort();
+        final int k = LongTail.largestK(namedValues.size(), tailPercentiles);
+        final var idMap = new SharableCollector.IdMap();
+        final var r = namedValues.parallelStream().collect(Tuple.collectors(
+                idMap.share("A", LongTail.largest(mapper, k), UnaryOperator.identity(),
+                            Finishers.percentileLong(0.99d, LongPercentileFunction.floor())),
+                idMap.share("A", LongTail.largest(mapper, k), UnaryOperator.identity(),
+                            Finishers.percentileLong(0.999d, LongPercentileFunction.floor()))));
+        assertEquals(r.v1, Finishers.percentileLong(0.99d, LongPercentileFunction.floor()).apply(all));
+        assertEquals(r.v2, Finishers.percentileLong(0.999d, LongPercentileFunction.floor()).apply(all));
+        assertEquals(LongTail.largestK(10, 1d), 1);
+        assertEquals(LongTail.smallestK(10, 0d), 1);
+    }
+
+    @Test
+    public void listTailTest() {
+        final Function<Tuple2<String, Double>, Double> keyExtractor = t -> t.v2;
+        final Comparator<Tuple2<String, Double>> comparator = Comparator.comparing(keyExtractor);
+        final List<Tuple2<String, Double>> all = new ArrayList<>(namedValues);
+        all.sort(comparator);
+        final int k = ListTail.largestK(namedValues.size(), tailPercentiles);
+        final List<Tuple2<String, Double>> largest = namedValues.parallelStream()
+                                                                .collect(ListTail.largest(comparator, k));
+        assertEquals(largest.size(), namedValues.size());
+        for (double p : tailPercentiles) {
+            final Optional<Tuple2<String, Double>> e = Finishers.percentile(p, PercentileFunction.<Tuple2<String, Double>>floor()).apply(all);
+            assertEquals(Finishers.percentile(p, PercentileFunction.<Tuple2<String, Double>>floor()).apply(largest), e);
+            assertEquals(Finishers.percentileDouble(p, (ToDoubleFunction<Tuple2<String, Double>>) t -> t.v2,
+                                              DoublePercentileFunction.interpolate()).apply(largest),
+                         Finishers.percentileDouble(p, (ToDoubleFunction<Tuple2<String, Double>>) t -> t.v2,
+                                              DoublePercentileFunction.interpolate()).apply(all));
+        }
+        assertEquals(((ListTail<Tuple2<String, Double>>) largest).retainedList(), all.subList(all.size() - k, all.size()));
+        assertThrows(IndexOutOfBoundsException.class, () -> largest.get(0));
+    }
+}